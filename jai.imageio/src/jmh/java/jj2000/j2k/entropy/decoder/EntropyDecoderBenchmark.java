@@ -0,0 +1,152 @@
+/*
+ * #%L
+ * Fork of JAI Image I/O Tools.
+ * %%
+ * Copyright (C) 2008 - 2014 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package jj2000.j2k.entropy.decoder;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sun.media.imageio.plugins.jpeg2000.J2KImageWriteParam;
+import com.sun.media.imageioimpl.plugins.jpeg2000.J2KImageReadParamJava;
+import com.sun.media.imageioimpl.plugins.jpeg2000.J2KImageReaderSpi;
+import com.sun.media.imageioimpl.plugins.jpeg2000.J2KImageWriterSpi;
+
+/**
+ * Measures the decoding of a codestream with the standard MQ decoder and
+ * with the table-driven one ('FastMQDecoder'), whose significance
+ * propagation and cleanup passes are decoded stripe by stripe by
+ * 'StdEntropyDecoder'. The image is a noisy gradient, coded losslessly so
+ * that the entropy decoding dominates.
+ *
+ * <P>Run with: mvn -Pjmh test-compile exec:java
+ * -Dexec.args="EntropyDecoderBenchmark"
+ * */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EntropyDecoderBenchmark {
+
+    /** Whether to decode with the table-driven MQ decoder */
+    @Param({"false", "true"})
+    public boolean fastMQ;
+
+    /** The width and height of the coded image */
+    @Param({"1024"})
+    public int size;
+
+    /** The coded image */
+    private byte[] codestream;
+
+    /**
+     * Codes the image which is decoded by the benchmark.
+     * */
+    @Setup
+    public void setup() throws IOException {
+        BufferedImage img =
+            new BufferedImage(size,size,BufferedImage.TYPE_3BYTE_BGR);
+        WritableRaster r = img.getRaster();
+        Random rnd = new Random(7);
+        for (int y=0; y<size; y++) {
+            for (int x=0; x<size; x++) {
+                for (int b=0; b<3; b++) {
+                    int v = ((x+y*b)>>2)+rnd.nextInt(32);
+                    r.setSample(x,y,b,v&0xFF);
+                }
+            }
+        }
+
+        ImageWriter writer = new J2KImageWriterSpi().createWriterInstance();
+        J2KImageWriteParam param =
+            (J2KImageWriteParam)writer.getDefaultWriteParam();
+        param.setLossless(true);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        MemoryCacheImageOutputStream out =
+            new MemoryCacheImageOutputStream(bos);
+        writer.setOutput(out);
+        writer.write(null,new IIOImage(img,null,null),param);
+        out.close();
+        writer.dispose();
+        codestream = bos.toByteArray();
+    }
+
+    /**
+     * Decodes the whole image.
+     *
+     * @return The decoded image.
+     * */
+    @Benchmark
+    public BufferedImage decode() throws IOException {
+        ImageReader reader = new J2KImageReaderSpi().createReaderInstance();
+        ImageInputStream in = new MemoryCacheImageInputStream(
+            new ByteArrayInputStream(codestream));
+        try {
+            reader.setInput(in);
+            J2KImageReadParamJava param = new J2KImageReadParamJava();
+            param.setFastMQDecoding(fastMQ);
+            return reader.read(0,param);
+        } finally {
+            reader.dispose();
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * #%L
+ * Fork of JAI Image I/O Tools.
+ * %%
+ * Copyright (C) 2008 - 2014 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package com.sun.media.imageioimpl.plugins.jpeg2000;
+
+import java.awt.image.Raster;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.imageio.ImageReadParam;
+import jj2000.j2k.io.ByteBufferRandomAccessIO;
+
+/**
+ * Decodes many small JPEG 2000 images held in memory, such as photos,
+ * with a bounded number of concurrent decodings.
+ *
+ * <p>Each concurrent decoding uses its own pipeline: a
+ * <code>J2KImageReader</code> created once, and the buffers of the
+ * previous image decoded by the pipeline, which are reused for the next
+ * one.  The codestream bytes are read in place, without being copied to
+ * an <code>ImageInputStream</code> cache.
+ *
+ * <p>This class is thread safe.  <code>decode(byte[])</code> runs in the
+ * calling thread and waits for a free pipeline when all of them are in
+ * use.  <code>decode(Iterator)</code> decodes on worker threads owned by
+ * this object, which are released by <code>close</code>.
+ */
+public class J2KBatchDecoder {
+    /** The idle pipelines. */
+    private final LinkedBlockingQueue<Pipeline> pipelines =
+        new LinkedBlockingQueue<Pipeline>();
+
+    /** The maximum number of concurrent decodings. */
+    private final int parallelism;
+
+    /** The parameters applied to every image. */
+    private final ImageReadParam param;
+
+    /** The worker threads, created on first use. */
+    private ExecutorService executor;
+
+    /** Constructs a <code>J2KBatchDecoder</code> with one pipeline per
+     *  available processor and the default reading parameters.
+     */
+    public J2KBatchDecoder() {
+        this(Runtime.getRuntime().availableProcessors(), null);
+    }
+
+    /** Constructs a <code>J2KBatchDecoder</code>.
+     *  @param parallelism The maximum number of concurrent decodings.
+     *  @param param The reading parameters applied to every image, or
+     *               <code>null</code> for the default ones.  It is copied.
+     *  @throws IllegalArgumentException If <code>parallelism</code> is less
+     *          than 1.
+     */
+    public J2KBatchDecoder(int parallelism, ImageReadParam param) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism < 1");
+
+        this.parallelism = parallelism;
+        this.param = new J2KImageReadParamJava(param == null ?
+                                               new ImageReadParam() : param);
+        for (int i = 0; i < parallelism; i++)
+            pipelines.add(new Pipeline());
+    }
+
+    /** Decodes one image.
+     *  @param data The JP2 file or JPEG 2000 codestream.
+     *  @return The decoded raster.
+     */
+    public Raster decode(byte[] data) throws IOException {
+        if (data == null)
+            throw new IllegalArgumentException("data == null!");
+
+        Pipeline pipeline;
+        try {
+            pipeline = pipelines.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+
+        try {
+            return pipeline.decode(data);
+        } finally {
+            pipelines.add(pipeline);
+        }
+    }
+
+    /** Decodes a sequence of images on the worker threads.  At most
+     *  <code>parallelism</code> images are decoded ahead of the one
+     *  returned by <code>next</code>, and the rasters are returned in the
+     *  order of the input.  A decoding failure is thrown by
+     *  <code>next</code> as a <code>RuntimeException</code> whose cause is
+     *  the original exception.
+     *  @param data The JP2 files or JPEG 2000 codestreams.
+     *  @return The decoded rasters.
+     */
+    public Iterator<Raster> decode(final Iterator<byte[]> data) {
+        if (data == null)
+            throw new IllegalArgumentException("data == null!");
+
+        final ExecutorService workers = getExecutor();
+        final LinkedList<Future<Raster>> pending =
+            new LinkedList<Future<Raster>>();
+
+        return new Iterator<Raster>() {
+            private void fill() {
+                while (pending.size() < parallelism && data.hasNext()) {
+                    final byte[] image = data.next();
+                    pending.add(workers.submit(new Callable<Raster>() {
+                        public Raster call() throws IOException {
+                            return J2KBatchDecoder.this.decode(image);
+                        }
+                    }));
+                }
+            }
+
+            public boolean hasNext() {
+                fill();
+                return !pending.isEmpty();
+            }
+
+            public Raster next() {
+                fill();
+                if (pending.isEmpty())
+                    throw new NoSuchElementException();
+
+                Future<Raster> result = pending.removeFirst();
+                fill();
+                try {
+                    return result.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                } catch (ExecutionException e) {
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /** Stops the worker threads.  <code>decode(byte[])</code> may still be
+     *  used afterwards.
+     */
+    public synchronized void close() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    private synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            final AtomicInteger count = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(parallelism,
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "J2KBatchDecoder-" +
+                                              count.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        }
+        return executor;
+    }
+
+    /** A reader and the buffers released by the last image it decoded,
+     *  which are reused by the next one.  Used by one thread at a time.
+     */
+    private class Pipeline {
+        private final J2KImageReader reader = new J2KImageReader(null);
+        private J2KReadState.Buffers buffers;
+
+        Raster decode(byte[] data) throws IOException {
+            J2KReadState state =
+                new J2KReadState(new ByteBufferRandomAccessIO(data),
+                                 new J2KImageReadParamJava(param),
+                                 reader);
+            if (buffers != null) {
+                state.reuseBuffers(buffers);
+                buffers = null;
+            }
+
+            Raster raster = state.readAsRaster();
+            buffers = state.releaseBuffers();
+            return raster;
+        }
+    }
+}
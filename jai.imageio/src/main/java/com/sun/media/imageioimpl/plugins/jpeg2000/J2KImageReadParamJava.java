@@ -82,6 +82,7 @@ package com.sun.media.imageioimpl.plugins.jpeg2000;
 
 import javax.imageio.ImageReadParam;
 import com.sun.media.imageio.plugins.jpeg2000.J2KImageReadParam;
+import jj2000.j2k.codestream.reader.CodestreamIndex;
 /**
  * A subclass of <code>ImageReadParam</code> for reading images in
  * the JPEG 2000 format.
@@ -108,9 +109,11 @@ import com.sun.media.imageio.plugins.jpeg2000.J2KImageReadParam;
  *    level gives an image with the original dimension).  If the given index
  *    is greater than the number of available resolution levels of the
  *    compressed image, the decoded image has the lowest available
- *    resolution (among all tile-components).  This parameter affects only
- *    the inverse wavelet transform and not the number of bytes read by the
- *    codestream parser, which depends only on <code>decodingRate</code>.
+ *    resolution (among all tile-components).  The code-blocks of the higher
+ *    resolution levels are not decoded.  For resolution progressive
+ *    codestreams their packets are not read either, otherwise the number of
+ *    bytes read by the codestream parser depends only on
+ *    <code>decodingRate</code>.
  *    </td>
  * </tr>
  * <tr>
@@ -128,6 +131,80 @@ import com.sun.media.imageio.plugins.jpeg2000.J2KImageReadParam;
  *    truncation points in each code-block.
  *    </td>
  * </tr>
+ * <tr>
+ *    <td>tileDecodingThreads</td>
+ *    <td>Specifies the number of tiles of a <code>RenderedImage</code>
+ *    returned by <code>readAsRenderedImage</code> which may be decoded
+ *    concurrently.  When it is greater than 1, the codestream is buffered in
+ *    memory and each concurrent tile request is served by its own decoder
+ *    pipeline.  The default is 1, tiles are decoded one at a time.
+ *    </td>
+ * </tr>
+ * <tr>
+ *    <td>tileCacheSize</td>
+ *    <td>Specifies the maximum number of decoded tiles kept by a
+ *    <code>RenderedImage</code> returned by <code>readAsRenderedImage</code>.
+ *    The least recently used tile is discarded first.  The default is 1.
+ *    </td>
+ * </tr>
+ * <tr>
+ *    <td>autoResolution</td>
+ *    <td>When no <code>resolution</code> is specified and the source
+ *    subsampling factors are both even, decode a lower resolution level
+ *    and subsample it by the remaining factors instead of subsampling the
+ *    full resolution image.  The higher resolution levels are then neither
+ *    entropy decoded nor, for resolution progressive codestreams, read.
+ *    The result has the same dimensions but is low-pass filtered instead
+ *    of decimated.  This applies only when no source region and no
+ *    subsampling offsets are specified.  The default is <code>true</code>.
+ *    </td>
+ * </tr>
+ * <tr>
+ *    <td>maxLayers</td>
+ *    <td>Specifies the maximum number of quality layers to decode.  The
+ *    default is -1, all the layers are decoded.
+ *    </td>
+ * </tr>
+ * <tr>
+ *    <td>maxBytes</td>
+ *    <td>Specifies the maximum number of bytes of the codestream to read,
+ *    including its headers.  The codestream is decoded as if it were
+ *    truncated at that length.  The default is -1, the length is only
+ *    limited by <code>decodingRate</code>.
+ *    </td>
+ * </tr>
+ * <tr>
+ *    <td>layerProgressive</td>
+ *    <td>When true, <code>read</code> decodes the image once for each
+ *    quality layer, up to <code>maxLayers</code> and within
+ *    <code>maxBytes</code>, each time with one more layer.  Every
+ *    refinement is written to the same destination image and reported to
+ *    the <code>IIOReadUpdateListener</code>s as one pass.  The default is
+ *    <code>false</code>.
+ *    </td>
+ * </tr>
+ * <tr>
+ *    <td>codestreamIndex</td>
+ *    <td>Specifies a <code>CodestreamIndex</code> recording the positions
+ *    of the tile-parts and the location of the code-blocks of the tiles
+ *    read, so that later reads of the same codestream, such as reads of
+ *    other source regions, seek directly to the data they need.  The index
+ *    is shared, not copied, by the copies of this parameter and may be
+ *    serialized.  It is bound to a codestream by the SHA-256 digest of all
+ *    its bytes, so each read with an index reads the whole codestream once
+ *    to check it.  It is not used when <code>decodingRate</code> or
+ *    <code>maxBytes</code> limits the number of bytes read.  The default is
+ *    <code>null</code>, no index is kept.
+ *    </td>
+ * </tr>
+ * <tr>
+ *    <td>fastMQDecoding</td>
+ *    <td>When true, the code-blocks are entropy decoded with a table-driven
+ *    MQ arithmetic decoder, which keeps the state of each context in a
+ *    single value and renormalizes several bits at once.  The decoded
+ *    image is the same.  The default is <code>false</code>.
+ *    </td>
+ * </tr>
  * </table>
  */
 public class J2KImageReadParamJava extends J2KImageReadParam {
@@ -145,6 +222,30 @@ public class J2KImageReadParamJava extends J2KImageReadParam {
      */
     private boolean parsingEnabled = true;
 
+    /** The number of tiles which may be decoded concurrently. */
+    private int tileDecodingThreads = 1;
+
+    /** The maximum number of decoded tiles kept in memory. */
+    private int tileCacheSize = 1;
+
+    /** Whether a lower resolution level may be selected when subsampling. */
+    private boolean autoResolution = true;
+
+    /** The maximum number of quality layers to decode, -1 for all. */
+    private int maxLayers = -1;
+
+    /** The maximum number of codestream bytes to read, -1 for no limit. */
+    private int maxBytes = -1;
+
+    /** Whether each quality layer is delivered as a separate pass. */
+    private boolean layerProgressive = false;
+
+    /** The index of the codestream shared by the reads, or null. */
+    private CodestreamIndex codestreamIndex = null;
+
+    /** Whether the table-driven MQ decoder is used. */
+    private boolean fastMQDecoding = false;
+
     /** Constructs a default instance of <code>J2KImageReadParamJava</code>. */
     public J2KImageReadParamJava() {
         super();
@@ -178,6 +279,18 @@ public class J2KImageReadParamJava extends J2KImageReadParam {
         }
         setDecodingRate(j2kParam.getDecodingRate());
         setResolution(j2kParam.getResolution());
+
+        if(param instanceof J2KImageReadParamJava) {
+            J2KImageReadParamJava javaParam = (J2KImageReadParamJava)param;
+            setTileDecodingThreads(javaParam.getTileDecodingThreads());
+            setTileCacheSize(javaParam.getTileCacheSize());
+            setAutoResolution(javaParam.getAutoResolution());
+            setMaxLayers(javaParam.getMaxLayers());
+            setMaxBytes(javaParam.getMaxBytes());
+            setLayerProgressive(javaParam.getLayerProgressive());
+            setCodestreamIndex(javaParam.getCodestreamIndex());
+            setFastMQDecoding(javaParam.getFastMQDecoding());
+        }
     }
 
     /** Sets <code>noROIDescaling</code> */
@@ -199,4 +312,130 @@ public class J2KImageReadParamJava extends J2KImageReadParam {
     public boolean getParsingEnabled() {
         return parsingEnabled;
     }
+
+    /** Sets <code>tileDecodingThreads</code>
+     *  @throws IllegalArgumentException If <code>value</code> is less than 1.
+     */
+    public void setTileDecodingThreads(int value) {
+        if (value < 1)
+            throw new IllegalArgumentException("tileDecodingThreads < 1");
+        this.tileDecodingThreads = value;
+    }
+
+    /** Gets <code>tileDecodingThreads</code> */
+    public int getTileDecodingThreads() {
+        return tileDecodingThreads;
+    }
+
+    /** Sets <code>tileCacheSize</code>
+     *  @throws IllegalArgumentException If <code>value</code> is less than 1.
+     */
+    public void setTileCacheSize(int value) {
+        if (value < 1)
+            throw new IllegalArgumentException("tileCacheSize < 1");
+        this.tileCacheSize = value;
+    }
+
+    /** Gets <code>tileCacheSize</code> */
+    public int getTileCacheSize() {
+        return tileCacheSize;
+    }
+
+    /** Sets <code>autoResolution</code> */
+    public void setAutoResolution(boolean value) {
+        this.autoResolution = value;
+    }
+
+    /** Gets <code>autoResolution</code> */
+    public boolean getAutoResolution() {
+        return autoResolution;
+    }
+
+    /** Sets <code>maxLayers</code>, -1 to decode all the layers
+     *  @throws IllegalArgumentException If <code>value</code> is 0 or less
+     *          than -1.
+     */
+    public void setMaxLayers(int value) {
+        if (value == 0 || value < -1)
+            throw new IllegalArgumentException("maxLayers");
+        this.maxLayers = value;
+    }
+
+    /** Gets <code>maxLayers</code> */
+    public int getMaxLayers() {
+        return maxLayers;
+    }
+
+    /** Sets <code>maxBytes</code>, -1 for no limit
+     *  @throws IllegalArgumentException If <code>value</code> is less than -1.
+     */
+    public void setMaxBytes(int value) {
+        if (value < -1)
+            throw new IllegalArgumentException("maxBytes < -1");
+        this.maxBytes = value;
+    }
+
+    /** Gets <code>maxBytes</code> */
+    public int getMaxBytes() {
+        return maxBytes;
+    }
+
+    /** Sets <code>layerProgressive</code> */
+    public void setLayerProgressive(boolean value) {
+        this.layerProgressive = value;
+    }
+
+    /** Gets <code>layerProgressive</code> */
+    public boolean getLayerProgressive() {
+        return layerProgressive;
+    }
+
+    /** Sets <code>codestreamIndex</code>, null to keep no index */
+    public void setCodestreamIndex(CodestreamIndex value) {
+        this.codestreamIndex = value;
+    }
+
+    /** Gets <code>codestreamIndex</code> */
+    public CodestreamIndex getCodestreamIndex() {
+        return codestreamIndex;
+    }
+
+    /** Sets <code>fastMQDecoding</code> */
+    public void setFastMQDecoding(boolean value) {
+        this.fastMQDecoding = value;
+    }
+
+    /** Gets <code>fastMQDecoding</code> */
+    public boolean getFastMQDecoding() {
+        return fastMQDecoding;
+    }
+
+    /** Selects the lowest resolution level which may replace the source
+     *  subsampling, if <code>autoResolution</code> is set and the
+     *  resolution, the source region and the subsampling offsets are not
+     *  specified.  Each level below <code>maxLevel</code> halves both
+     *  subsampling factors.
+     *
+     *  @param maxLevel The highest resolution level available.
+     */
+    void selectResolution(int maxLevel) {
+        if (!autoResolution || getResolution() != -1 ||
+            getSourceRegion() != null ||
+            getSubsamplingXOffset() != 0 || getSubsamplingYOffset() != 0)
+            return;
+
+        int subX = getSourceXSubsampling();
+        int subY = getSourceYSubsampling();
+        int level = maxLevel;
+        while (level > 0 && (subX & 1) == 0 && (subY & 1) == 0) {
+            subX >>= 1;
+            subY >>= 1;
+            level--;
+        }
+
+        if (level != maxLevel) {
+            setResolution(level);
+            setSourceSubsampling(subX, subY, 0, 0);
+        }
+    }
 }
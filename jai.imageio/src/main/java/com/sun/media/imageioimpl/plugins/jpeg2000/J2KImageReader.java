@@ -98,6 +98,7 @@ import java.awt.image.RenderedImage;
 
 import java.io.*;
 import java.util.List;
+import java.nio.ByteBuffer;
 import java.util.Iterator;
 import java.util.ArrayList;
 
@@ -126,6 +127,11 @@ public class J2KImageReader extends ImageReader implements MsgLogger {
     /** The input stream where reads from */
     private ImageInputStream iis = null;
 
+    /** The input when it is a byte array or a <code>ByteBuffer</code>,
+     *  which is read in place instead of through <code>iis</code>.
+     */
+    private ByteBufferRandomAccessIO byteInput = null;
+
     /** Stream position when setInput() was called. */
     private long streamPosition0;
 
@@ -322,6 +328,32 @@ public class J2KImageReader extends ImageReader implements MsgLogger {
                                   bands);
     }
 
+    /** Wrapper for the protected method <code>processPassStarted</code>
+     *  So it can be access from the classes which are not in
+     *  <code>ImageReader</code> hierarchy.
+     */
+    public void processPassStartedWrapper(BufferedImage theImage,
+                                          int pass,
+                                          int minPass, int maxPass,
+                                          int minX, int minY,
+                                          int periodX, int periodY,
+                                          int[] bands) {
+        processPassStarted(theImage,
+                           pass,
+                           minPass, maxPass,
+                           minX, minY,
+                           periodX, periodY,
+                           bands);
+    }
+
+    /** Wrapper for the protected method <code>processPassComplete</code>
+     *  So it can be access from the classes which are not in
+     *  <code>ImageReader</code> hierarchy.
+     */
+    public void processPassCompleteWrapper(BufferedImage theImage) {
+        processPassComplete(theImage);
+    }
+
     /** Wrapper for the protected method <code>processImageProgress</code>
      *  So it can be access from the classes which are not in
      *  <code>ImageReader</code> hierarchy.
@@ -347,8 +379,18 @@ public class J2KImageReader extends ImageReader implements MsgLogger {
                          boolean ignoreMetadata) {
         super.setInput(input, seekForwardOnly, ignoreMetadata);
         this.ignoreMetadata = ignoreMetadata;
-        iis = (ImageInputStream) input; // Always works
         imageMetadata = null;
+        if (input instanceof byte[]) {
+            byteInput = new ByteBufferRandomAccessIO((byte[])input);
+            iis = null;
+            return;
+        } else if (input instanceof ByteBuffer) {
+            byteInput = new ByteBufferRandomAccessIO((ByteBuffer)input);
+            iis = null;
+            return;
+        }
+        byteInput = null;
+        iis = (ImageInputStream) input; // Always works
         try {
             this.streamPosition0 = iis.getStreamPosition();
         } catch(IOException e) {
@@ -409,15 +451,12 @@ public class J2KImageReader extends ImageReader implements MsgLogger {
 
         if (readState == null) {
             try {
-                iis.seek(streamPosition0);
+                readState =
+                    createReadState(new J2KImageReadParamJava(getDefaultReadParam()),
+                                    null);
             } catch(IOException e) {
                 // XXX ignore
             }
-
-            readState =
-                new J2KReadState(iis,
-                                 new J2KImageReadParamJava(getDefaultReadParam()),
-                                 this);
         }
 
         hd = readState.getHeader();
@@ -427,6 +466,25 @@ public class J2KImageReader extends ImageReader implements MsgLogger {
         this.height = hd.getImgHeight();
     }
 
+    /** Creates the state reading the input from its start: the stream
+     *  position when <code>setInput</code> was called, or the first byte
+     *  of an in-memory input.
+     *  @param metadata The metadata to fill, or <code>null</code>.
+     */
+    private J2KReadState createReadState(J2KImageReadParamJava param,
+                                         J2KMetadata metadata)
+        throws IOException {
+        if (byteInput != null)
+            return metadata != null ?
+                new J2KReadState(byteInput.duplicate(), param, metadata, this) :
+                new J2KReadState(byteInput.duplicate(), param, this);
+
+        iis.seek(streamPosition0);
+        return metadata != null ?
+            new J2KReadState(iis, param, metadata, this) :
+            new J2KReadState(iis, param, this);
+    }
+
     public Iterator getImageTypes(int imageIndex)
         throws IOException {
         checkIndex(imageIndex);
@@ -451,9 +509,13 @@ public class J2KImageReader extends ImageReader implements MsgLogger {
             return null;
 
         if (imageMetadata == null) {
-            iis.mark();
-            imageMetadata = new J2KMetadata(iis, this);
-            iis.reset();
+            if (byteInput != null)
+                imageMetadata = new J2KMetadata(byteInput.duplicate(), this);
+            else {
+                iis.mark();
+                imageMetadata = new J2KMetadata(iis, this);
+                iis.reset();
+            }
         }
         return imageMetadata;
     }
@@ -473,19 +535,10 @@ public class J2KImageReader extends ImageReader implements MsgLogger {
 
         param = new J2KImageReadParamJava(param);
 
-        if (!ignoreMetadata) {
+        if (!ignoreMetadata)
             imageMetadata = new J2KMetadata();
-            iis.seek(streamPosition0);
-            readState = new J2KReadState(iis,
-                                         (J2KImageReadParamJava)param,
-                                         imageMetadata,
-                                         this);
-        } else {
-            iis.seek(streamPosition0);
-            readState = new J2KReadState(iis,
-                                         (J2KImageReadParamJava)param,
-                                         this);
-        }
+        readState = createReadState((J2KImageReadParamJava)param,
+                                    ignoreMetadata ? null : imageMetadata);
 
         BufferedImage bi = readState.readBufferedImage();
         if (abortRequested())
@@ -507,7 +560,14 @@ public class J2KImageReader extends ImageReader implements MsgLogger {
             param = getDefaultReadParam();
 
         param = new J2KImageReadParamJava(param);
-        if (!ignoreMetadata) {
+        if (byteInput != null) {
+            if (!ignoreMetadata && imageMetadata == null)
+                imageMetadata = new J2KMetadata();
+            ri = new J2KRenderedImage(
+                createReadState((J2KImageReadParamJava)param,
+                                ignoreMetadata ? null : imageMetadata),
+                (J2KImageReadParamJava)param);
+        } else if (!ignoreMetadata) {
             if (imageMetadata == null)
                 imageMetadata = new J2KMetadata();
             ri = new J2KRenderedImage(iis,
@@ -543,19 +603,10 @@ public class J2KImageReader extends ImageReader implements MsgLogger {
         }
         param = new J2KImageReadParamJava(param);
 
-        if (!ignoreMetadata) {
+        if (!ignoreMetadata)
             imageMetadata = new J2KMetadata();
-            iis.seek(streamPosition0);
-            readState = new J2KReadState(iis,
-                                         (J2KImageReadParamJava)param,
-                                         imageMetadata,
-                                         this);
-        } else {
-            iis.seek(streamPosition0);
-            readState = new J2KReadState(iis,
-                                         (J2KImageReadParamJava)param,
-                                         this);
-        }
+        readState = createReadState((J2KImageReadParamJava)param,
+                                    ignoreMetadata ? null : imageMetadata);
 
         Raster ras = readState.readAsRaster();
         if (abortRequested())
@@ -582,6 +633,7 @@ public class J2KImageReader extends ImageReader implements MsgLogger {
         super.reset();
 
         iis = null;
+        byteInput = null;
         gotHeader = false;
         imageMetadata = null;
         readState = null;
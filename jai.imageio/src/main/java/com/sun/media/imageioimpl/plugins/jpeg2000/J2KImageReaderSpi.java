@@ -80,6 +80,7 @@
  */
 package com.sun.media.imageioimpl.plugins.jpeg2000;
 
+import java.nio.ByteBuffer;
 import java.util.Locale;
 import javax.imageio.spi.ImageReaderSpi;
 import javax.imageio.stream.ImageInputStream;
@@ -102,6 +103,8 @@ public class J2KImageReaderSpi extends ImageReaderSpi {
     private static String[] extensions =
         {"jp2"}; // Should add jpx or jpm
     private static String[] mimeTypes = {"image/jp2", "image/jpeg2000"};
+    private static Class[] inputTypes =
+        {ImageInputStream.class, byte[].class, ByteBuffer.class};
     private boolean registered = false;
 
     public J2KImageReaderSpi() {
@@ -111,7 +114,7 @@ public class J2KImageReaderSpi extends ImageReaderSpi {
               extensions,
               mimeTypes,
               "com.sun.media.imageioimpl.plugins.jpeg2000.J2KImageReader",
-              STANDARD_INPUT_TYPE,
+              inputTypes,
               writerSpiNames,
               false,
               null, null,
@@ -155,6 +158,16 @@ public class J2KImageReaderSpi extends ImageReaderSpi {
     }
 
     public boolean canDecodeInput(Object source) throws IOException {
+        if (source instanceof byte[])
+            source = ByteBuffer.wrap((byte[])source);
+
+        if (source instanceof ByteBuffer) {
+            ByteBuffer buf = (ByteBuffer)source;
+            byte[] b = new byte[Math.min(12, buf.remaining())];
+            buf.duplicate().get(b);
+            return isJ2KSignature(b, b.length);
+        }
+
         if (!(source instanceof ImageInputStream)) {
             return false;
         }
@@ -195,6 +208,35 @@ public class J2KImageReaderSpi extends ImageReaderSpi {
         return true;
     }
 
+    /** Checks whether the first <code>len</code> bytes of <code>b</code>
+     *  start a codestream or a JP2 file.
+     */
+    private static boolean isJ2KSignature(byte[] b, int len) {
+        // The SOC marker of a codestream
+        if (len >= 2 && (b[0] & 0xFF) == 0xFF && (b[1] & 0xFF) == 0x4F)
+            return true;
+
+        //Verify the signature box
+        if (len < 12)
+            return false;
+
+        // The length of the signature box is 12
+        if (b[0] !=0 || b[1]!=0 || b[2] != 0 || b[3] != 12)
+            return false;
+
+        // The signature box type is "jP  "
+        if ((b[4] & 0xff) != 0x6A || (b[5] & 0xFF) != 0x50 ||
+            (b[6] & 0xFF) !=0x20 || (b[7] & 0xFF) != 0x20)
+            return false;
+
+        // The signture content is 0x0D0A870A
+        if ((b[8] & 0xFF) != 0x0D || (b[9] & 0xFF) != 0x0A ||
+            (b[10] & 0xFF) != 0x87 || (b[11] &0xFF) != 0x0A)
+            return false;
+
+        return true;
+    }
+
     public ImageReader createReaderInstance(Object extension)
         throws IIOException {
         return new J2KImageReader(this);
@@ -86,6 +86,7 @@ import java.awt.image.RenderedImage;
 import java.util.Collections;
 import java.util.Locale;
 import java.util.Iterator;
+import java.util.concurrent.Executor;
 import javax.imageio.IIOImage;
 import javax.imageio.ImageWriteParam;
 import jj2000.j2k.*;
@@ -415,9 +416,76 @@ import com.sun.media.imageio.plugins.jpeg2000.J2KImageWriteParam;
  *    </td>
  *    <td>Yes</td>
  * </tr>
+ * <tr>
+ *    <td>tileEncodingThreads</td>
+ *    <td>Specifies the number of tiles which may be encoded concurrently.
+ *    When it is greater than 1, each concurrent tile goes through its own
+ *    wavelet transform, quantizer and entropy coder, and the coded tiles
+ *    are assembled in order by the rate allocator.  The codestream is the
+ *    same as when the tiles are encoded one at a time.  The default is 1.
+ *    </td>
+ *    <td>No</td>
+ * </tr>
+ * <tr>
+ *    <td>codeBlockEncodingThreads</td>
+ *    <td>Specifies the number of code-blocks of a tile which may be entropy
+ *    coded concurrently by each entropy coder.  0 codes them one at a time
+ *    on the calling thread.  The default is -1, which uses the value of the
+ *    <code>jj2000.j2k.entropy.encoder.StdEntropyCoder.nthreads</code>
+ *    system property.  If it is not set, code-blocks are encoded on the
+ *    <code>encodingExecutor</code>, as many at a time as its parallelism
+ *    (the number of processors unless it is a <code>ForkJoinPool</code>),
+ *    or one at a time if there is no executor.
+ *    </td>
+ *    <td>No</td>
+ * </tr>
+ * <tr>
+ *    <td>encodingExecutor</td>
+ *    <td>Specifies the <code>Executor</code> on which the concurrent tiles
+ *    and code-blocks are encoded.  Any task the executor has not started
+ *    when its result is needed is run by the thread waiting for it, so a
+ *    bounded executor may be shared by many writers.  The default is null:
+ *    code-blocks are then encoded on fork-join pools shared by all the
+ *    writers and tiles on threads created for each write.
+ *    </td>
+ *    <td>No</td>
+ * </tr>
+ * <tr>
+ *    <td>distortionThreshold</td>
+ *    <td>Enables single-pass encoding at a fixed quality, instead of the
+ *    search for the <code>encodingRate</code>.  The codestream has a single
+ *    layer in which each code-block keeps the coding passes that decrease
+ *    the distortion by at least this threshold per byte, the distortion
+ *    being the sum of the squared errors of the samples for a nominal range
+ *    of 1.  The entropy coder stops coding a code-block once no further
+ *    pass can be kept, and each tile is written as soon as it is coded, so
+ *    only one tile is held in memory; a large untiled image is therefore
+ *    tiled when no tile size is set, as described below.  0 keeps all the passes,
+ *    which is lossless with the reversible scheme.  The
+ *    <code>encodingRate</code>, <code>layers</code> and
+ *    <code>tileEncodingThreads</code> parameters are then ignored.  The default is -1, which disables this mode.
+ *    </td>
+ *    <td>No</td>
+ * </tr>
  * </table>
+ *
+ * <p>When no tile size is set and tiling is not disabled, the tiles of
+ * the source are encoded as the tiles of the codestream, except that a
+ * source tile of more than 4M pixels, such as an untiled scanned page, is
+ * split in tiles of 1024x1024, since the wavelet transform holds a whole
+ * tile-component in memory.
  */
 public class J2KImageWriteParamJava extends ImageWriteParam {
+    /** The number of pixels above which a source tile is split in tiles
+     *  of <code>AUTO_TILE_SIZE</code> when no tile size is set.
+     */
+    static final long AUTO_TILING_THRESHOLD = 1L << 22;
+
+    /** The width and height of the tiles of a large untiled source when no
+     *  tile size is set.
+     */
+    static final int AUTO_TILE_SIZE = 1024;
+
     /**
      * Indicates that the packet headers are packed in the tiles' headers.
      */
@@ -649,6 +717,27 @@ public class J2KImageWriteParamJava extends ImageWriteParam {
      */
     private StringSpec SOP = null;
 
+    /** The number of tiles which may be encoded concurrently.  Default: 1.
+     */
+    private int tileEncodingThreads = 1;
+
+    /** The number of code-blocks which may be entropy coded concurrently,
+     *  negative to use the StdEntropyCoder system property or, if it is not
+     *  set, the parallelism of <code>encodingExecutor</code>.  Default: -1.
+     */
+    private int codeBlockEncodingThreads = -1;
+
+    /** The executor on which tiles and code-blocks are encoded
+     *  concurrently, or null.  Default: null.
+     */
+    private Executor encodingExecutor = null;
+
+    /** The rate-distortion slope for single-pass fixed-quality encoding,
+     *  negative to allocate the rate to <code>encodingRate</code>.
+     *  Default: -1.
+     */
+    private float distortionThreshold = -1f;
+
     private int numTiles;
     private int numComponents;
 
@@ -680,7 +769,12 @@ public class J2KImageWriteParamJava extends ImageWriteParam {
             setTiling(param.getTileWidth(), param.getTileHeight(),
                       param.getTileGridXOffset(), param.getTileGridYOffset());
         } catch (IllegalStateException e) {
-            // tileing is not set do nothing.
+            // tiling is not set: a large untiled source is tiled so that
+            // the encoder does not hold it whole
+            if (param.getTilingMode() != MODE_DISABLED &&
+                (long)tileWidth * tileHeight > AUTO_TILING_THRESHOLD)
+                setTiling(AUTO_TILE_SIZE, AUTO_TILE_SIZE,
+                          tileGridXOffset, tileGridYOffset);
         }
 
         setDestinationOffset(param.getDestinationOffset());
@@ -708,6 +802,15 @@ public class J2KImageWriteParamJava extends ImageWriteParam {
         setCodeBlockSize("" + size[0] +" " + size[1]);
         enableCT = j2kParam.getComponentTransformation();
         setComponentTransformation("" + enableCT);
+
+        if (param instanceof J2KImageWriteParamJava) {
+            J2KImageWriteParamJava javaParam = (J2KImageWriteParamJava)param;
+            setTileEncodingThreads(javaParam.getTileEncodingThreads());
+            setCodeBlockEncodingThreads(
+                javaParam.getCodeBlockEncodingThreads());
+            setEncodingExecutor(javaParam.getEncodingExecutor());
+            setDistortionThreshold(javaParam.getDistortionThreshold());
+        }
     }
 
 
@@ -1186,6 +1289,55 @@ public class J2KImageWriteParamJava extends ImageWriteParam {
         return EPH;
     }
 
+    /** Sets <code>tileEncodingThreads</code>
+     *  @throws IllegalArgumentException If <code>value</code> is less than 1.
+     */
+    public void setTileEncodingThreads(int value) {
+        if (value < 1)
+            throw new IllegalArgumentException("tileEncodingThreads < 1");
+        this.tileEncodingThreads = value;
+    }
+
+    /** Gets <code>tileEncodingThreads</code> */
+    public int getTileEncodingThreads() {
+        return tileEncodingThreads;
+    }
+
+    /** Sets <code>codeBlockEncodingThreads</code>.  A negative value uses
+     *  the <code>StdEntropyCoder</code> system property or, if it is not
+     *  set, the parallelism of <code>encodingExecutor</code>.
+     */
+    public void setCodeBlockEncodingThreads(int value) {
+        this.codeBlockEncodingThreads = value < 0 ? -1 : value;
+    }
+
+    /** Gets <code>codeBlockEncodingThreads</code> */
+    public int getCodeBlockEncodingThreads() {
+        return codeBlockEncodingThreads;
+    }
+
+    /** Sets <code>encodingExecutor</code> */
+    public void setEncodingExecutor(Executor executor) {
+        this.encodingExecutor = executor;
+    }
+
+    /** Gets <code>encodingExecutor</code> */
+    public Executor getEncodingExecutor() {
+        return encodingExecutor;
+    }
+
+    /** Sets <code>distortionThreshold</code>.  A negative value disables
+     *  single-pass encoding.
+     */
+    public void setDistortionThreshold(float value) {
+        this.distortionThreshold = value < 0f ? -1f : value;
+    }
+
+    /** Gets <code>distortionThreshold</code> */
+    public float getDistortionThreshold() {
+        return distortionThreshold;
+    }
+
     /** Sets <code>progressionName</code> */
     public void setProgressionName(String values) {
         progressionName = values;
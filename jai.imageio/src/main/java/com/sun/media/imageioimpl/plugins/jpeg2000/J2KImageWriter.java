@@ -91,12 +91,14 @@ import java.awt.image.SampleModel;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import java.util.Arrays;
 import java.util.List;
 
 import javax.imageio.IIOImage;
 import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
 import javax.imageio.ImageTypeSpecifier;
 import javax.imageio.ImageWriteParam;
 import javax.imageio.ImageWriter;
@@ -109,6 +111,8 @@ import javax.imageio.stream.ImageOutputStream;
 import jj2000.j2k.codestream.writer.CodestreamWriter;
 import jj2000.j2k.codestream.writer.FileCodestreamWriter;
 import jj2000.j2k.codestream.writer.HeaderEncoder;
+import jj2000.j2k.codestream.writer.MemoryCodestreamWriter;
+import jj2000.j2k.entropy.encoder.CodedCBlkDataSrcEnc;
 import jj2000.j2k.entropy.encoder.EntropyCoder;
 import jj2000.j2k.entropy.encoder.PostCompRateAllocator;
 import jj2000.j2k.fileformat.writer.FileFormatWriter;
@@ -138,6 +142,8 @@ import org.w3c.dom.Node;
  *
  * The encoding process may re-tile image, clip, subsample, and select bands
  * using the parameters specified in the <code>ImageWriteParam</code>.
+ * When no tile size is specified, a large untiled image is encoded in
+ * tiles of 1024x1024 so that it is never transformed as a whole.
  *
  * @see com.sun.media.imageio.plugins.J2KImageWriteParam
  */
@@ -146,7 +152,7 @@ public class J2KImageWriter extends ImageWriter {
      *  So it can be access from the classes which are not in
      *  <code>ImageWriter</code> hierachy.
      */
-    public void processImageProgressWrapper(float percentageDone) {
+    public synchronized void processImageProgressWrapper(float percentageDone) {
         processImageProgress(percentageDone);
     }
 
@@ -156,6 +162,16 @@ public class J2KImageWriter extends ImageWriter {
      */
     public static String WRITE_ABORTED = "Write aborted.";
 
+    /** The maximum size, in bytes of uncompressed samples, of an image
+     *  whose codestream is built in memory instead of in a temporary file
+     *  when <code>ImageIO.getUseCache()</code> is true.  When the cache is
+     *  not used the codestream is always built in memory.
+     */
+    private static final long MAX_IN_MEMORY_IMAGE_SIZE = 16L << 20;
+
+    /** The initial size of the buffer of a codestream built in memory. */
+    private static final int INITIAL_BUFFER_SIZE = 64 << 10;
+
     /** The output stream to write into */
     private ImageOutputStream stream = null;
 
@@ -362,25 +378,27 @@ public class J2KImageWriter extends ImageWriter {
         ROIScaler rois = ROIScaler.createInstance(quant, j2kwparam);
 
         // Creates EntropyCoder
-        EntropyCoder ecoder =
-	    EntropyCoder.createInstance(rois, j2kwparam,
-		j2kwparam.getCodeBlockSize(),
-		j2kwparam.getPrecinctPartition(),
-		j2kwparam.getBypass(),
-		j2kwparam.getResetMQ(),
-		j2kwparam.getTerminateOnByte(),
-		j2kwparam.getCausalCXInfo(),
-		j2kwparam.getCodeSegSymbol(),
-		j2kwparam.getMethodForMQLengthCalc(),
-		j2kwparam.getMethodForMQTermination());
+        EntropyCoder ecoder = createEntropyCoder(rois, j2kwparam);
 
-        // Rely on rate allocator to limit amount of data
-        File tmpFile = File.createTempFile("jiio-", ".tmp");
-        tmpFile.deleteOnExit();
+        // Small images are encoded in memory, larger ones in a temporary
+        // file unless the ImageIO cache is disabled
+        long imageSize = 0;
+        for (int comp = 0; comp < imgsrc.getNumComps(); comp++)
+            imageSize += (long)((imgsrc.getNomRangeBits(comp) + 7) >> 3) *
+                imgsrc.getImgWidth() * imgsrc.getImgHeight();
+        File tmpFile = null;
 
         // Creates CodestreamWriter
-        FileCodestreamWriter bwriter =
-            new FileCodestreamWriter(tmpFile, Integer.MAX_VALUE);
+        // Rely on rate allocator to limit amount of data
+        FileCodestreamWriter bwriter;
+        if (!ImageIO.getUseCache() || imageSize <= MAX_IN_MEMORY_IMAGE_SIZE) {
+            bwriter = new MemoryCodestreamWriter(Integer.MAX_VALUE,
+                                                 INITIAL_BUFFER_SIZE);
+        } else {
+            tmpFile = File.createTempFile("jiio-", ".tmp");
+            tmpFile.deleteOnExit();
+            bwriter = new FileCodestreamWriter(tmpFile, Integer.MAX_VALUE);
+        }
 
         // Creates the rate allocator
         float rate = (float)j2kwparam.getEncodingRate();
@@ -390,6 +408,33 @@ public class J2KImageWriter extends ImageWriter {
                                                  bwriter,
                                                  j2kwparam);
 
+        // Creates one more encoding chain for each additional tile which
+        // may be encoded concurrently, unless the tiles are encoded and
+        // written one at a time in a single pass
+        int nchains = (j2kwparam.getDistortionThreshold() >= 0f) ? 1 :
+            Math.min(j2kwparam.getTileEncodingThreads(),
+                     imgtiler.getNumTiles());
+        if (nchains > 1) {
+            CodedCBlkDataSrcEnc[] tileSrcs =
+                new CodedCBlkDataSrcEnc[nchains - 1];
+            for (int i = 0; i < tileSrcs.length; i++) {
+                RenderedImageSrc src = writeRaster ?
+                    new RenderedImageSrc(raster, j2kwparam, this) :
+                    new RenderedImageSrc(input, j2kwparam, this);
+                Tiler tiler = new Tiler(src,refx,refy,trefx,trefy,tw,th);
+                ForwardWT wt =
+                    ForwardWT.createInstance(
+                        new ImgDataConverter(
+                            new ForwCompTransf(tiler, j2kwparam)),
+                        j2kwparam);
+                tileSrcs[i] = createEntropyCoder(
+                    ROIScaler.createInstance(
+                        Quantizer.createInstance(wt, j2kwparam), j2kwparam),
+                    j2kwparam);
+            }
+            ralloc.setTileSources(tileSrcs);
+        }
+
         // Instantiates the HeaderEncoder
         HeaderEncoder headenc =
             new HeaderEncoder(imgsrc, imsigned, dwt, imgtiler,
@@ -401,43 +446,51 @@ public class J2KImageWriter extends ImageWriter {
         headenc.encodeMainHeader();
 
         //Initializes rate allocator, with proper header
-        // overhead. This will also encode all the data
+        // overhead. This will also encode all the data, unless it is
+        // encoded by runAndWrite() in a single pass
         try {
             ralloc.initialize();
+
+            // Write header (final)
+            headenc.reset();
+            headenc.encodeMainHeader();
+
+            // Insert header into the codestream
+            bwriter.commitBitstreamHeader(headenc);
+
+            // Now do the rate-allocation and write result
+            ralloc.runAndWrite();
         } catch (RuntimeException e) {
             if (WRITE_ABORTED.equals(e.getMessage())) {
                 bwriter.close();
-                tmpFile.delete();
+                if (tmpFile != null)
+                    tmpFile.delete();
                 processWriteAborted();
                 return;
             } else throw e;
         }
 
-        // Write header (final)
-        headenc.reset();
-        headenc.encodeMainHeader();
-
-        // Insert header into the codestream
-        bwriter.commitBitstreamHeader(headenc);
-
-        // Now do the rate-allocation and write result
-        ralloc.runAndWrite();
-
         //Done for data encoding
         bwriter.close();
 
         // Calculate file length
         int fileLength = bwriter.getLength();
+        ByteBuffer codestream = (tmpFile == null) ?
+            ((MemoryCodestreamWriter)bwriter).getByteBuffer() : null;
 
         // Tile-parts and packed packet headers
         int pktspertp = j2kwparam.getPacketPerTilePart();
         int ntiles = imgtiler.getNumTiles();
         if (pktspertp>0 || pphTile || pphMain){
-            CodestreamManipulator cm =
+            CodestreamManipulator cm = (tmpFile != null) ?
                 new CodestreamManipulator(tmpFile, ntiles, pktspertp,
+                                          pphMain, pphTile, tempSop,
+                                          tempEph) :
+                new CodestreamManipulator(codestream, ntiles, pktspertp,
                                           pphMain, pphTile, tempSop,
                                           tempEph);
             fileLength += cm.doCodestreamManipulation();
+            codestream = cm.getByteBuffer();
         }
 
         // File Format
@@ -508,8 +561,15 @@ public class J2KImageWriter extends ImageWriter {
             }
         }
 
-        FileFormatWriter ffw =
+        FileFormatWriter ffw = (tmpFile != null) ?
             new FileFormatWriter(tmpFile, stream,
+                                 imgsrc.getImgHeight(),
+                                 imgsrc.getImgWidth(), nc, bpc,
+                                 fileLength,
+                                 colorModel,
+                                 sampleModel,
+                                 metadata) :
+            new FileFormatWriter(codestream, stream,
                                  imgsrc.getImgHeight(),
                                  imgsrc.getImgWidth(), nc, bpc,
                                  fileLength,
@@ -517,7 +577,8 @@ public class J2KImageWriter extends ImageWriter {
                                  sampleModel,
                                  metadata);
         fileLength += ffw.writeFileFormat();
-        tmpFile.delete();
+        if (tmpFile != null)
+            tmpFile.delete();
 
         processImageComplete();
     }
@@ -539,6 +600,23 @@ public class J2KImageWriter extends ImageWriter {
         return abortRequested();
     }
 
+    /** Creates the entropy coder of an encoding chain, with the code-block
+     *  and coding options of <code>j2kwparam</code>.
+     */
+    private static EntropyCoder createEntropyCoder(ROIScaler rois,
+                                                   J2KImageWriteParamJava j2kwparam) {
+        return EntropyCoder.createInstance(rois, j2kwparam,
+                                           j2kwparam.getCodeBlockSize(),
+                                           j2kwparam.getPrecinctPartition(),
+                                           j2kwparam.getBypass(),
+                                           j2kwparam.getResetMQ(),
+                                           j2kwparam.getTerminateOnByte(),
+                                           j2kwparam.getCausalCXInfo(),
+                                           j2kwparam.getCodeSegSymbol(),
+                                           j2kwparam.getMethodForMQLengthCalc(),
+                                           j2kwparam.getMethodForMQTermination());
+    }
+
     private void checkSampleModel(SampleModel sm) {
         int type = sm.getDataType();
 
@@ -172,6 +172,29 @@ public class J2KMetadata extends IIOMetadata implements Cloneable {
         iis.reset();
     }
 
+    /*
+     * Constructs a <code>J2KMetadata</code> object by reading the
+     * contents of a <code>RandomAccessIO</code> from its current position,
+     * which is restored afterwards.
+     *
+     * @param in A <code>RandomAccessIO</code> from which to read
+     * the metadata.
+     * @param reader The <code>J2KImageReader</code> calling this
+     * constructor, to which warnings should be sent.
+     */
+    public J2KMetadata(RandomAccessIO in,
+                       J2KImageReader reader) throws IOException {
+        this();
+        int start = in.getPos();
+
+        // **** File Format ****
+        // If the codestream is wrapped in the jp2 fileformat, Read the
+        // file format wrapper
+        FileFormatReader ff = new FileFormatReader(in, this);
+        ff.readFileFormat();
+        in.seek(start);
+    }
+
     /**
      * Constructs a default stream <code>J2KMetadata</code> object appropriate
      * for the given write parameters.
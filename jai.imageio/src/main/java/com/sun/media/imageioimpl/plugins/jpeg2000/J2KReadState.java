@@ -245,6 +245,118 @@ public class J2KReadState {
         initializeRead(0, param, null);
     }
 
+    /** Constructs <code>J2KReadState</code> reading from a
+     *  <code>RandomAccessIO</code>, from its current position.
+     *  @param in The input.
+     *  @param param The reading parameters.
+     *  @param metadata The <code>J2KMetadata</code> to cache the metadata read
+     *                  from the input.
+     *  @param reader The <code>J2KImageReader</code> which holds this state.
+     *                It is necessary for processing abortion.
+     *  @throw IllegalArgumentException If the provided <code>in</code>,
+     *          <code>param</code> or <code>metadata</code> is <code>null</code>.
+     */
+    public J2KReadState(RandomAccessIO in,
+                        J2KImageReadParamJava param,
+                        J2KMetadata metadata,
+                        J2KImageReader reader) {
+        if (in == null || param == null || metadata == null)
+            throw new IllegalArgumentException(I18N.getString("J2KReadState0"));
+
+        this.in = in;
+        this.j2krparam = param;
+        this.metadata = metadata;
+        this.reader = reader;
+
+        initializeRead(0, param, metadata);
+    }
+
+    /** Constructs <code>J2KReadState</code> reading from a
+     *  <code>RandomAccessIO</code>, from its current position.
+     *  @param in The input.
+     *  @param param The reading parameters.
+     *  @param reader The <code>J2KImageReader</code> which holds this state.
+     *                It is necessary for processing abortion.
+     *  @throw IllegalArgumentException If the provided <code>in</code>,
+     *          or <code>param</code> is <code>null</code>.
+     */
+    public J2KReadState(RandomAccessIO in,
+                        J2KImageReadParamJava param,
+                        J2KImageReader reader) {
+        if (in == null || param == null)
+            throw new IllegalArgumentException(I18N.getString("J2KReadState0"));
+
+        this.in = in;
+        this.j2krparam = param;
+        this.reader = reader;
+        initializeRead(0, param, null);
+    }
+
+    /** Constructs a <code>J2KReadState</code> decoding the same codestream
+     *  with the same parameters through its own decoding chain, so that
+     *  both may be used concurrently.
+     *  @throw IllegalStateException If the input of this object is not
+     *          a <code>ByteBufferRandomAccessIO</code>.
+     */
+    J2KReadState duplicate() {
+        if (!(in instanceof ByteBufferRandomAccessIO))
+            throw new IllegalStateException();
+
+        RandomAccessIO copy = ((ByteBufferRandomAccessIO)in).duplicate();
+        J2KReadState state = (metadata != null) ?
+            new J2KReadState(copy, j2krparam, new J2KMetadata(), reader) :
+            new J2KReadState(copy, j2krparam, reader);
+        state.sampleModel = getSampleModel();
+        state.colorModel = getColorModel();
+        return state;
+    }
+
+    /** The buffers of a <code>J2KReadState</code> which can be reused by
+     *  the next one: the reconstructed component buffers of the inverse
+     *  wavelet transform, the line buffers and the <code>DataBlkInt</code>s
+     *  used to request the data.  Unlike the state itself, they do not
+     *  reference the codestream nor the decoder chain.
+     */
+    static class Buffers {
+        private DataBlk[] comps;
+        private int[] pixbuf;
+        private byte[] bytebuf;
+        private DataBlkInt[] dataBlocks;
+    }
+
+    /** Gives up the buffers of this <code>J2KReadState</code>, which has
+     *  completed its read and is no longer used.
+     */
+    Buffers releaseBuffers() {
+        Buffers buffers = new Buffers();
+        if (invWT instanceof InvWTFull)
+            buffers.comps = ((InvWTFull)invWT).releaseBuffers();
+        buffers.pixbuf = pixbuf;
+        buffers.bytebuf = bytebuf;
+        buffers.dataBlocks = dataBlocks;
+        pixbuf = null;
+        bytebuf = null;
+        dataBlocks = null;
+        return buffers;
+    }
+
+    /** Takes over the buffers released by a previous
+     *  <code>J2KReadState</code>.
+     */
+    void reuseBuffers(Buffers buffers) {
+        if (invWT instanceof InvWTFull && buffers.comps != null)
+            ((InvWTFull)invWT).reuseBuffers(buffers.comps);
+
+        pixbuf = buffers.pixbuf;
+        bytebuf = buffers.bytebuf;
+
+        if (buffers.dataBlocks != null) {
+            for (int i = Math.min(dataBlocks.length,
+                                  buffers.dataBlocks.length) - 1; i >= 0; i--)
+                dataBlocks[i] = buffers.dataBlocks[i];
+        }
+    }
+
     public int getWidth() throws IOException {
         return width;
     }
@@ -417,12 +529,47 @@ public class J2KReadState {
             raster = image.getWritableTile(0, 0);
 
         destImage = image;
-        readSubsampledRaster(raster);
+        if (j2krparam.getLayerProgressive() &&
+            breader instanceof FileBitstreamReaderAgent)
+            readLayers(image, raster);
+        else
+            readSubsampledRaster(raster);
         destinationRegion.setLocation(x, y);
         destImage = null;
         return image;
     }
 
+    /** Decodes the image once per quality layer, each time with one more
+     *  layer, and delivers each refinement to the update listeners of the
+     *  reader as a pass.
+     */
+    private void readLayers(BufferedImage image, WritableRaster raster)
+        throws IOException {
+        FileBitstreamReaderAgent fbreader = (FileBitstreamReaderAgent)breader;
+        int numLayers = decSpec.nls.getMax();
+        int maxLayers = j2krparam.getMaxLayers();
+        if (maxLayers != -1 && maxLayers < numLayers)
+            numLayers = maxLayers;
+
+        try {
+            for (int l = 1; l <= numLayers; l++) {
+                if (reader.getAbortRequest())
+                    break;
+
+                fbreader.setMaxLayers(l);
+                reader.processPassStartedWrapper(image, l - 1, 0,
+                                                 numLayers - 1,
+                                                 destinationRegion.x,
+                                                 destinationRegion.y,
+                                                 1, 1, destinationBands);
+                readSubsampledRaster(raster);
+                reader.processPassCompleteWrapper(image);
+            }
+        } finally {
+            fbreader.setMaxLayers(maxLayers);
+        }
+    }
+
     public Raster readAsRaster() throws IOException {
         BufferedImage image = j2krparam.getDestination();
         WritableRaster raster = null;
@@ -445,8 +592,12 @@ public class J2KReadState {
     private void initializeRead(int imageIndex, J2KImageReadParamJava param,
                                 J2KMetadata metadata) {
         try {
-            iis.mark();
-            in = new IISRandomAccessIO(iis);
+            int start = 0;
+            if (iis != null) {
+                iis.mark();
+                in = new IISRandomAccessIO(iis);
+            } else
+                start = in.getPos();
 
             // **** File Format ****
             // If the codestream is wrapped in the jp2 fileformat, Read the
@@ -486,6 +637,11 @@ public class J2KReadState {
             // all tile-components.
             int minResLevels = hd.getDecoderSpecs().dls.getMin();
 
+            // Thumbnails are decoded from a lower resolution level rather
+            // than subsampled from the full resolution image.
+            if (param != null && hd.getImgULX() == 0 && hd.getImgULY() == 0)
+                param.selectResolution(minResLevels);
+
             // Set current resolution level.
             this.resolution = param != null ?
                 param.getResolution() : minResLevels;
@@ -725,7 +881,10 @@ public class J2KReadState {
                 fracBits[i] = ictransf.getFixedPoint(sourceBands[i]);
             }
 
-            iis.reset();
+            if (iis != null)
+                iis.reset();
+            else
+                in.seek(start);
         } catch (IllegalArgumentException e){
 	    throw new RuntimeException(e.getMessage(), e);
 	} catch (Error e) {
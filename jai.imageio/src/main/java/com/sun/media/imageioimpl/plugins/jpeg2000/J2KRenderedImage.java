@@ -85,14 +85,38 @@ import java.awt.Rectangle;
 import java.awt.image.Raster;
 import java.awt.image.WritableRaster;
 import java.io.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.imageio.stream.ImageInputStream;
 import jj2000.j2k.codestream.reader.*;
+import jj2000.j2k.io.ByteBufferRandomAccessIO;
+import jj2000.j2k.io.RandomAccessIO;
 
 import com.sun.media.imageioimpl.common.SimpleRenderedImage;
 
 public class J2KRenderedImage extends SimpleRenderedImage {
-    private Raster currentTile;
-    private Point currentTileGrid;
+    /** The decoded tiles, the least recently used first. */
+    private final Map<Point, Raster> tileCache;
+
+    /** The tiles being decoded, so that each one is decoded only once. */
+    private final ConcurrentHashMap<Point, FutureTask<Raster>> pendingTiles =
+        new ConcurrentHashMap<Point, FutureTask<Raster>>();
+
+    /** The decoding chains not currently decoding a tile. */
+    private final LinkedBlockingQueue<J2KReadState> idleStates =
+        new LinkedBlockingQueue<J2KReadState>();
+
+    /** The number of decoding chains created so far. */
+    private final AtomicInteger numStates = new AtomicInteger(1);
+
+    /** The maximum number of decoding chains. */
+    private final int maxStates;
 
     private J2KReadState readState;
 
@@ -100,17 +124,41 @@ public class J2KRenderedImage extends SimpleRenderedImage {
                             J2KImageReadParamJava param,
                             J2KMetadata metadata,
                             J2KImageReader reader) throws IOException {
-        this(new J2KReadState(iis, param, metadata, reader));
+        this(createReadState(iis, param, metadata, reader), param);
     }
 
     public J2KRenderedImage(ImageInputStream iis,
                             J2KImageReadParamJava param,
                             J2KImageReader reader) throws IOException {
-        this(new J2KReadState(iis, param, reader));
+        this(createReadState(iis, param, null, reader), param);
+    }
+
+    /** Constructs an image decoded through <code>readState</code> with the
+     *  tile decoding threads and tile cache size of <code>param</code>.
+     *  The input of <code>readState</code> should be a
+     *  <code>ByteBufferRandomAccessIO</code> if several threads are used.
+     */
+    J2KRenderedImage(J2KReadState readState, J2KImageReadParamJava param) {
+        this(readState, param.getTileDecodingThreads(),
+             param.getTileCacheSize());
     }
 
     public J2KRenderedImage(J2KReadState readState) {
+        this(readState, 1, 1);
+    }
+
+    private J2KRenderedImage(J2KReadState readState,
+                             int maxStates,
+                             final int tileCacheSize) {
         this.readState = readState;
+        this.maxStates = maxStates;
+        this.tileCache =
+            new LinkedHashMap<Point, Raster>(16, 0.75f, true) {
+                protected boolean removeEldestEntry(Map.Entry<Point, Raster> e) {
+                    return size() > tileCacheSize;
+                }
+            };
+        idleStates.add(readState);
 
         HeaderDecoder hd = readState.getHeader();
 
@@ -131,35 +179,154 @@ public class J2KRenderedImage extends SimpleRenderedImage {
         colorModel = readState.getColorModel();
     }
 
-    public synchronized Raster getTile(int tileX, int tileY) {
-        if (currentTile != null &&
-            currentTileGrid.x == tileX &&
-            currentTileGrid.y == tileY)
-            return currentTile;
+    /** Creates the first decoding chain.  The codestream is buffered in
+     *  memory when several tiles may be decoded concurrently, each decoding
+     *  chain then reads the shared bytes through its own
+     *  <code>RandomAccessIO</code>.
+     */
+    private static J2KReadState createReadState(ImageInputStream iis,
+                                                J2KImageReadParamJava param,
+                                                J2KMetadata metadata,
+                                                J2KImageReader reader)
+        throws IOException {
+        if (iis == null || param == null || param.getTileDecodingThreads() <= 1)
+            return metadata != null ?
+                new J2KReadState(iis, param, metadata, reader) :
+                new J2KReadState(iis, param, reader);
 
+        RandomAccessIO in = buffer(iis);
+        return metadata != null ?
+            new J2KReadState(in, param, metadata, reader) :
+            new J2KReadState(in, param, reader);
+    }
+
+    /**
+     * Reads the remaining bytes of an <code>ImageInputStream</code> into
+     * memory.  The position of the stream is left unchanged.
+     *
+     * @param iis The stream to read.
+     */
+    private static ByteBufferRandomAccessIO buffer(ImageInputStream iis)
+        throws IOException {
+        long len = iis.length() - iis.getStreamPosition();
+        byte[] data =
+            new byte[len > 0 && len < Integer.MAX_VALUE ? (int)len : 65536];
+        int pos = 0;
+        int n;
+
+        iis.mark();
+        try {
+            while ((n = iis.read(data, pos, data.length - pos)) != -1) {
+                pos += n;
+                if (pos == data.length) {
+                    if (iis.length() != -1 && pos == len)
+                        break;
+                    byte[] tmp = new byte[2*data.length];
+                    System.arraycopy(data, 0, tmp, 0, pos);
+                    data = tmp;
+                }
+            }
+        } finally {
+            iis.reset();
+        }
+        return new ByteBufferRandomAccessIO(data, 0, pos);
+    }
+
+    public Raster getTile(final int tileX, final int tileY) {
         if (tileX >= getNumXTiles() || tileY >= getNumYTiles())
             throw new IllegalArgumentException(I18N.getString("J2KReadState1"));
 
+        final Point key = new Point(tileX, tileY);
+        Raster tile;
+        synchronized (tileCache) {
+            tile = tileCache.get(key);
+        }
+        if (tile != null)
+            return tile;
+
+        FutureTask<Raster> task =
+            new FutureTask<Raster>(new Callable<Raster>() {
+                public Raster call() throws IOException {
+                    return decodeTile(key);
+                }
+            });
+        FutureTask<Raster> pending = pendingTiles.putIfAbsent(key, task);
+        if (pending == null) {
+            pending = task;
+            try {
+                task.run();
+            } finally {
+                pendingTiles.remove(key);
+            }
+        }
+
         try {
-            int x = tileXToX(tileX);
-            int y = tileYToY(tileY);
-            currentTile =
-                Raster.createWritableRaster(sampleModel,
-                                            new Point(x, y));
-            currentTile = readState.getTile(tileX,
-                                            tileY,
-                                            (WritableRaster)currentTile);
-        } catch (IOException e) {
+            return pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException)cause;
+            if (cause instanceof Error)
+                throw (Error)cause;
+            throw new RuntimeException(cause);
+        }
+    }
+
+    private Raster decodeTile(Point key) throws IOException {
+        Raster tile;
+
+        // Another thread may have completed it since the cache was checked
+        synchronized (tileCache) {
+            tile = tileCache.get(key);
+        }
+        if (tile != null)
+            return tile;
+
+        J2KReadState state = acquireState();
+        try {
+            int x = tileXToX(key.x);
+            int y = tileYToY(key.y);
+            tile = Raster.createWritableRaster(sampleModel, new Point(x, y));
+            tile = state.getTile(key.x, key.y, (WritableRaster)tile);
+        } finally {
+            idleStates.add(state);
+        }
+
+        synchronized (tileCache) {
+            tileCache.put(key, tile);
         }
+        return tile;
+    }
+
+    /** Returns an idle decoding chain, creating a new one if less than
+     *  <code>maxStates</code> exist, or waiting for one to be released
+     *  otherwise.
+     */
+    private J2KReadState acquireState() throws IOException {
+        J2KReadState state = idleStates.poll();
+        if (state != null)
+            return state;
 
-        if (currentTileGrid == null)
-            currentTileGrid = new Point(tileX, tileY);
-        else {
-            currentTileGrid.x = tileX;
-            currentTileGrid.y = tileY;
+        int n;
+        while ((n = numStates.get()) < maxStates) {
+            if (numStates.compareAndSet(n, n + 1)) {
+                try {
+                    return readState.duplicate();
+                } catch (RuntimeException e) {
+                    numStates.decrementAndGet();
+                    throw e;
+                }
+            }
         }
 
-        return currentTile;
+        try {
+            return idleStates.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
     }
 }
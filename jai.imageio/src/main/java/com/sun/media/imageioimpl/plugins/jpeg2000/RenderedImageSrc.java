@@ -83,6 +83,7 @@ package com.sun.media.imageioimpl.plugins.jpeg2000;
 import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
 import java.awt.image.ComponentSampleModel;
 import java.awt.image.DataBuffer;
@@ -132,11 +133,25 @@ public class RenderedImageSrc implements BlkImgDataSrc {
     // XXX: Should be an int[] of length 'nc'.
     private int rb;
 
-    /** Buffer for the 3 components of each pixel(in the current block) */
+    /** The number of samples read from the source at once, for each
+     *  component, in strips of whole lines */
+    private static final int STRIP_SIZE = 1 << 14;
+
+    /** Buffer for the strip of lines of each component */
     private int[][] barr = null;
 
-    /** Data block used only to store coordinates of the buffered blocks */
-    private DataBlkInt dbi = new DataBlkInt();
+    /** Data blocks used only to store the coordinates of the strip of lines
+     *  buffered for each component, or null if there is none */
+    private DataBlkInt[] dbi = null;
+
+    /** Buffer for a line of samples read from the source */
+    private int[] line;
+
+    /** The source data last read from the source image for the strips of
+     *  the current tile, when they are not read from a tile, and its bounds
+     */
+    private Raster stripSrc;
+    private Rectangle stripSrcBounds;
 
     /** The line buffer. */
     private byte buf[];
@@ -537,6 +552,11 @@ public class RenderedImageSrc implements BlkImgDataSrc {
         co.x = x;
         co.y = y;
         aTile = null;
+        stripSrc = null;
+        if (dbi != null) {
+            for (int i = 0; i < nc; i++)
+                dbi[i] = null;
+        }
     }
 
     /**
@@ -755,9 +775,12 @@ public class RenderedImageSrc implements BlkImgDataSrc {
      * that is taken depends on the action that has been registered in
      * JJ2KExceptionHandler. See JJ2KExceptionHandler for details.
      *
-     * <P>This method implements buffering for the 3 components: When the
-     * first one is asked, all the 3 components are read and stored until they
-     * are needed.
+     * <P>This method implements buffering for each component: When a line
+     * of a component is asked, a strip of lines of that component is read,
+     * down to the end of the tile, and kept until a line out of the strip is
+     * asked. The strips are read in place of the source tile when it would
+     * have to be built or computed, so that only the source lines of the
+     * current tile are held in memory.
      *
      * @param blk Its coordinates and dimensions specify the area to
      * return. Some fields in this object are modified to return the data.
@@ -775,8 +798,10 @@ public class RenderedImageSrc implements BlkImgDataSrc {
         if (writer != null && writer.getAbortRequest())
             throw new RuntimeException(J2KImageWriter.WRITE_ABORTED);
 
-        if (barr == null)
+        if (barr == null) {
             barr = new int[nc][];
+            dbi = new DataBlkInt[nc];
+        }
 
 	// Check type of block provided as an argument
 	if(blk.getDataType()!=DataBlk.TYPE_INT){
@@ -795,59 +820,155 @@ public class RenderedImageSrc implements BlkImgDataSrc {
             (getTileIdx() + (blk.uly + 1.0F) / blk.h) / getNumTiles();
         writer.processImageProgressWrapper(percentage * 100.0F);
 
-        // If asking a component for the first time for this block, read the 3
-        // components
-        if ((barr[c] == null) ||
-            (dbi.ulx > blk.ulx) || (dbi.uly > blk.uly) ||
-            (dbi.ulx+dbi.w < blk.ulx+blk.w) ||
-            (dbi.uly+dbi.h < blk.uly+blk.h)) {
-            int k,j,i,mi;
-
-            // Reset data arrays if needed
-            if (barr[c] == null || barr[c].length < blk.w*blk.h) {
-                barr[c] = new int[blk.w*blk.h];
+        // If the block is not in the buffered strip of the component, read
+        // the strip starting with the block
+        DataBlkInt strip = dbi[c];
+        if ((strip == null) ||
+            (strip.ulx > blk.ulx) || (strip.uly > blk.uly) ||
+            (strip.ulx+strip.w < blk.ulx+blk.w) ||
+            (strip.uly+strip.h < blk.uly+blk.h)) {
+            if (strip == null)
+                strip = dbi[c] = new DataBlkInt();
+
+            // The strip spans the block columns and goes down to the end of
+            // the tile, with at most STRIP_SIZE samples
+            int tileEnd = co.y * tileHeight + tileYOffset - minY +
+                getTileHeight();
+            strip.ulx = blk.ulx;
+            strip.uly = blk.uly;
+            strip.w = blk.w;
+            strip.h = Math.max(blk.h,
+                               Math.min(STRIP_SIZE / Math.max(blk.w, 1),
+                                        tileEnd - blk.uly));
+            strip.scanw = blk.w;
+
+            // Reset data array if needed
+            if (barr[c] == null || barr[c].length < strip.w*strip.h) {
+                barr[c] = new int[strip.w*strip.h];
             }
-            blk.setData(barr[c]);
 
-            for (i = (c + 1) % nc; i != c; i = (i + 1) % nc)
-                if (barr[i] == null || barr[i].length < blk.w*blk.h) {
-                    barr[i] = new int[blk.w*blk.h];
-                }
+            readStrip(strip, c, barr[c]);
+        }
 
-            // set attributes of the DataBlk used for buffering
-            dbi.ulx = blk.ulx;
-            dbi.uly = blk.uly;
-            dbi.w = blk.w;
-            dbi.h = blk.h;
+        // Set buffer attributes
+        blk.setData(barr[c]);
+        blk.offset = (blk.uly-strip.uly)*strip.scanw+blk.ulx-strip.ulx;
+        blk.scanw = strip.scanw;
 
-            // get data from the image
+        // Turn off the progressive attribute
+        blk.progressive = false;
+	return blk;
+    }
+
+    /**
+     * Reads a strip of lines of a component, level shifted, in the specified
+     * array. The lines are read from the destination tile if it is available
+     * without being built or computed as a whole, that is, if the source
+     * is a <code>Raster</code> or a <code>BufferedImage</code>, or if the
+     * destination tiles are the tiles of the source image. Otherwise the
+     * source lines of the strip are read from the source image, down to the
+     * end of the tile if there are several components, and kept for the
+     * following strips of all the components of the tile.
+     *
+     * @param strip The coordinates and dimensions of the strip, in the same
+     * system as the blocks asked to getInternCompData().
+     *
+     * @param c The index of the component.
+     *
+     * @param data The array where to return the strip, with a scan width of
+     * the strip width.
+     */
+    private void readStrip(DataBlkInt strip, int c, int[] data) {
+        int k, n = strip.w*strip.h;
+
+        if (noTransform &&
+            (inputIsRaster || src instanceof BufferedImage ||
+             src.getNumXTiles() * src.getNumYTiles() > 1)) {
+            // get data from the tile
             if (aTile == null) {
                 aTile = getTile(co.x, co.y);
                 Rectangle temp = aTile.getBounds();
                 aTile = aTile.createTranslatedChild(temp.x-minX,
                                                     temp.y-minY);
             }
-
-            for (i = 0; i < nc ; i++) {
-                aTile.getSamples(blk.ulx, blk.uly, blk.w, blk.h, i, barr[i]);
-                for (k = 0; k < barr[i].length; k++)
-                    barr[i][k] -= dcOffset;
+            aTile.getSamples(strip.ulx, strip.uly, strip.w, strip.h, c, data);
+        } else {
+            Raster source;
+            if (inputIsRaster) {
+                source = raster;
+            } else if (src instanceof BufferedImage) {
+                source = ((BufferedImage)src).getRaster();
+            } else {
+                // Get the source lines of the strip, unless already read.
+                // The components are asked one after the other over the
+                // whole tile, so with several components the source lines
+                // are read down to the end of the tile at once, and then
+                // used for the strips of all the components
+                int h = strip.h;
+                if (nc > 1)
+                    h = Math.max(h, co.y * tileHeight + tileYOffset - minY +
+                                 getTileHeight() - strip.uly);
+                Rectangle rect =
+                    new Rectangle(mapToSourceX(strip.ulx + minX),
+                                  mapToSourceY(strip.uly + minY),
+                                  (strip.w - 1) * scaleX + 1,
+                                  (h - 1) * scaleY + 1).
+                    intersection(new Rectangle(src.getMinX(), src.getMinY(),
+                                               src.getWidth(),
+                                               src.getHeight()));
+                if (stripSrc == null || !stripSrcBounds.contains(rect)) {
+                    stripSrc = rect.isEmpty() ? null : src.getData(rect);
+                    stripSrcBounds = rect;
+                }
+                source = stripSrc;
             }
-            //getByteData(raster, new Rectangle(blk.ulx, blk.uly, blk.w, blk.h), barr);
-
-            // Set buffer attributes
-            blk.setData(barr[c]);
-            blk.offset = 0;
-            blk.scanw = blk.w;
-        } else { //Asking for the 2nd or 3rd block component
-            blk.setData(barr[c]);
-            blk.offset = (blk.ulx-dbi.ulx)*dbi.w+blk.ulx-dbi.ulx;
-            blk.scanw = dbi.scanw;
+            readSourceLines(source, strip, sourceBands[c], data);
         }
 
-        // Turn off the progressive attribute
-        blk.progressive = false;
-	return blk;
+        for (k = 0; k < n; k++)
+            data[k] -= dcOffset;
+    }
+
+    /**
+     * Reads the source samples of the destination lines of a strip,
+     * applying the subsampling. The samples out of the source are set to 0.
+     *
+     * @param source The source data, or null if there is none for the strip.
+     *
+     * @param strip The coordinates and dimensions of the strip.
+     *
+     * @param band The source band to read.
+     *
+     * @param data The array where to return the strip.
+     */
+    private void readSourceLines(Raster source, DataBlkInt strip, int band,
+                                 int[] data) {
+        int x = mapToSourceX(strip.ulx + minX);
+        int y = mapToSourceY(strip.uly + minY);
+        int minSX = source == null ? 0 : source.getMinX();
+        int maxSX = source == null ? 0 : minSX + source.getWidth();
+        int minSY = source == null ? 0 : source.getMinY();
+        int maxSY = source == null ? 0 : minSY + source.getHeight();
+
+        // Number of destination samples of a line in the source
+        int dLength = 0;
+        if (x >= minSX && x < maxSX)
+            dLength = Math.min(strip.w, (maxSX - x + scaleX - 1) / scaleX);
+        int length = dLength == 0 ? 0 : (dLength - 1) * scaleX + 1;
+        if (line == null || line.length < length)
+            line = new int[length];
+
+        for (int j = 0, off = 0; j < strip.h; j++, y += scaleY,
+                 off += strip.w) {
+            int i = 0;
+            if (y >= minSY && y < maxSY && dLength > 0) {
+                source.getSamples(x, y, length, 1, band, line);
+                for (int offset = 0; i < dLength; i++, offset += scaleX)
+                    data[off + i] = line[offset];
+            }
+            for (; i < strip.w; i++)
+                data[off + i] = 0;
+        }
     }
 
     /**
@@ -979,6 +1100,10 @@ public class RenderedImageSrc implements BlkImgDataSrc {
         return pos/tileSize;
     }
 
+    /**
+     * Returns the source data of a destination tile, when there is no
+     * transformation from the source to the destination.
+     */
     private Raster getTile(int tileX, int tileY) {
         int sx = tileXOffset + tileX * tileWidth;
         int sy = tileYOffset + tileY * tileHeight;
@@ -986,78 +1111,16 @@ public class RenderedImageSrc implements BlkImgDataSrc {
         tileY += tileYOffset / tileHeight;
 
         if (inputIsRaster) {
-            if (noTransform) {
-                return raster.createChild(sx, sy, getTileWidth(), getTileHeight(),
-                                          sx, sy, sourceBands);
-            }
-
-            WritableRaster ras =
-                Raster.createWritableRaster(sm, new Point(sx, sy));
-
-            int x = mapToSourceX(sx);
-            int y = mapToSourceY(sy);
-
-            int minY = raster.getMinY();
-            int maxY = raster.getMinY() + raster.getHeight();
-
-            int cTileWidth = getTileWidth();
-            for (int j = 0; j < getTileHeight(); j++, sy++, y += scaleY) {
-                if (y < minY || y >= maxY)
-                    continue;
-                Raster source = raster.createChild(x, y, (cTileWidth - 1) * scaleX + 1, 1,
-                                                   x, y, null);
-                int tempX = sx;
-                for (int i = 0, offset = x; i < cTileWidth; i++, tempX++, offset += scaleX) {
-                    for (int k = 0; k < nc; k++) {
-                        int p = source.getSample(offset, y, sourceBands[k]);
-                        ras.setSample(tempX, sy, k, p);
-                    }
-                }
-            }
-
-            return ras;
-
+            return raster.createChild(sx, sy, getTileWidth(), getTileHeight(),
+                                      sx, sy, sourceBands);
         } else {
-            if (noTransform) {
-                Raster ras = src.getTile(tileX, tileY);
-                if (noSubband)
-                    return ras;
-                else {
-                    return ras.createChild(sx, sy, tileWidth, tileHeight,
-                                           sx, sy, sourceBands);
-                }
-            }
-
-            WritableRaster ras = Raster.createWritableRaster(sm, new Point(sx, sy));
-
-            int x = mapToSourceX(sx);
-            int y = mapToSourceY(sy);
-
-            int minY = src.getMinY();
-            int maxY = src.getMinY() + src.getHeight();
-	    int length = tileWidth * scaleX;
-
-	    if (x + length >= src.getWidth())
-		length = src.getWidth() - x;
-	    int dLength = (length + scaleX -1 ) / scaleX;
-
-            for (int j = 0; j < tileHeight; j++, sy++, y += scaleY) {
-                if (y < minY || y >= maxY)
-                    continue;
-
-                Raster source = src.getData(new Rectangle(x, y, length, 1));
-
-                int tempX = sx;
-                for (int i = 0, offset = x; i < dLength; i++, tempX++, offset += scaleX) {
-
-                    for (int k = 0; k < nc; k++) {
-                        int p = source.getSample(offset, y, sourceBands[k]);
-
-                        ras.setSample(tempX, sy, k, p);
-                    }
-                }
+            Raster ras = src.getTile(tileX, tileY);
+            if (noSubband)
+                return ras;
+            else {
+                return ras.createChild(sx, sy, tileWidth, tileHeight,
+                                       sx, sy, sourceBands);
             }
-            return ras;
         }
     }
 
@@ -83,6 +83,7 @@
 
 package jj2000.j2k.codestream.reader;
 
+import java.io.Serializable;
 import java.util.*;
 
 /**
@@ -90,7 +91,9 @@ import java.util.*;
  * (there is one piece per layer) and some other information.
  *
  * */
-public class CBlkInfo{
+public class CBlkInfo implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     /** Upper-left x-coordinate of the code-block (relative to the
         tile) */
@@ -0,0 +1,289 @@
+/*
+ * #%L
+ * Fork of JAI Image I/O Tools.
+ * %%
+ * Copyright (C) 2008 - 2014 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package jj2000.j2k.codestream.reader;
+
+import java.io.Serializable;
+import java.security.MessageDigest;
+
+/**
+ * An index of a codestream, filled by the <code>FileBitstreamReaderAgent</code>
+ * instances which read it: the position of each tile-part and, for each
+ * tile whose packet headers have been read, the location of the
+ * code-blocks' codewords (see <code>CBlkInfo</code>).  Later reads of the
+ * same codestream seek directly to the tile-parts and code-blocks they
+ * need, without walking the tile-part headers which precede them nor
+ * decoding packet headers again.
+ *
+ * <p>An index is bound to the first codestream it is used with, which is
+ * identified by the SHA-256 digest of all its bytes.  It is serializable so
+ * that it may be stored next to the file and reused by another process.
+ * If it is used with a codestream whose digest differs, even if only in
+ * its packet data, it is cleared and filled again.  Checking the digest
+ * reads the whole codestream once, sequentially, each time the index is
+ * used with a new reader, which is much cheaper than decoding the packet
+ * headers but not free for large codestreams.  All the positions it keeps are relative to
+ * the start of the codestream, so they do not depend on a file format
+ * wrapper nor on where the stream starts.
+ *
+ * <p>This class is thread safe: the decoders of several tiles may share an
+ * index.
+ *
+ * @see FileBitstreamReaderAgent
+ * */
+public class CodestreamIndex implements Serializable {
+
+    private static final long serialVersionUID = 2L;
+
+    /** The name of the digest algorithm which identifies a codestream */
+    static final String DIGEST_ALGORITHM = "SHA-256";
+
+    /** The digest of all the bytes of the indexed codestream, or null */
+    private byte[] digest;
+
+    /** The length of the indexed codestream, up to the end of the file */
+    private int length = -1;
+
+    /** The number of tiles of the indexed codestream */
+    private int nt = 0;
+
+    /** The offset of each tile-part, per tile, or null if not known yet */
+    private int[][] tilePartOff;
+
+    /** The code-blocks of each tile, null if its packets were not read */
+    private CBlkInfo[][][][][][] cbI;
+
+    /** The highest resolution level read in each tile */
+    private int[] maxRes;
+
+    /** Creates an empty index. */
+    public CodestreamIndex() {
+    }
+
+    /**
+     * Clears this index, all the codestream information is discarded.
+     * */
+    public synchronized void clear() {
+        digest = null;
+        length = -1;
+        nt = 0;
+        tilePartOff = null;
+        cbI = null;
+        maxRes = null;
+    }
+
+    /**
+     * Returns whether the positions of all the tile-parts are known.
+     * */
+    public synchronized boolean hasTileParts() {
+        return tilePartOff != null;
+    }
+
+    /**
+     * Returns the number of tiles whose code-blocks are known.
+     * */
+    public synchronized int getNumIndexedTiles() {
+        int n = 0;
+        for(int t=0; cbI!=null && t<cbI.length; t++) {
+            if(cbI[t]!=null) n++;
+        }
+        return n;
+    }
+
+    /**
+     * Binds this index to a codestream, clearing it if it was describing
+     * another one.
+     *
+     * @param digest The DIGEST_ALGORITHM digest of the codestream, up to the
+     * end of the file.
+     *
+     * @param length The length of the codestream, up to the end of the
+     * file.
+     *
+     * @param nt The number of tiles.
+     * */
+    synchronized void bind(byte[] digest,int length,int nt) {
+        if(this.length==length && this.nt==nt &&
+           MessageDigest.isEqual(this.digest,digest)) {
+            return;
+        }
+        clear();
+        this.digest = (byte[])digest.clone();
+        this.length = length;
+        this.nt = nt;
+        cbI = new CBlkInfo[nt][][][][][];
+        maxRes = new int[nt];
+    }
+
+    /**
+     * Returns the positions of the tile-parts of each tile, or null if they
+     * are not known.
+     *
+     * @param start The position of the start of the codestream.
+     * */
+    synchronized long[][] getTilePartPositions(int start) {
+        if(tilePartOff==null) {
+            return null;
+        }
+        long[][] pos = new long[nt][];
+        for(int t=0; t<nt; t++) {
+            pos[t] = new long[tilePartOff[t].length];
+            for(int tp=0; tp<pos[t].length; tp++) {
+                pos[t][tp] = start+tilePartOff[t][tp];
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * Records the positions of the tile-parts of each tile.
+     *
+     * @param pos The position of each tile-part, per tile.
+     *
+     * @param start The position of the start of the codestream.
+     * */
+    synchronized void setTilePartPositions(int[][] pos,int start) {
+        int[][] off = new int[nt][];
+        for(int t=0; t<nt; t++) {
+            off[t] = new int[pos[t].length];
+            for(int tp=0; tp<off[t].length; tp++) {
+                off[t][tp] = pos[t][tp]-start;
+            }
+        }
+        tilePartOff = off;
+    }
+
+    /**
+     * Returns a copy of the code-blocks of a tile, or null if the packets of
+     * the tile were not read up to the given resolution level.
+     *
+     * @param t The tile index.
+     *
+     * @param res The highest resolution level needed.
+     *
+     * @param start The position of the start of the codestream.
+     * */
+    synchronized CBlkInfo[][][][][] getCodeBlocks(int t,int res,int start) {
+        if(cbI[t]==null || maxRes[t]<res) {
+            return null;
+        }
+        return copy(cbI[t],start);
+    }
+
+    /**
+     * Records the code-blocks of a tile, once all its packets up to the
+     * given resolution level have been read. The code-blocks are copied.
+     *
+     * @param t The tile index.
+     *
+     * @param res The highest resolution level read.
+     *
+     * @param cblks The code-blocks of the tile.
+     *
+     * @param start The position of the start of the codestream.
+     * */
+    synchronized void putCodeBlocks(int t,int res,CBlkInfo[][][][][] cblks,
+                                    int start) {
+        if(cbI[t]!=null && maxRes[t]>=res) {
+            return;
+        }
+        cbI[t] = copy(cblks,-start);
+        maxRes[t] = res;
+    }
+
+    /**
+     * Copies code-blocks, moving their codewords offsets.
+     *
+     * @param cblks The code-blocks to copy.
+     *
+     * @param delta The value added to each offset.
+     * */
+    private static CBlkInfo[][][][][] copy(CBlkInfo[][][][][] cblks,
+                                           int delta) {
+        if(cblks==null) {
+            return null;
+        }
+        CBlkInfo[][][][][] c5 = new CBlkInfo[cblks.length][][][][];
+        for(int c=0; c<c5.length; c++) {
+            if(cblks[c]==null) continue;
+            c5[c] = new CBlkInfo[cblks[c].length][][][];
+            for(int r=0; r<c5[c].length; r++) {
+                if(cblks[c][r]==null) continue;
+                c5[c][r] = new CBlkInfo[cblks[c][r].length][][];
+                for(int s=0; s<c5[c][r].length; s++) {
+                    if(cblks[c][r][s]==null) continue;
+                    c5[c][r][s] = new CBlkInfo[cblks[c][r][s].length][];
+                    for(int m=0; m<c5[c][r][s].length; m++) {
+                        CBlkInfo[] src = cblks[c][r][s][m];
+                        if(src==null) continue;
+                        CBlkInfo[] dst = new CBlkInfo[src.length];
+                        for(int n=0; n<dst.length; n++) {
+                            if(src[n]!=null) {
+                                dst[n] = copy(src[n],delta);
+                            }
+                        }
+                        c5[c][r][s][m] = dst;
+                    }
+                }
+            }
+        }
+        return c5;
+    }
+
+    /**
+     * Copies a code-block, moving its codewords offsets.
+     *
+     * @param cb The code-block to copy.
+     *
+     * @param delta The value added to each offset.
+     * */
+    private static CBlkInfo copy(CBlkInfo cb,int delta) {
+        int nl = cb.len.length;
+        CBlkInfo ncb = new CBlkInfo(cb.ulx,cb.uly,cb.w,cb.h,nl);
+        ncb.msbSkipped = cb.msbSkipped;
+        ncb.ctp = cb.ctp;
+        for(int l=0; l<nl; l++) {
+            ncb.len[l] = cb.len[l];
+            ncb.off[l] = cb.off[l]+delta;
+            ncb.ntp[l] = cb.ntp[l];
+            ncb.pktIdx[l] = cb.pktIdx[l];
+            if(cb.segLen[l]!=null) {
+                ncb.segLen[l] = (int[])cb.segLen[l].clone();
+            }
+        }
+        return ncb;
+    }
+}
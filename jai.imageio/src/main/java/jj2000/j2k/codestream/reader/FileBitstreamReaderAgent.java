@@ -92,6 +92,8 @@ import jj2000.j2k.io.*;
 import jj2000.j2k.*;
 
 import java.util.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.io.*;
 import javax.imageio.stream.ImageInputStream;
 import javax.imageio.stream.MemoryCacheImageInputStream;
@@ -239,9 +241,26 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
     /** The maximum number of layers to decode for any code-block */
     private int lQuit;
 
+    /**
+     * Sets the maximum number of layers returned for any code-block by
+     * getCodeBlock().
+     *
+     * @param nl The maximum number of layers, or -1 for all the layers.
+     * */
+    public void setMaxLayers(int nl) {
+        lQuit = (nl == -1) ? -1 : nl+1;
+    }
+
     /** Whether or not to use only first progression order */
     private boolean usePOCQuit = false;
 
+    /** The index of the codestream, or null if none is used. It is not used
+     * when the number of bytes to read is limited. */
+    private CodestreamIndex index;
+
+    /** Whether the tile-part headers were walked to fill the index */
+    private boolean tilePartsIndexed = false;
+
     /**
      * Reads all tiles headers and keep offset of their first
      * packet. Finally it calls the rate allocation method.
@@ -284,6 +303,8 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
         else
             tnbytes = (int)(j2krparam.getDecodingRate() * hd.getMaxCompImgWidth() *
                         hd.getMaxCompImgHeight()) / 8;
+        if (j2krparam.getMaxBytes() != -1 && j2krparam.getMaxBytes() < tnbytes)
+            tnbytes = j2krparam.getMaxBytes();
         //isTruncMode = !j2krparam.getParsing();
         isTruncMode = true;
 
@@ -295,8 +316,7 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
                             "the same time.");
         }
 
-//        lQuit = j2krparam.getLQuit();
-        lQuit = -1;
+        setMaxLayers(j2krparam.getMaxLayers());
 
         // initializations
         nt = ntX * ntY;
@@ -372,6 +392,76 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
 
         // Initialize tile part positions from TLM marker segment.
         initTLM();
+
+        // Initialize tile part positions from the codestream index
+        index = j2krparam.getCodestreamIndex();
+        if(index!=null) {
+            if(tnbytes==Integer.MAX_VALUE) {
+                initIndex();
+            } else {
+                index = null;
+            }
+        }
+    }
+
+    /**
+     * Binds the codestream index to this codestream and, if the index knows
+     * the positions of the tile-parts and no TLM marker segment gave them,
+     * uses them. The index is identified by the digest of all the bytes of
+     * the codestream, so the whole codestream is read once. Before return
+     * the stream is returned to its position when the method was invoked.
+     * */
+    private void initIndex() throws IOException {
+        int savePos = in.getPos();
+
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance(CodestreamIndex.DIGEST_ALGORITHM);
+        } catch(NoSuchAlgorithmException e) {
+            // Every Java platform implements SHA-256
+            throw new Error("No "+CodestreamIndex.DIGEST_ALGORITHM+
+                            " digest: "+e);
+        }
+        int len = in.length()-cdstreamStart;
+        byte[] buf = new byte[Math.min(len,1<<16)];
+        in.seek(cdstreamStart);
+        for(int left=len; left>0; ) {
+            int n = Math.min(left,buf.length);
+            in.readFully(buf,0,n);
+            md.update(buf,0,n);
+            left -= n;
+        }
+        index.bind(md.digest(),len,nt);
+
+        if(tilePartPositions == null) {
+            tilePartPositions = index.getTilePartPositions(cdstreamStart);
+        }
+
+        in.seek(savePos);
+    }
+
+    /**
+     * Reads the headers of all the tile-parts and records their positions
+     * in the codestream index, unless the codestream is truncated or the
+     * number of tile-parts of a tile is not signalled.
+     * */
+    private void indexTileParts() throws IOException {
+        tilePartsIndexed = true;
+        for(int i=0; i<nt; i++) {
+            initTile(i);
+        }
+
+        int[][] pos = new int[nt][];
+        for(int i=0; i<nt; i++) {
+            if(totTileParts[i]==0 || tilePartsRead[i]!=totTileParts[i]) {
+                return;
+            }
+            pos[i] = new int[totTileParts[i]];
+            for(int tp=0; tp<pos[i].length; tp++) {
+                pos[i][tp] = firstPackOff[i][tp]-tilePartHeadLen[i][tp];
+            }
+        }
+        index.setTilePartPositions(pos,cdstreamStart);
     }
 
     // An array of the positions of tile parts:
@@ -1887,6 +1977,30 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
         return false; // Decoding rate was not reached
     }
 
+    /**
+     * Returns the end index of the resolution levels to read in a
+     * resolution major progression. Only the last progression order of a
+     * tile can stop before its end, since the packets of the following ones
+     * are located after it.
+     *
+     * @param chg Index of the progression order.
+     *
+     * @param nChg Number of progression orders in the tile.
+     *
+     * @param rese Index of the last resolution level of the progression
+     * order.
+     *
+     * @param maxRes Highest resolution level needed.
+     *
+     * @return The end index of the resolution levels to read.
+     * */
+    private int lastResToRead(int chg,int nChg,int rese,int maxRes) {
+        if(chg==nChg-1 && rese>maxRes+1) {
+            return maxRes+1;
+        }
+        return rese;
+    }
+
     /**
      * Finish initialization of members for specified tile, reads packets head
      * of each tile and keeps location of each code-block's codewords. The
@@ -1902,6 +2016,23 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
      * @see PktDecoder
      * */
     private void readTilePkts(int t) throws IOException {
+        // Resolution levels above this one are not needed to reconstruct
+        // the image at the target resolution. When they are the last ones in
+        // the tile, their packets are not read at all.
+        int maxRes = decSpec.dls.getMaxInTile(t)-
+            (decSpec.dls.getMin()-targetRes);
+
+        // If the packets of this tile were already read, the code-blocks
+        // are taken from the codestream index
+        if(index!=null) {
+            CBlkInfo[][][][][] cblks =
+                index.getCodeBlocks(t,maxRes,cdstreamStart);
+            if(cblks!=null) {
+                cbI = cblks;
+                return;
+            }
+        }
+
         pktHL = new Vector();
 
         int oldNBytes = nBytes[t];
@@ -1981,7 +2112,6 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
                             intValue()+1];
         }
 
-
         try {
             for(int chg=0; chg<nChg; chg++) {
 
@@ -1996,10 +2126,16 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
                     status = readLyResCompPos(lys,lye,ress,rese,comps,compe);
                     break;
                 case RES_LY_COMP_POS_PROG:
-                    status = readResLyCompPos(lys,lye,ress,rese,comps,compe);
+                    status = readResLyCompPos(lys,lye,ress,
+                                              lastResToRead(chg,nChg,rese,
+                                                            maxRes),
+                                              comps,compe);
                     break;
                 case RES_POS_COMP_LY_PROG:
-                    status = readResPosCompLy(lys,lye,ress,rese,comps,compe);
+                    status = readResPosCompLy(lys,lye,ress,
+                                              lastResToRead(chg,nChg,rese,
+                                                            maxRes),
+                                              comps,compe);
                     break;
                 case POS_COMP_RES_LY_PROG:
                     status = readPosCompResLy(lys,lye,ress,rese,comps,compe);
@@ -2031,6 +2167,11 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
             throw e;
         }
 
+        // Record the code-blocks of the tile if all its packets were read
+        if(index!=null && !status) {
+            index.putCodeBlocks(t,maxRes,cbI,cdstreamStart);
+        }
+
         // In truncation mode, update the number of read bytes
         if(isTruncMode) {
             anbytes += nb-nBytes[t];
@@ -2206,6 +2347,9 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
         }
         int t = (y*ntX+x);
         try {
+            if(index!=null && tilePartPositions==null && !tilePartsIndexed) {
+                indexTileParts();
+            }
             initTile(t);
         } catch(IOException ioe) {
             // XXX Do something!
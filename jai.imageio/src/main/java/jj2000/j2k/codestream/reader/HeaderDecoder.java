@@ -2429,6 +2429,8 @@ public class HeaderDecoder implements ProgressionType, Markers,
         // Get maximum number of bit planes from m quit condition
 //        int mMax = j2krparam.getMQuit();
         int mMax = -1;
+        // Select the MQ decoder
+        decSpec.fmqs.setDefault(Boolean.valueOf(j2krparam.getFastMQDecoding()));
         return new StdEntropyDecoder(src,decSpec,doer,verber,mMax);
     }
 
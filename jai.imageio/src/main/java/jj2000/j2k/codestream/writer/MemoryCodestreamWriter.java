@@ -0,0 +1,100 @@
+/*
+ * #%L
+ * Fork of JAI Image I/O Tools.
+ * %%
+ * Copyright (C) 2008 - 2014 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package jj2000.j2k.codestream.writer;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+import jj2000.j2k.io.*;
+
+/**
+ * This class implements a CodestreamWriter which keeps the bit stream in
+ * memory, in a <tt>ByteBuffer</tt> which grows as data is written. It
+ * writes exactly the same bit stream as FileCodestreamWriter, see that class
+ * for details.
+ *
+ * <P>After the writer has been closed the bit stream is obtained through
+ * <tt>getByteBuffer()</tt>.
+ *
+ * @see FileCodestreamWriter
+ * */
+public class MemoryCodestreamWriter extends FileCodestreamWriter {
+
+    /** The stream holding the bit stream */
+    private ByteBufferOutputStream out;
+
+    /**
+     * Creates a writer which keeps the bit stream in memory.
+     *
+     * @param mb The maximum number of bytes that can be written to the bit
+     * stream.
+     *
+     * @param size The initial capacity of the buffer, in bytes. The buffer
+     * grows as needed.
+     *
+     * @exception IOException Never thrown, declared by the super class
+     * constructor.
+     * */
+    public MemoryCodestreamWriter(int mb, int size) throws IOException {
+        this(new ByteBufferOutputStream(size),mb);
+    }
+
+    /**
+     * Creates a writer which writes the bit stream to 'os'.
+     *
+     * @param os The stream where to keep the bit stream.
+     *
+     * @param mb The maximum number of bytes that can be written to the bit
+     * stream.
+     * */
+    private MemoryCodestreamWriter(ByteBufferOutputStream os, int mb)
+        throws IOException {
+        super(os,mb);
+        out = os;
+    }
+
+    /**
+     * Returns the bit stream written so far, from the buffer position (0)
+     * to its limit. The data is not copied, see
+     * <tt>ByteBufferOutputStream.getByteBuffer()</tt>.
+     *
+     * @return The bit stream.
+     * */
+    public ByteBuffer getByteBuffer() {
+        return out.getByteBuffer();
+    }
+}
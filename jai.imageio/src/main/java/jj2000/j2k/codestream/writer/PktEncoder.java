@@ -1276,10 +1276,25 @@ public class PktEncoder {
      * was just created.
      * */
     public void reset() {
-        int maxsbi,minsbi;
-
         // Invalidate save
         saved = false;
+
+        // Loop on tiles
+        for (int t=ttIncl.length-1; t>=0; t--) {
+            reset(t);
+        }
+    }
+
+    /**
+     * Resets the state of the object for the specified tile to the initial
+     * state, as if no packet of the tile was encoded. The saved state, if
+     * any, is not modified.
+     *
+     * @param t The index of the tile
+     * */
+    public void reset(int t) {
+        int maxsbi,minsbi;
+
         // Invalidate last encoded body buffer
         lbbuf = null;
 
@@ -1290,44 +1305,41 @@ public class PktEncoder {
             ttMaxBP_t_c_r[][];
         int lblock_t_c[][][],prevtIdxs_t_c_r[][];
 
-        // Loop on tiles
-        for (int t=ttIncl.length-1; t>=0; t--) {
-            // Loop on components
-            for (int c=ttIncl[t].length-1; c>=0; c--) {
+        // Loop on components
+        for (int c=ttIncl[t].length-1; c>=0; c--) {
+            // Initialize reference caches
+            lblock_t_c = lblock[t][c];
+            ttIncl_t_c = ttIncl[t][c];
+            ttMaxBP_t_c = ttMaxBP[t][c];
+            // Loop on resolution levels
+            for (int r=lblock_t_c.length-1; r>=0; r--) {
                 // Initialize reference caches
-                lblock_t_c = lblock[t][c];
-                ttIncl_t_c = ttIncl[t][c];
-                ttMaxBP_t_c = ttMaxBP[t][c];
-                // Loop on resolution levels
-                for (int r=lblock_t_c.length-1; r>=0; r--) {
-                    // Initialize reference caches
-                    ttIncl_t_c_r = ttIncl_t_c[r];
-                    ttMaxBP_t_c_r = ttMaxBP_t_c[r];
-                    prevtIdxs_t_c_r = prevtIdxs[t][c][r];
-
-                    // Loop on subbands
-                    minsbi = (r==0) ? 0 : 1;
-                    maxsbi = (r==0) ? 1 : 4;
-                    for (int s=minsbi; s<maxsbi; s++) {
-                        // Reset 'prevtIdxs'
-                        ArrayUtil.intArraySet(prevtIdxs_t_c_r[s],-1);
-                        // Reset 'lblock'
-                        ArrayUtil.intArraySet(lblock_t_c[r][s],INIT_LBLOCK);
-                    } // End loop on subbands
-
-                    // Loop on precincts
-                    for(int p=ppinfo[t][c][r].length-1; p>=0; p--) {
-                        if(p<ttIncl_t_c_r.length) {
-                            // Loop on subbands
-                            for(int s=minsbi; s<maxsbi; s++) {
-                                ttIncl_t_c_r[p][s].reset();
-                                ttMaxBP_t_c_r[p][s].reset();
-                            } // End loop on subbands
-                        }
-                    } // End loop on precincts
-                } // End loop on resolution levels
-            } // End loop on components
-        } // End loop on tiles
+                ttIncl_t_c_r = ttIncl_t_c[r];
+                ttMaxBP_t_c_r = ttMaxBP_t_c[r];
+                prevtIdxs_t_c_r = prevtIdxs[t][c][r];
+
+                // Loop on subbands
+                minsbi = (r==0) ? 0 : 1;
+                maxsbi = (r==0) ? 1 : 4;
+                for (int s=minsbi; s<maxsbi; s++) {
+                    // Reset 'prevtIdxs'
+                    ArrayUtil.intArraySet(prevtIdxs_t_c_r[s],-1);
+                    // Reset 'lblock'
+                    ArrayUtil.intArraySet(lblock_t_c[r][s],INIT_LBLOCK);
+                } // End loop on subbands
+
+                // Loop on precincts
+                for(int p=ppinfo[t][c][r].length-1; p>=0; p--) {
+                    if(p<ttIncl_t_c_r.length) {
+                        // Loop on subbands
+                        for(int s=minsbi; s<maxsbi; s++) {
+                            ttIncl_t_c_r[p][s].reset();
+                            ttMaxBP_t_c_r[p][s].reset();
+                        } // End loop on subbands
+                    }
+                } // End loop on precincts
+            } // End loop on resolution levels
+        } // End loop on components
     }
 
     /**
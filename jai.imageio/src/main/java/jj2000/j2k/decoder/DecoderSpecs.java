@@ -139,6 +139,10 @@ public class DecoderSpecs implements Cloneable {
      * decoder */
     public ModuleSpec ers;
 
+    /** The MQ decoder specifications: Boolean.TRUE to use the table-driven
+     * 'FastMQDecoder' for a tile-component */
+    public ModuleSpec fmqs;
+
     /** Precinct partition specifications */
     public PrecinctSizeSpec pss;
 
@@ -204,6 +208,8 @@ public class DecoderSpecs implements Cloneable {
         // Entropy decoder
         ecopts = new ModuleSpec(nt,nc,ModuleSpec.SPEC_TYPE_TILE_COMP);
         ers = new ModuleSpec(nt,nc,ModuleSpec.SPEC_TYPE_TILE_COMP);
+        fmqs = new ModuleSpec(nt,nc,ModuleSpec.SPEC_TYPE_TILE_COMP);
+        fmqs.setDefault(Boolean.FALSE);
         cblks = new CBlkSizeSpec(nt,nc,ModuleSpec.SPEC_TYPE_TILE_COMP);
 
         // Precinct partition
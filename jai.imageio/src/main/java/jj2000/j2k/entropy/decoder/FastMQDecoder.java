@@ -0,0 +1,234 @@
+/*
+ * #%L
+ * Fork of JAI Image I/O Tools.
+ * %%
+ * Copyright (C) 2008 - 2014 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package jj2000.j2k.entropy.decoder;
+
+import jj2000.j2k.io.*;
+
+/**
+ * A table-driven variant of the MQ arithmetic decoder. The state of each
+ * context (the index of its probability estimate and its MPS) is kept in a
+ * single integer, and one precomputed table gives, for each such state, the
+ * LPS probability and the states reached after decoding an MPS or an LPS,
+ * so the MPS/LPS switch needs neither a separate table nor a branch. The A
+ * and C registers are kept in local variables while a symbol is decoded and
+ * renormalization shifts all the required bits at once, only falling back
+ * to a bit by bit loop when a new byte has to be read.
+ *
+ * <P>The decoded symbols are exactly the same as with 'MQDecoder', which
+ * this class can replace anywhere.
+ *
+ * @see MQDecoder
+ * */
+public class FastMQDecoder extends MQDecoder {
+
+    /**
+     * The combined state transition table. For the state 's' (i.e. twice
+     * the probability index, plus the MPS), bits 0-15 hold the LPS
+     * probability, bits 16-23 the next state after an MPS and bits 24-31
+     * the next state after an LPS. It is also used by the stripe decoding
+     * of 'StdEntropyDecoder'.
+     * */
+    final static int trans[] = new int[2*qe.length];
+
+    /** The current state of each context (index and MPS combined). It is
+     * also used by the stripe decoding of 'StdEntropyDecoder'. */
+    int st[];
+
+    /** Static initializer: builds the combined state transition table */
+    static {
+        int i,m;
+        for (i=0; i<qe.length; i++) {
+            for (m=0; m<2; m++) {
+                trans[(i<<1)|m] = qe[i] |
+                    (((nMPS[i]<<1)|m)<<16) |
+                    (((nLPS[i]<<1)|(m^switchLM[i]))<<24);
+            }
+        }
+    }
+
+    /**
+     * Instantiates a new table-driven MQ-decoder, with the specified number
+     * of contexts and initial states. The compressed bytestream is read from
+     * the 'iStream' object.
+     *
+     * @param iStream the stream that contains the coded bits
+     *
+     * @param nrOfContexts The number of contexts used
+     *
+     * @param initStates The initial state for each context. A reference is
+     * kept to this array to reinitialize the contexts whenever 'reset()' or
+     * 'resetCtxts()' is called.
+     * */
+    public FastMQDecoder(ByteInputBuffer iStream, int nrOfContexts,
+                         int initStates[]){
+        super(iStream,nrOfContexts,initStates);
+    }
+
+    /**
+     * Decodes 'n' symbols from the bit stream using the same context
+     * 'ctxt', using the MQ-coder speedup mode if possible. See
+     * 'MQDecoder.fastDecodeSymbols()'.
+     *
+     * @param bits The array where to put the decoded symbols. Must be of
+     * length 'n' or more.
+     *
+     * @param ctxt The context to use in decoding the symbols.
+     *
+     * @param n The number of symbols to decode.
+     *
+     * @return True if speedup mode was used, false if not.
+     * */
+    public boolean fastDecodeSymbols(int[] bits, int ctxt, int n) {
+        int s = st[ctxt];
+        int q = trans[s]&0xFFFF;
+        int i;
+
+        if ((q<0x4000) && (n <= (a-(c>>>16)-1)/q) &&
+            (n <= (a-0x8000)/q+1)) {
+            // All MPS, at most one renormalization shift
+            a -= n*q;
+            if (a < 0x8000) {
+                st[ctxt] = (trans[s]>>>16)&0xFF;
+                if (cT == 0)
+                    byteIn();
+                a <<= 1;
+                c <<= 1;
+                cT--;
+            }
+            bits[0] = s&1;
+            return true;
+        }
+        for (i=0; i<n; i++) {
+            bits[i] = decodeSymbol(ctxt);
+        }
+        return false;
+    }
+
+    /**
+     * Decodes 'n' symbols, each one with its own context. See
+     * 'MQDecoder.decodeSymbols()'.
+     *
+     * @param bits The array where to place the decoded symbols. It should be
+     * long enough to contain 'n' elements.
+     *
+     * @param cX The context to use in decoding each symbol.
+     *
+     * @param n The number of symbols to decode
+     * */
+    public void decodeSymbols(int[] bits, int[] cX, int n){
+        for (int i=0; i<n; i++) {
+            bits[i] = decodeSymbol(cX[i]);
+        }
+    }
+
+    /**
+     * Arithmetically decodes one symbol from the bit stream with the given
+     * context and returns its decoded value.
+     *
+     * @param context The context to use in decoding the symbol
+     *
+     * @return The decoded symbol, 0 or 1.
+     * */
+    public int decodeSymbol(int context){
+        int s = st[context];
+        int t = trans[s];
+        int q = t&0xFFFF;
+        int la = a-q;
+        int lc = c;
+        int lps;
+        int n,k;
+
+        if ((lc>>>16) < la) {
+            if (la >= 0x8000) {
+                // MPS without renormalization, the most frequent case
+                a = la;
+                return s&1;
+            }
+            // -- MPS Exchange
+            lps = (la < q) ? 1 : 0;
+        }
+        else {
+            // -- LPS Exchange
+            lps = (la < q) ? 0 : 1;
+            lc -= la<<16;
+            la = q;
+        }
+        st[context] = (lps != 0) ? t>>>24 : (t>>>16)&0xFF;
+
+        // -- Renormalize, all the bits at once if no byte has to be read
+        n = Integer.numberOfLeadingZeros(la)-16;
+        a = la<<n;
+        if (n <= cT) {
+            c = lc<<n;
+            cT -= n;
+        }
+        else {
+            c = lc;
+            do {
+                if (cT == 0)
+                    byteIn();
+                k = (n < cT) ? n : cT;
+                c <<= k;
+                cT -= k;
+                n -= k;
+            } while (n > 0);
+        }
+        return (s&1)^lps;
+    }
+
+    /**
+     * Resets a context to the original probability distribution.
+     *
+     * @param c The number of the context (it starts at 0).
+     * */
+    public void resetCtxt(int c){
+        st[c] = initStates[c]<<1;
+    }
+
+    /**
+     * Resets all the contexts to the original probability distribution.
+     * */
+    public void resetCtxts(){
+        // Called from the super constructor, before 'st' is assigned
+        if (st == null) {
+            st = new int[getNumCtxts()];
+        }
+        for (int i=0; i<st.length; i++) {
+            st[i] = initStates[i]<<1;
+        }
+    }
+}
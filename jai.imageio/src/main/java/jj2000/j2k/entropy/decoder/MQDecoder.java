@@ -224,7 +224,7 @@ public class MQDecoder {
      *
      *
      * */
-    public final boolean fastDecodeSymbols(int[] bits, int ctxt, int n) {
+    public boolean fastDecodeSymbols(int[] bits, int ctxt, int n) {
         int q;   // LPS probability for context
         int idx; // Index of current state
         int la;  // cache for A register
@@ -364,7 +364,7 @@ public class MQDecoder {
      *
      *
      */
-    public final void decodeSymbols(int[] bits, int[] cX, int n){
+    public void decodeSymbols(int[] bits, int[] cX, int n){
         int q;
         int ctxt;
         int la; // cache for A register value
@@ -477,7 +477,7 @@ public class MQDecoder {
      *
      *
      */
-    public final int decodeSymbol(int context){
+    public int decodeSymbol(int context){
         int q;
         int la;
         int index;
@@ -662,7 +662,7 @@ public class MQDecoder {
      *
      *
      */
-    private void byteIn(){
+    void byteIn(){
         if(!markerFound){
             if(b==0xFF){
                 b=in.read()&0xFF; // Convert EOFs (-1) to 0xFF
@@ -706,7 +706,7 @@ public class MQDecoder {
      *
      *
      */
-    public final void resetCtxt(int c){
+    public void resetCtxt(int c){
         I[c] = initStates[c];
         mPS[c] = 0;
     }
@@ -721,7 +721,7 @@ public class MQDecoder {
      *
      *
      */
-    public final void resetCtxts(){
+    public void resetCtxts(){
         System.arraycopy(initStates,0,I,0,I.length);
         ArrayUtil.intArraySet(mPS,0);
     }
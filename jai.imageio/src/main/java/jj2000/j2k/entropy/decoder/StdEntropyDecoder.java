@@ -79,6 +79,14 @@
  * */
 package jj2000.j2k.entropy.decoder;
 import java.awt.Point;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 import jj2000.j2k.wavelet.synthesis.*;
 import jj2000.j2k.wavelet.*;
@@ -113,6 +121,17 @@ import jj2000.j2k.*;
  * places). When timing is disabled ('DO_TIMING' is false) there is no penalty
  * if the compiler performs some basic optimizations. Even if not the penalty
  * should be negligeable.
+ *
+ * <P>This implementation can decode the code-blocks in parallel. The number
+ * of threads is given by the Java system property
+ * 'jj2000.j2k.entropy.decoder.StdEntropyDecoder.nthreads'. If the property is
+ * 0 (the default) the code-blocks are decoded one at a time, when
+ * requested. Otherwise, on the first request for a code-block of a subband,
+ * the compressed data of all the code-blocks of that subband (and of its
+ * sibling detail subbands) is read sequentially and the code-blocks are
+ * decoded concurrently on a fork-join pool, each by a worker with its own
+ * state, MQ decoder and output block. The decoded code-blocks are then
+ * returned by the following requests.
  * */
 public class StdEntropyDecoder extends EntropyDecoder
     implements StdEntropyCoderOptions {
@@ -121,6 +140,30 @@ public class StdEntropyDecoder extends EntropyDecoder
      * time directive. */
     private final static boolean DO_TIMING = false;
 
+    /** The Java system property name for the number of threads to use:
+     jj2000.j2k.entropy.decoder.StdEntropyDecoder.nthreads */
+    public static final String THREADS_PROP_NAME =
+        "jj2000.j2k.entropy.decoder.StdEntropyDecoder.nthreads";
+
+    /** The default value for the property in THREADS_PROP_NAME: 0 */
+    public static final String DEF_THREADS_NUM = "0";
+
+    /** The number of code-blocks decoded ahead, per thread of the fork-join
+     * pool, when a code-block which was not prefetched is requested: 4 */
+    private static final int PREFETCH_PER_THREAD = 4;
+
+    /** The fork-join pool used to decode code-blocks in parallel, or null if
+     * the code-blocks are decoded sequentially */
+    private final ForkJoinPool fjPool;
+
+    /** The idle workers (decoders with their own state, MQ decoder and raw
+     * bit input) used in parallel decoding */
+    private final ConcurrentLinkedQueue<StdEntropyDecoder> idleWorkers;
+
+    /** The decoded code-blocks not yet returned, by subband, for the current
+     * tile. It is cleared whenever the tile is changed. */
+    private final Map<SubbandSyn,DataBlk[][]> prefetched;
+
     /** The cumulative wall time for the entropy coding engine, for each
      * component. */
     private long time[];
@@ -132,6 +175,10 @@ public class StdEntropyDecoder extends EntropyDecoder
      * data. */
     private MQDecoder mq;
 
+    /** Whether the table-driven MQ decoder is used for the current
+     * code-block */
+    private boolean fastMQ;
+
     /** The decoder spec */
     private DecoderSpecs decSpec;
 
@@ -665,6 +712,53 @@ public class StdEntropyDecoder extends EntropyDecoder
         // Initialize internal variables
         state = new int[(decSpec.cblks.getMaxCBlkWidth()+2) *
                        ((decSpec.cblks.getMaxCBlkHeight()+1)/2+2)];
+
+        // Get the number of threads to use, or default to none
+        int nt;
+        try {
+            try {
+                nt = Integer.parseInt(System.getProperty(THREADS_PROP_NAME,
+                                                         DEF_THREADS_NUM));
+            } catch(SecurityException se) {
+                // Use the default value.
+                nt = Integer.parseInt(DEF_THREADS_NUM);
+            }
+            if (nt < 0) throw new NumberFormatException();
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number of threads "+
+                                               "for entropy decoding in "+
+                                               "property "+THREADS_PROP_NAME);
+        }
+
+        if (nt > 0) {
+            fjPool = ForkJoinPools.getPool(nt);
+            idleWorkers = new ConcurrentLinkedQueue<StdEntropyDecoder>();
+            prefetched = new IdentityHashMap<SubbandSyn,DataBlk[][]>();
+        } else {
+            fjPool = null;
+            idleWorkers = null;
+            prefetched = null;
+        }
+    }
+
+    /**
+     * Creates a worker for parallel decoding. The worker shares the
+     * (read-only) parameters of the parent decoder but has its own state, MQ
+     * decoder and raw bit input.
+     *
+     * @param parent The decoder for which the worker decodes code-blocks.
+     * */
+    private StdEntropyDecoder(StdEntropyDecoder parent) {
+        super(parent.src);
+
+        this.decSpec = parent.decSpec;
+        this.doer = parent.doer;
+        this.verber = parent.verber;
+        this.mQuit = parent.mQuit;
+        state = new int[parent.state.length];
+        fjPool = null;
+        idleWorkers = null;
+        prefetched = null;
     }
 
     /**
@@ -737,6 +831,210 @@ public class StdEntropyDecoder extends EntropyDecoder
     public DataBlk getCodeBlock(int c, int m, int n, SubbandSyn sb,
                                 DataBlk cblk) {
         long stime = 0L;  // Start time for timed sections
+
+        if (fjPool != null) {
+            DataBlk dec = getPrefetchedCodeBlock(c,m,n,sb);
+            if (dec != null) {
+                if (cblk == null) {
+                    return dec;
+                }
+                cblk.progressive = dec.progressive;
+                cblk.ulx = dec.ulx;
+                cblk.uly = dec.uly;
+                cblk.w = dec.w;
+                cblk.h = dec.h;
+                cblk.offset = 0;
+                cblk.scanw = cblk.w;
+                cblk.setData(dec.getData());
+                return cblk;
+            }
+        }
+
+        // Get the code-block to decode
+        srcblk = src.getCodeBlock(c,m,n,sb,1,-1,srcblk);
+        if (DO_TIMING) stime = System.currentTimeMillis();
+
+        // Retrieve options from decSpec
+        options = ((Integer)decSpec.ecopts.
+                   getTileCompVal(tIdx,c)).intValue();
+        fastMQ = ((Boolean)decSpec.fmqs.
+                  getTileCompVal(tIdx,c)).booleanValue();
+
+        cblk = decodeCodeBlock(srcblk,m,n,sb,cblk);
+
+        if (DO_TIMING) time[c] += System.currentTimeMillis()-stime;
+
+        // Return decoded block
+        return cblk;
+    }
+
+    /**
+     * Changes the current tile, given the new indexes. The code-blocks
+     * decoded ahead and not yet returned are discarded.
+     *
+     * @param x The horizontal index of the tile.
+     *
+     * @param y The vertical index of the new tile.
+     * */
+    public void setTile(int x, int y) {
+        super.setTile(x,y);
+        if (prefetched != null) {
+            prefetched.clear();
+        }
+    }
+
+    /**
+     * Advances to the next tile, in standard scan-line order (by rows then
+     * columns). The code-blocks decoded ahead and not yet returned are
+     * discarded.
+     * */
+    public void nextTile() {
+        super.nextTile();
+        if (prefetched != null) {
+            prefetched.clear();
+        }
+    }
+
+    /**
+     * Returns the specified code-block, decoded in parallel with the
+     * code-blocks which follow it. If the code-block was not decoded ahead,
+     * it is decoded together with at most PREFETCH_PER_THREAD code-blocks per
+     * thread which follow it in the order in which they are requested (in
+     * raster order in its subband, then in its sibling detail subbands). Each
+     * decoded code-block is returned only once.
+     *
+     * @param c The component for which to return the next code-block.
+     *
+     * @param m The vertical index of the code-block to return, in the
+     * specified subband.
+     *
+     * @param n The horizontal index of the code-block to return, in the
+     * specified subband.
+     *
+     * @param sb The subband in which the code-block to return is.
+     *
+     * @return The decoded code-block, or null if the subband is empty.
+     * */
+    private DataBlk getPrefetchedCodeBlock(int c, int m, int n,
+                                           SubbandSyn sb) {
+        DataBlk blks[][] = prefetched.get(sb);
+        if (blks == null || blks[m][n] == null) {
+            decodeAhead(c,m,n,sb);
+            blks = prefetched.get(sb);
+            if (blks == null) {
+                return null;
+            }
+        }
+
+        DataBlk dec = blks[m][n];
+        blks[m][n] = null;
+        return dec;
+    }
+
+    /**
+     * Decodes, in parallel, the specified code-block and the code-blocks
+     * which follow it, up to PREFETCH_PER_THREAD code-blocks per thread. The
+     * code-blocks which follow it are the next ones in its subband, in raster
+     * order, and then, for a detail subband, those of the following sibling
+     * detail subbands (HL, LH and HH are always requested in that order). The
+     * compressed data is read sequentially, in the calling thread, and the
+     * decoded code-blocks are stored in 'prefetched'.
+     *
+     * @param c The component of the subband.
+     *
+     * @param m The vertical index of the requested code-block.
+     *
+     * @param n The horizontal index of the requested code-block.
+     *
+     * @param sb The subband of the requested code-block.
+     * */
+    private void decodeAhead(int c, int m, int n, SubbandSyn sb) {
+        List<SubbandSyn> group = new ArrayList<SubbandSyn>(3);
+        SubbandSyn parent = (SubbandSyn)sb.getParent();
+        final List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+        final int opts = ((Integer)decSpec.ecopts.
+                          getTileCompVal(tIdx,c)).intValue();
+        final boolean fmq = ((Boolean)decSpec.fmqs.
+                             getTileCompVal(tIdx,c)).booleanValue();
+        int left = PREFETCH_PER_THREAD*fjPool.getParallelism();
+
+        group.add(sb);
+        if (sb.orientation != Subband.WT_ORIENT_LL && parent != null) {
+            if (sb.orientation == Subband.WT_ORIENT_HL) {
+                group.add((SubbandSyn)parent.getLH());
+            }
+            if (sb.orientation != Subband.WT_ORIENT_HH) {
+                group.add((SubbandSyn)parent.getHH());
+            }
+        }
+
+        for (int i=0; i<group.size() && left>0; i++) {
+            final SubbandSyn s = group.get(i);
+            if (s.isNode || s.w == 0 || s.h == 0) {
+                continue;
+            }
+            DataBlk sblks[][] = prefetched.get(s);
+            if (sblks == null) {
+                sblks = new DataBlk[s.numCb.y][s.numCb.x];
+                prefetched.put(s,sblks);
+            }
+            final DataBlk blks[][] = sblks;
+            int ncb = s.numCb.x*s.numCb.y;
+            for (int k=(i == 0) ? m*s.numCb.x+n : 0; k<ncb && left>0; k++) {
+                final int fm = k/s.numCb.x;
+                final int fn = k%s.numCb.x;
+                if (blks[fm][fn] != null) {
+                    continue;
+                }
+                final DecLyrdCBlk ccb = src.getCodeBlock(c,fm,fn,s,1,-1,null);
+                tasks.add(new RecursiveAction() {
+                        protected void compute() {
+                            StdEntropyDecoder worker = idleWorkers.poll();
+                            if (worker == null) {
+                                worker =
+                                    new StdEntropyDecoder(
+                                        StdEntropyDecoder.this);
+                            }
+                            worker.options = opts;
+                            worker.fastMQ = fmq;
+                            blks[fm][fn] =
+                                worker.decodeCodeBlock(ccb,fm,fn,s,null);
+                            idleWorkers.offer(worker);
+                        }
+                    });
+                left--;
+            }
+        }
+
+        if (!tasks.isEmpty()) {
+            fjPool.invoke(new RecursiveAction() {
+                    protected void compute() {
+                        ForkJoinTask.invokeAll(tasks);
+                    }
+                });
+        }
+    }
+
+    /**
+     * Decodes the specified compressed code-block, using the state, MQ
+     * decoder and raw bit input of this object and the current value of
+     * 'options' and 'fastMQ'.
+     *
+     * @param srcblk The compressed code-block.
+     *
+     * @param m The vertical index of the code-block, in the subband.
+     *
+     * @param n The horizontal index of the code-block, in the subband.
+     *
+     * @param sb The subband in which the code-block is.
+     *
+     * @param cblk If non-null this object will be used to return the decoded
+     * code-block, see 'getCodeBlock()'.
+     *
+     * @return The decoded code-block.
+     * */
+    private DataBlk decodeCodeBlock(DecLyrdCBlk srcblk, int m, int n,
+                                    SubbandSyn sb, DataBlk cblk) {
         int zc_lut[];     // The ZC lookup table to use
         int out_data[];   // The outupt data buffer
         int npasses;      // The number of coding passes to perform
@@ -748,14 +1046,6 @@ public class StdEntropyDecoder extends EntropyDecoder
 
         boolean isterm;
 
-        // Get the code-block to decode
-        srcblk = src.getCodeBlock(c,m,n,sb,1,-1,srcblk);
-        if (DO_TIMING) stime = System.currentTimeMillis();
-
-        // Retrieve options from decSpec
-        options = ((Integer)decSpec.ecopts.
-                   getTileCompVal(tIdx,c)).intValue();
-
         // Reset state
         ArrayUtil.intArraySet(state,0);
 
@@ -790,9 +1080,12 @@ public class StdEntropyDecoder extends EntropyDecoder
         tsidx = 0;
         // Initialize for decoding
         npasses = srcblk.nTrunc;
-        if (mq == null) {
+        if (mq == null || (mq instanceof FastMQDecoder) != fastMQ) {
             in = new ByteInputBuffer(srcblk.data,0,tslen);
-            mq = new MQDecoder(in ,NUM_CTXTS,MQ_INIT);
+            mq = fastMQ ? new FastMQDecoder(in,NUM_CTXTS,MQ_INIT) :
+                new MQDecoder(in ,NUM_CTXTS,MQ_INIT);
+            // The raw bit input must read from the new MQ decoder's buffer
+            bin = null;
         }
         else {
             // We always start by an MQ segment
@@ -847,7 +1140,10 @@ public class StdEntropyDecoder extends EntropyDecoder
             isterm = (options & OPT_TERM_PASS) != 0 ||
                 ((options & OPT_BYPASS) != 0 &&
                  (31-NUM_NON_BYPASS_MS_BP-srcblk.skipMSBP)>=curbp);
-            error = cleanuppass(cblk,mq,curbp,state,zc_lut,isterm);
+            error = fastMQ ?
+                fastCleanupPass(cblk,(FastMQDecoder)mq,curbp,state,zc_lut,
+                                isterm) :
+                cleanuppass(cblk,mq,curbp,state,zc_lut,isterm);
             npasses--;
             if (!error || !doer) curbp--;
         }
@@ -883,7 +1179,10 @@ public class StdEntropyDecoder extends EntropyDecoder
                         mq.nextSegment(null,-1,srcblk.tsLengths[++tsidx]);
                     }
                     isterm = (options & OPT_TERM_PASS) != 0;
-                    error = sigProgPass(cblk,mq,curbp,state,zc_lut,isterm);
+                    error = fastMQ ?
+                        fastSigProgPass(cblk,(FastMQDecoder)mq,curbp,state,
+                                        zc_lut,isterm) :
+                        sigProgPass(cblk,mq,curbp,state,zc_lut,isterm);
                     npasses--;
                     if (npasses <= 0 || (error && doer)) break;
 
@@ -909,7 +1208,10 @@ public class StdEntropyDecoder extends EntropyDecoder
                 isterm = (options & OPT_TERM_PASS) != 0 ||
                     ((options & OPT_BYPASS) != 0 &&
                      (31-NUM_NON_BYPASS_MS_BP-srcblk.skipMSBP)>=curbp);
-                error = cleanuppass(cblk,mq,curbp,state,zc_lut,isterm);
+                error = fastMQ ?
+                    fastCleanupPass(cblk,(FastMQDecoder)mq,curbp,state,zc_lut,
+                                    isterm) :
+                    cleanuppass(cblk,mq,curbp,state,zc_lut,isterm);
                 npasses--;
                 if (error) break;
                 // Goto next bit-plane
@@ -931,9 +1233,6 @@ public class StdEntropyDecoder extends EntropyDecoder
             conceal(cblk,curbp);
         }
 
-        if (DO_TIMING) time[c] += System.currentTimeMillis()-stime;
-
-        // Return decoded block
         return cblk;
     }
 
@@ -2478,6 +2777,475 @@ public class StdEntropyDecoder extends EntropyDecoder
         return error;
     }
 
+    /**
+     * Updates the state of a sample which just became significant and of
+     * its neighbors, as the significance propagation and cleanup passes
+     * do. The state of the sample itself is not written but returned, since
+     * the passes keep it in a local variable.
+     *
+     * @param state The state information for the code-block
+     *
+     * @param j The index in 'state' of the column half of the sample
+     *
+     * @param sscanw The state scan-width
+     *
+     * @param row 0 if the sample is the first row of its column half, 1 if
+     * it is the second one
+     *
+     * @param sym The sign of the sample, 1 if negative
+     *
+     * @param upd If the neighbors in the previous stripe may be updated,
+     * which is not the case of the first row of a stripe in stripe-causal
+     * mode
+     *
+     * @return The bits to set in 'state[j]'.
+     * */
+    private static int setSignificant(int state[], int j, int sscanw,
+                                      int row, int sym, boolean upd) {
+        if (row == 0) {
+            if (upd) {
+                state[j-sscanw-1] |= STATE_NZ_CTXT_R2|STATE_D_DR_R2;
+                state[j-sscanw+1] |= STATE_NZ_CTXT_R2|STATE_D_DL_R2;
+            }
+            if (sym != 0) {
+                if (upd) {
+                    state[j-sscanw] |= STATE_NZ_CTXT_R2|
+                        STATE_V_D_R2|STATE_V_D_SIGN_R2;
+                }
+                state[j+1] |= STATE_NZ_CTXT_R1|STATE_NZ_CTXT_R2|
+                    STATE_H_L_R1|STATE_H_L_SIGN_R1|STATE_D_UL_R2;
+                state[j-1] |= STATE_NZ_CTXT_R1|STATE_NZ_CTXT_R2|
+                    STATE_H_R_R1|STATE_H_R_SIGN_R1|STATE_D_UR_R2;
+                return STATE_SIG_R1|STATE_VISITED_R1|STATE_NZ_CTXT_R2|
+                    STATE_V_U_R2|STATE_V_U_SIGN_R2;
+            }
+            if (upd) {
+                state[j-sscanw] |= STATE_NZ_CTXT_R2|STATE_V_D_R2;
+            }
+            state[j+1] |= STATE_NZ_CTXT_R1|STATE_NZ_CTXT_R2|
+                STATE_H_L_R1|STATE_D_UL_R2;
+            state[j-1] |= STATE_NZ_CTXT_R1|STATE_NZ_CTXT_R2|
+                STATE_H_R_R1|STATE_D_UR_R2;
+            return STATE_SIG_R1|STATE_VISITED_R1|STATE_NZ_CTXT_R2|
+                STATE_V_U_R2;
+        }
+        state[j+sscanw-1] |= STATE_NZ_CTXT_R1|STATE_D_UR_R1;
+        state[j+sscanw+1] |= STATE_NZ_CTXT_R1|STATE_D_UL_R1;
+        if (sym != 0) {
+            state[j+sscanw] |= STATE_NZ_CTXT_R1|
+                STATE_V_U_R1|STATE_V_U_SIGN_R1;
+            state[j+1] |= STATE_NZ_CTXT_R1|STATE_NZ_CTXT_R2|
+                STATE_D_DL_R1|STATE_H_L_R2|STATE_H_L_SIGN_R2;
+            state[j-1] |= STATE_NZ_CTXT_R1|STATE_NZ_CTXT_R2|
+                STATE_D_DR_R1|STATE_H_R_R2|STATE_H_R_SIGN_R2;
+            return STATE_SIG_R2|STATE_VISITED_R2|STATE_NZ_CTXT_R1|
+                STATE_V_D_R1|STATE_V_D_SIGN_R1;
+        }
+        state[j+sscanw] |= STATE_NZ_CTXT_R1|STATE_V_U_R1;
+        state[j+1] |= STATE_NZ_CTXT_R1|STATE_NZ_CTXT_R2|
+            STATE_D_DL_R1|STATE_H_L_R2;
+        state[j-1] |= STATE_NZ_CTXT_R1|STATE_NZ_CTXT_R2|
+            STATE_D_DR_R1|STATE_H_R_R2;
+        return STATE_SIG_R2|STATE_VISITED_R2|STATE_NZ_CTXT_R1|STATE_V_D_R1;
+    }
+
+    /**
+     * Performs the significance propagation pass, as 'sigProgPass()', with
+     * the table-driven MQ decoder. The stripes are decoded with the A and C
+     * registers of the MQ decoder kept in local variables, and the symbols
+     * are decoded inline, from the combined state transition table, when
+     * they are an MPS which needs no renormalization (the most frequent
+     * case). Only the other symbols are decoded by 'decodeSymbol()'.
+     *
+     * @param cblk The code-block data to decode
+     *
+     * @param mq The MQ-coder to use
+     *
+     * @param bp The bit-plane to decode
+     *
+     * @param state The state information for the code-block
+     *
+     * @param zc_lut The ZC lookup table to use in ZC.
+     *
+     * @param isterm If this pass has been terminated. If the pass has been
+     * terminated it can be used to check error resilience.
+     *
+     * @return True if an error was detected in the bit stream, false otherwise.
+     *
+     * @see #sigProgPass
+     * */
+    private boolean fastSigProgPass(DataBlk cblk, FastMQDecoder mq, int bp,
+                                    int state[], int zc_lut[],
+                                    boolean isterm) {
+        int j,sj;        // The state index for column half and stripe
+        int k,sk;        // The data index for column half and stripe
+        int dscanw;      // The data scan-width
+        int sscanw;      // The state scan-width
+        int jstep;       // Stripe to stripe step for 'sj'
+        int kstep;       // Stripe to stripe step for 'sk'
+        int stopsk;      // The loop limit on the variable sk
+        int csj;         // Local copy (i.e. cached) of 'state[j]'
+        int setmask;     // The mask to set current and lower bit-planes to 1/2
+                         // approximation
+        int sym;         // The decoded symbol
+        int ctxt;        // The context to use
+        int data[];      // The data buffer
+        int s;           // The stripe index
+        int h;           // The row of the current column half in the stripe
+        int r;           // The row in the current column half
+        int sh;          // The shift of the state bits of row 'r'
+        boolean causal;  // Flag to indicate if stripe-causal context
+                         // formation is to be used
+        int nstripes;    // The number of stripes in the code-block
+        int sheight;     // Height of the current stripe
+        boolean error;   // The error condition
+        int st[];        // The state of each MQ context
+        int a,c;         // Local copies of the A and C registers
+        int cs;          // The state of the current MQ context
+        int la;          // The A register after an MPS
+
+        // Initialize local variables
+        dscanw = cblk.scanw;
+        sscanw = cblk.w+2;
+        jstep = sscanw*STRIPE_HEIGHT/2-cblk.w;
+        kstep = dscanw*STRIPE_HEIGHT-cblk.w;
+        setmask = (3<<bp)>>1;
+        data = (int[]) cblk.getData();
+        nstripes = (cblk.h+STRIPE_HEIGHT-1)/STRIPE_HEIGHT;
+        causal = (options & OPT_VERT_STR_CAUSAL) != 0;
+        st = mq.st;
+        a = mq.a;
+        c = mq.c;
+
+        // Decode stripe by stripe
+        sk = cblk.offset;
+        sj = sscanw+1;
+        for (s = nstripes-1; s >= 0; s--, sk+=kstep, sj+=jstep) {
+            sheight = (s != 0) ? STRIPE_HEIGHT :
+                cblk.h-(nstripes-1)*STRIPE_HEIGHT;
+            stopsk = sk+cblk.w;
+            // Scan by set of 1 stripe column at a time
+            for (; sk < stopsk; sk++, sj++) {
+                // Scan each half of the column
+                for (h = 0, j = sj, k = sk; h < sheight;
+                     h += 2, j += sscanw, k += dscanw<<1) {
+                    csj = state[j];
+                    // If none of the two samples is not significant and has
+                    // a non-zero context we can skip them
+                    if ((((~csj) & (csj<<2)) & SIG_MASK_R1R2) == 0) {
+                        continue;
+                    }
+                    for (r = 0; r < 2 && h+r < sheight; r++) {
+                        sh = r*STATE_SEP;
+                        if (((csj>>>sh) & (STATE_SIG_R1|STATE_NZ_CTXT_R1)) !=
+                            STATE_NZ_CTXT_R1) {
+                            continue;
+                        }
+                        // Use zero coding
+                        ctxt = zc_lut[(csj>>>sh)&ZC_MASK];
+                        cs = st[ctxt];
+                        la = a-(FastMQDecoder.trans[cs]&0xFFFF);
+                        if ((c>>>16) < la && la >= 0x8000) {
+                            a = la;
+                            sym = cs&1;
+                        }
+                        else {
+                            mq.a = a;
+                            mq.c = c;
+                            sym = mq.decodeSymbol(ctxt);
+                            a = mq.a;
+                            c = mq.c;
+                        }
+                        if (sym == 0) {
+                            csj |= STATE_VISITED_R1<<sh;
+                            continue;
+                        }
+                        // Became significant, use sign coding
+                        ctxt = SC_LUT[(csj>>>(SC_SHIFT_R1+sh))&SC_MASK];
+                        cs = st[ctxt & SC_LUT_MASK];
+                        la = a-(FastMQDecoder.trans[cs]&0xFFFF);
+                        if ((c>>>16) < la && la >= 0x8000) {
+                            a = la;
+                            sym = cs&1;
+                        }
+                        else {
+                            mq.a = a;
+                            mq.c = c;
+                            sym = mq.decodeSymbol(ctxt & SC_LUT_MASK);
+                            a = mq.a;
+                            c = mq.c;
+                        }
+                        sym ^= ctxt>>>SC_SPRED_SHIFT;
+                        // Update data and state information
+                        data[k+r*dscanw] = (sym<<31) | setmask;
+                        csj |= setSignificant(state,j,sscanw,r,sym,
+                                              !causal || h != 0);
+                    }
+                    state[j] = csj;
+                }
+            }
+        }
+        mq.a = a;
+        mq.c = c;
+
+        error = false;
+
+        // Check the error resilient termination
+        if (isterm && (options & OPT_PRED_TERM) != 0) {
+            error = mq.checkPredTerm();
+        }
+
+        // Reset the MQ context states if we need to
+        if ((options & OPT_RESET_MQ) != 0) {
+            mq.resetCtxts();
+        }
+
+        // Return error condition
+        return error;
+    }
+
+    /**
+     * Performs the cleanup pass, as 'cleanuppass()', with the table-driven
+     * MQ decoder. The stripes are decoded with the A and C registers of the
+     * MQ decoder kept in local variables, and the symbols are decoded
+     * inline, from the combined state transition table, when they are an
+     * MPS which needs no renormalization (the most frequent case). Only the
+     * other symbols, and those of the uniform context, are decoded by
+     * 'decodeSymbol()'.
+     *
+     * @param cblk The code-block data to code
+     *
+     * @param mq The MQ-coder to use
+     *
+     * @param bp The bit-plane to decode
+     *
+     * @param state The state information for the code-block
+     *
+     * @param zc_lut The ZC lookup table to use in ZC.
+     *
+     * @param isterm If this pass has been terminated. If the pass has been
+     * terminated it can be used to check error resilience.
+     *
+     * @return True if an error was detected in the bit stream, false
+     * otherwise.
+     *
+     * @see #cleanuppass
+     * */
+    private boolean fastCleanupPass(DataBlk cblk, FastMQDecoder mq, int bp,
+                                    int state[], int zc_lut[],
+                                    boolean isterm) {
+        int j,sj;        // The state index for column half and stripe
+        int k,sk;        // The data index for column half and stripe
+        int dscanw;      // The data scan-width
+        int sscanw;      // The state scan-width
+        int jstep;       // Stripe to stripe step for 'sj'
+        int kstep;       // Stripe to stripe step for 'sk'
+        int stopsk;      // The loop limit on the variable sk
+        int csj;         // Local copy (i.e. cached) of 'state[j]'
+        int setmask;     // The mask to set current and lower bit-planes to 1/2
+                         // approximation
+        int sym;         // The decoded symbol
+        int rlclen;      // Length of RLC
+        int ctxt;        // The context to use
+        int data[];      // The data buffer
+        int s;           // The stripe index
+        int h;           // The row of the current column half in the stripe
+        int r;           // The row in the current column half
+        int sh;          // The shift of the state bits of row 'r'
+        boolean causal;  // Flag to indicate if stripe-causal context
+                         // formation is to be used
+        int nstripes;    // The number of stripes in the code-block
+        int sheight;     // Height of the current stripe
+        boolean error;   // The error condition
+        int st[];        // The state of each MQ context
+        int a,c;         // Local copies of the A and C registers
+        int cs;          // The state of the current MQ context
+        int la;          // The A register after an MPS
+
+        // Initialize local variables
+        dscanw = cblk.scanw;
+        sscanw = cblk.w+2;
+        jstep = sscanw*STRIPE_HEIGHT/2-cblk.w;
+        kstep = dscanw*STRIPE_HEIGHT-cblk.w;
+        setmask = (3<<bp)>>1;
+        data = (int[]) cblk.getData();
+        nstripes = (cblk.h+STRIPE_HEIGHT-1)/STRIPE_HEIGHT;
+        causal = (options & OPT_VERT_STR_CAUSAL) != 0;
+        st = mq.st;
+        a = mq.a;
+        c = mq.c;
+
+        // Decode stripe by stripe
+        sk = cblk.offset;
+        sj = sscanw+1;
+        for (s = nstripes-1; s >= 0; s--, sk+=kstep, sj+=jstep) {
+            sheight = (s != 0) ? STRIPE_HEIGHT :
+                cblk.h-(nstripes-1)*STRIPE_HEIGHT;
+            stopsk = sk+cblk.w;
+            // Scan by set of 1 stripe column at a time
+            for (; sk < stopsk; sk++, sj++) {
+                h = 0;
+                j = sj;
+                k = sk;
+                // Check for RLC: if all samples are not significant, not
+                // visited and do not have a non-zero context, and column is
+                // full height, we do RLC.
+                if (state[j] == 0 && state[j+sscanw] == 0 &&
+                    sheight == STRIPE_HEIGHT) {
+                    cs = st[RLC_CTXT];
+                    la = a-(FastMQDecoder.trans[cs]&0xFFFF);
+                    if ((c>>>16) < la && la >= 0x8000) {
+                        a = la;
+                        sym = cs&1;
+                    }
+                    else {
+                        mq.a = a;
+                        mq.c = c;
+                        sym = mq.decodeSymbol(RLC_CTXT);
+                        a = mq.a;
+                        c = mq.c;
+                    }
+                    if (sym == 0) {
+                        // RLC is insignificant, goto next column
+                        continue;
+                    }
+                    // Run-length is significant, decode length
+                    mq.a = a;
+                    mq.c = c;
+                    rlclen = mq.decodeSymbol(UNIF_CTXT)<<1;
+                    rlclen |= mq.decodeSymbol(UNIF_CTXT);
+                    a = mq.a;
+                    c = mq.c;
+                    // Go to the column half of the sample which became
+                    // significant
+                    r = rlclen&1;
+                    if (rlclen > 1) {
+                        h = 2;
+                        j += sscanw;
+                        k += dscanw<<1;
+                    }
+                    csj = state[j];
+                    // Use sign coding
+                    sh = r*STATE_SEP;
+                    ctxt = SC_LUT[(csj>>>(SC_SHIFT_R1+sh))&SC_MASK];
+                    cs = st[ctxt & SC_LUT_MASK];
+                    la = a-(FastMQDecoder.trans[cs]&0xFFFF);
+                    if ((c>>>16) < la && la >= 0x8000) {
+                        a = la;
+                        sym = cs&1;
+                    }
+                    else {
+                        mq.a = a;
+                        mq.c = c;
+                        sym = mq.decodeSymbol(ctxt & SC_LUT_MASK);
+                        a = mq.a;
+                        c = mq.c;
+                    }
+                    sym ^= ctxt>>>SC_SPRED_SHIFT;
+                    // Update data and state information
+                    data[k+r*dscanw] = (sym<<31) | setmask;
+                    csj |= setSignificant(state,j,sscanw,r,sym,
+                                          !causal || h != 0);
+                    if (r != 0) {
+                        // The sample is the second row of its column half,
+                        // which is then done, and not marked as visited
+                        state[j] = csj & ~STATE_VISITED_R2;
+                        h += 2;
+                        j += sscanw;
+                        k += dscanw<<1;
+                    }
+                    else {
+                        // The rest of the column half is scanned below
+                        state[j] = csj;
+                    }
+                }
+                // Scan each remaining half of the column
+                for (; h < sheight; h += 2, j += sscanw, k += dscanw<<1) {
+                    csj = state[j];
+                    // If any of the two samples is not significant and has
+                    // not been visited in the current bit-plane we can not
+                    // skip them
+                    if ((((csj>>1)|csj) & VSTD_MASK_R1R2) != VSTD_MASK_R1R2) {
+                        for (r = 0; r < 2 && h+r < sheight; r++) {
+                            sh = r*STATE_SEP;
+                            if (((csj>>>sh) &
+                                 (STATE_SIG_R1|STATE_VISITED_R1)) != 0) {
+                                continue;
+                            }
+                            // Use zero coding
+                            ctxt = zc_lut[(csj>>>sh)&ZC_MASK];
+                            cs = st[ctxt];
+                            la = a-(FastMQDecoder.trans[cs]&0xFFFF);
+                            if ((c>>>16) < la && la >= 0x8000) {
+                                a = la;
+                                sym = cs&1;
+                            }
+                            else {
+                                mq.a = a;
+                                mq.c = c;
+                                sym = mq.decodeSymbol(ctxt);
+                                a = mq.a;
+                                c = mq.c;
+                            }
+                            if (sym == 0) {
+                                continue;
+                            }
+                            // Became significant, use sign coding
+                            ctxt = SC_LUT[(csj>>>(SC_SHIFT_R1+sh))&SC_MASK];
+                            cs = st[ctxt & SC_LUT_MASK];
+                            la = a-(FastMQDecoder.trans[cs]&0xFFFF);
+                            if ((c>>>16) < la && la >= 0x8000) {
+                                a = la;
+                                sym = cs&1;
+                            }
+                            else {
+                                mq.a = a;
+                                mq.c = c;
+                                sym = mq.decodeSymbol(ctxt & SC_LUT_MASK);
+                                a = mq.a;
+                                c = mq.c;
+                            }
+                            sym ^= ctxt>>>SC_SPRED_SHIFT;
+                            // Update data and state information
+                            data[k+r*dscanw] = (sym<<31) | setmask;
+                            csj |= setSignificant(state,j,sscanw,r,sym,
+                                                  !causal || h != 0);
+                        }
+                    }
+                    state[j] = csj & ~(STATE_VISITED_R1|STATE_VISITED_R2);
+                }
+            }
+        }
+        mq.a = a;
+        mq.c = c;
+
+        // Decode segment marker if we need to
+        if ((options & OPT_SEG_SYMBOLS) != 0) {
+            sym = mq.decodeSymbol(UNIF_CTXT)<<3;
+            sym |= mq.decodeSymbol(UNIF_CTXT)<<2;
+            sym |= mq.decodeSymbol(UNIF_CTXT)<<1;
+            sym |= mq.decodeSymbol(UNIF_CTXT);
+            // Set error condition accordingly
+            error = sym != SEG_SYMBOL;
+        }
+        else { // We can not detect any errors
+            error = false;
+        }
+
+        // Check the error resilient termination
+        if (isterm && (options & OPT_PRED_TERM) != 0) {
+            error = mq.checkPredTerm();
+        }
+
+        // Reset the MQ context states if we need to
+        if ((options & OPT_RESET_MQ) != 0) {
+            mq.resetCtxts();
+        }
+
+        // Return error condition
+        return error;
+    }
+
     /**
      * Conceals decoding errors detected in the last bit-plane. The
      * concealement resets the state of the decoded data to what it was before
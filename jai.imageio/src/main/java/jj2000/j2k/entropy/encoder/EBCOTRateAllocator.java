@@ -89,7 +89,15 @@ import jj2000.j2k.entropy.*;
 import jj2000.j2k.image.*;
 import jj2000.j2k.util.*;
 
+import java.util.Arrays;
 import java.util.Vector;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.io.*;
 
 import com.sun.media.imageioimpl.plugins.jpeg2000.J2KImageWriteParamJava;
@@ -101,6 +109,12 @@ import com.sun.media.imageioimpl.plugins.jpeg2000.J2KImageWriteParamJava;
  * components, and then running the rate-allocation on the whole image at
  * once, for each layer.
  *
+ * <P>If a distortion threshold is given in the encoding parameters the rate
+ * allocation is not run. There is then a single layer, in which each
+ * code-block is truncated at the given rate-distortion slope, and each tile
+ * is written as soon as it is coded, without keeping the code-blocks of the
+ * other tiles.
+ *
  * <P>This implementation also provides some timing features. They can be
  * enabled by setting the 'DO_TIMING' constant of this class to true and
  * recompiling. The timing uses the 'System.currentTimeMillis()' Java API
@@ -443,6 +457,11 @@ public class EBCOTRateAllocator extends PostCompRateAllocator {
      * stream writer object provided to the constructor.
      * */
     public void runAndWrite() throws IOException {
+        if (wp.getDistortionThreshold() >= 0f) {
+            // Single-pass encoding, code and write each tile in turn
+            writeTilesSinglePass();
+            return;
+        }
         //Now, run the rate allocation
         buildAndWriteLayers();
     }
@@ -452,6 +471,8 @@ public class EBCOTRateAllocator extends PostCompRateAllocator {
      * has been entirely written or simulated, so as to take its overhead into
      * account. This method will get all the code-blocks and then initialize
      * the target bitrates for each layer, according to the specifications.
+     * With single-pass encoding it only initializes the single layer, the
+     * code-blocks being obtained tile by tile by runAndWrite().
      * */
     public void initialize() throws IOException{
         int n,i,l;
@@ -471,6 +492,15 @@ public class EBCOTRateAllocator extends PostCompRateAllocator {
 
         long stime = 0L;
 
+        // With single-pass encoding there is a single layer, whose threshold
+        // is given, and the code-blocks are obtained by runAndWrite().
+        if (wp.getDistortionThreshold() >= 0f) {
+            layers = new EBCOTLayer[1];
+            layers[0] = new EBCOTLayer();
+            layers[0].rdThreshold = wp.getDistortionThreshold();
+            return;
+        }
+
         // Start by getting all the code-blocks, we need this in order to have
         // an idea of the total encoded bitrate.
         getAllCodeBlocks();
@@ -657,106 +687,344 @@ public class EBCOTRateAllocator extends PostCompRateAllocator {
      * */
     private void getAllCodeBlocks() {
 
-        int numComps, numTiles, numBytes;
-        int c, r, t, s, sidx, k;
-        int slope;
-        SubbandAn subb;
-        CBlkRateDistStats ccb = null;
-        Point ncblks = null;
-        int last_sidx;
-        float fslope;
-
-        long stime = 0L;
+        int numTiles;
+        int t;
 
         maxSlope = 0f;
         minSlope = Float.MAX_VALUE;
 
-        //Get the number of components and tiles
-        numComps = src.getNumComps();
+        //Get the number of tiles
         numTiles = src.getNumTiles();
 
+        if (tileSrcs != null && tileSrcs.length > 0 && numTiles > 1) {
+            getAllCodeBlocksConcurrently();
+            return;
+        }
+
+        //Get all coded code-blocks Goto first tile
+        src.setTile(0,0);
+        for (t=0; t<numTiles; t++) { //loop on tiles
+            getTileCodeBlocks(t);
+
+            //Goto next tile
+            if(t<numTiles-1) //not at last tile
+                src.nextTile();
+        }
+    }
+
+    /**
+     * This method gets all the coded code-blocks of the current tile of the
+     * source, for every component, and stores them in the 5D array as
+     * getAllCodeBlocks() does. Each code-block is also added to the summary
+     * R-D table.
+     *
+     * @param t The index of the current tile of the source.
+     *
+     * @see #getAllCodeBlocks
+     * */
+    private void getTileCodeBlocks(int t) {
+        int numComps = src.getNumComps();
+        int c, r, s;
+        SubbandAn subb;
+        CBlkRateDistStats ccb = null;
+        Point ncblks = null;
         SubbandAn root,sb;
         int cblkToEncode = 0;
         int nEncCblk = 0;
         ProgressWatch pw = FacilityManager.getProgressWatch();
 
-        //Get all coded code-blocks Goto first tile
-        src.setTile(0,0);
-        for (t=0; t<numTiles; t++) { //loop on tiles
-            nEncCblk = 0;
-            cblkToEncode = 0;
-            for(c=0; c<numComps; c++) {
-                root = src.getAnSubbandTree(t,c);
-                for(r=0; r<=root.resLvl; r++) {
-                    if(r==0) {
-                        sb = (SubbandAn)root.getSubbandByIdx(0,0);
-                        if(sb!=null) cblkToEncode += sb.numCb.x*sb.numCb.y;
-                    } else {
-                        sb = (SubbandAn)root.getSubbandByIdx(r,1);
-                        if(sb!=null) cblkToEncode += sb.numCb.x*sb.numCb.y;
-                        sb = (SubbandAn)root.getSubbandByIdx(r,2);
-                        if(sb!=null) cblkToEncode += sb.numCb.x*sb.numCb.y;
-                        sb = (SubbandAn)root.getSubbandByIdx(r,3);
-                        if(sb!=null) cblkToEncode += sb.numCb.x*sb.numCb.y;
-                    }
+        long stime = 0L;
+
+        for(c=0; c<numComps; c++) {
+            root = src.getAnSubbandTree(t,c);
+            for(r=0; r<=root.resLvl; r++) {
+                if(r==0) {
+                    sb = (SubbandAn)root.getSubbandByIdx(0,0);
+                    if(sb!=null) cblkToEncode += sb.numCb.x*sb.numCb.y;
+                } else {
+                    sb = (SubbandAn)root.getSubbandByIdx(r,1);
+                    if(sb!=null) cblkToEncode += sb.numCb.x*sb.numCb.y;
+                    sb = (SubbandAn)root.getSubbandByIdx(r,2);
+                    if(sb!=null) cblkToEncode += sb.numCb.x*sb.numCb.y;
+                    sb = (SubbandAn)root.getSubbandByIdx(r,3);
+                    if(sb!=null) cblkToEncode += sb.numCb.x*sb.numCb.y;
                 }
             }
-            if(pw!=null) {
-                pw.initProgressWatch(0,cblkToEncode,"Encoding tile "+t+"...");
-            }
+        }
+        if(pw!=null) {
+            pw.initProgressWatch(0,cblkToEncode,"Encoding tile "+t+"...");
+        }
 
-            for (c=0; c<numComps; c++) { //loop on components
+        for (c=0; c<numComps; c++) { //loop on components
 
-                //Get next coded code-block coordinates
-                while ( (ccb = src.getNextCodeBlock(c,ccb)) != null) {
-                    if (DO_TIMING) stime = System.currentTimeMillis();
+            //Get next coded code-block coordinates
+            while ( (ccb = src.getNextCodeBlock(c,ccb)) != null) {
+                if (DO_TIMING) stime = System.currentTimeMillis();
 
-                    if(pw!=null) {
-                        nEncCblk++;
-                        pw.updateProgressWatch(nEncCblk,null);
-                    }
+                if(pw!=null) {
+                    nEncCblk++;
+                    pw.updateProgressWatch(nEncCblk,null);
+                }
+
+                subb = ccb.sb;
+
+                //Get the coded code-block resolution level index
+                r = subb.resLvl;
+
+                //Get the coded code-block subband index
+                s = subb.sbandIdx;
+
+                //Get the number of blocks in the current subband
+                ncblks = subb.numCb;
+
+                // Add code-block contribution to summary R-D table
+                // RDSlopesRates
+                addToRDSummary(ccb);
+
+                //Fills code-blocks array
+                cblks[t][c][r][s][(ccb.m*ncblks.x)+ccb.n] = ccb;
+                ccb = null;
+
+                if(DO_TIMING) initTime += System.currentTimeMillis()-stime;
+            }
+        }
 
-                    subb = ccb.sb;
+        if(pw!=null) {
+            pw.terminateProgressWatch();
+        }
+    }
 
-                    //Get the coded code-block resolution level index
-                    r = subb.resLvl;
+    /**
+     * This method gets all the coded code-blocks as getAllCodeBlocks() does,
+     * but encodes several tiles concurrently. The main source and each of the
+     * additional tile sources take the next tile not yet encoded until all
+     * tiles are done, the main source running on the calling thread. The
+     * additional sources run on the executor of the encoding parameters, or
+     * on threads created for this call if there is none. The
+     * summary R-D table is built once all the code-blocks are available, so
+     * that it does not depend on the order in which the tiles complete.
+     *
+     * <P>If encoding any tile fails, the exception it threw is rethrown
+     * once all the sources have stopped.
+     *
+     * @see #getAllCodeBlocks
+     * */
+    private void getAllCodeBlocksConcurrently() {
+        int numTiles = src.getNumTiles();
+        AtomicInteger nextTile = new AtomicInteger();
+        Executor executor = wp.getEncodingExecutor();
+        ExecutorService workers = null;
+        TileEncoder encs[] = new TileEncoder[tileSrcs.length];
+        Throwable failure = null;
+
+        if (executor == null) {
+            final AtomicInteger count = new AtomicInteger();
+            workers = Executors.newFixedThreadPool(tileSrcs.length,
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "EBCOTRateAllocator-" +
+                                              count.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+            executor = workers;
+        }
 
-                    //Get the coded code-block subband index
-                    s = subb.sbandIdx;
+        try {
+            for (int i=0; i<tileSrcs.length; i++) {
+                encs[i] = new TileEncoder(tileSrcs[i],nextTile);
+                try {
+                    executor.execute(encs[i]);
+                } catch (RejectedExecutionException e) {
+                    // Its tiles are taken by the other sources
+                }
+            }
+            try {
+                encodeTiles(src, nextTile);
+            } catch (RuntimeException e) {
+                failure = e;
+            } catch (Error e) {
+                failure = e;
+            }
 
-                    //Get the number of blocks in the current subband
-                    ncblks = subb.numCb;
+            // Wait for the sources that have started, even after a failure,
+            // since they still fill the code-blocks array. The others will
+            // not run anymore.
+            for (int i=0; i<encs.length; i++) {
+                Throwable t;
+                try {
+                    t = encs[i].join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    nextTile.set(numTiles);
+                    t = new RuntimeException(e);
+                }
+                if (failure == null) failure = t;
+            }
+        } finally {
+            if (workers != null) workers.shutdown();
+        }
 
-                    // Add code-block contribution to summary R-D table
-                    // RDSlopesRates
-                    last_sidx = -1;
-                    for (k=ccb.nVldTrunc-1; k>=0; k--) {
-                        fslope = ccb.truncSlopes[k];
-                        if (fslope > maxSlope) maxSlope = fslope;
-                        if (fslope < minSlope) minSlope = fslope;
-                        sidx = getLimitedSIndexFromSlope(fslope);
-                        for (; sidx > last_sidx; sidx--) {
-                            RDSlopesRates[sidx] +=
-                                ccb.truncRates[ccb.truncIdxs[k]];
+        if (failure instanceof RuntimeException)
+            throw (RuntimeException)failure;
+        if (failure instanceof Error)
+            throw (Error)failure;
+        if (failure != null)
+            throw new RuntimeException(failure);
+
+        // Leave the main source on the last tile, as getAllCodeBlocks() does
+        int ntx = src.getNumTiles(null).x;
+        src.setTile((numTiles-1)%ntx,(numTiles-1)/ntx);
+
+        // Build the summary R-D table
+        for (int t=0; t<numTiles; t++) {
+            for (int c=0; c<cblks[t].length; c++) {
+                for (int r=0; r<cblks[t][c].length; r++) {
+                    for (int s=0; s<cblks[t][c][r].length; s++) {
+                        if (cblks[t][c][r][s] == null) continue;
+                        for (int i=0; i<cblks[t][c][r][s].length; i++) {
+                            if (cblks[t][c][r][s][i] != null)
+                                addToRDSummary(cblks[t][c][r][s][i]);
                         }
-                        last_sidx = getLimitedSIndexFromSlope(fslope);
                     }
+                }
+            }
+        }
+    }
+
+    /**
+     * Encodes tiles from a source on an executor. Either an executor thread
+     * or the thread waiting for the encoding to complete claims it, so that
+     * the latter never waits for a task that the executor has not started,
+     * whatever the executor.
+     * */
+    private class TileEncoder implements Runnable {
+
+        /** The source of entropy coded data */
+        private final CodedCBlkDataSrcEnc tsrc;
 
-                    //Fills code-blocks array
-                    cblks[t][c][r][s][(ccb.m*ncblks.x)+ccb.n] = ccb;
-                    ccb = null;
+        /** The index of the next tile to encode, shared by all the sources */
+        private final AtomicInteger nextTile;
 
-                    if(DO_TIMING) initTime += System.currentTimeMillis()-stime;
+        /** Whether a thread has claimed this encoder */
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        /** Whether the encoding has completed */
+        private boolean done;
+
+        /** The error or runtime exception thrown by the encoding, if any */
+        private Throwable failure;
+
+        TileEncoder(CodedCBlkDataSrcEnc tsrc, AtomicInteger nextTile) {
+            this.tsrc = tsrc;
+            this.nextTile = nextTile;
+        }
+
+        /**
+         * Encodes tiles until all the tiles have been taken, unless the
+         * waiting thread has claimed this encoder first.
+         * */
+        public void run() {
+            if (!claimed.compareAndSet(false,true)) return;
+            Throwable t = null;
+            try {
+                encodeTiles(tsrc,nextTile);
+            } catch (RuntimeException e) {
+                t = e;
+            } catch (Error e) {
+                t = e;
+            } finally {
+                synchronized (this) {
+                    failure = t;
+                    done = true;
+                    notifyAll();
                 }
             }
+        }
 
-            if(pw!=null) {
-                pw.terminateProgressWatch();
+        /**
+         * Waits for the encoding to complete. If it has not started yet it
+         * is claimed, and thus will never run, and this method returns
+         * immediately.
+         *
+         * @return The error or runtime exception thrown by the encoding, or
+         * null.
+         * */
+        synchronized Throwable join() throws InterruptedException {
+            if (claimed.compareAndSet(false,true)) return null;
+            while (!done) wait();
+            return failure;
+        }
+    }
+
+    /**
+     * Encodes tiles from the given source until all the tiles have been
+     * taken. The tile to encode is the next one in 'nextTile', and its coded
+     * code-blocks are stored in the code-blocks array. Since each tile is
+     * taken by a single source, the sources store to distinct parts of the
+     * array.
+     *
+     * @param tsrc The source of entropy coded data used to encode the tiles.
+     *
+     * @param nextTile The index of the next tile to encode, shared by all
+     * the sources.
+     * */
+    private void encodeTiles(CodedCBlkDataSrcEnc tsrc,
+                             AtomicInteger nextTile) {
+        int numTiles = tsrc.getNumTiles();
+        int numComps = tsrc.getNumComps();
+        int ntx = tsrc.getNumTiles(null).x;
+        CBlkRateDistStats ccb = null;
+        SubbandAn subb;
+        int t;
+
+        try {
+            while ((t = nextTile.getAndIncrement()) < numTiles) {
+                tsrc.setTile(t%ntx,t/ntx);
+                for (int c=0; c<numComps; c++) {
+                    // Have the subband tree, and thus the quantization
+                    // parameters that the R-D slopes depend on, computed
+                    // by this source
+                    tsrc.getAnSubbandTree(t,c);
+                    while ((ccb = tsrc.getNextCodeBlock(c,ccb)) != null) {
+                        subb = ccb.sb;
+                        cblks[t][c][subb.resLvl][subb.sbandIdx]
+                            [(ccb.m*subb.numCb.x)+ccb.n] = ccb;
+                        ccb = null;
+                    }
+                }
             }
+        } catch (RuntimeException e) {
+            // Stop the other sources as soon as they finish their tile
+            nextTile.set(numTiles);
+            throw e;
+        } catch (Error e) {
+            nextTile.set(numTiles);
+            throw e;
+        }
+    }
 
-            //Goto next tile
-            if(t<numTiles-1) //not at last tile
-                src.nextTile();
+    /**
+     * Adds the contribution of a coded code-block to the summary R-D table
+     * and updates the maximum and minimum slopes.
+     *
+     * @param ccb The coded code-block.
+     * */
+    private void addToRDSummary(CBlkRateDistStats ccb) {
+        int sidx, k;
+        int last_sidx = -1;
+        float fslope;
+
+        for (k=ccb.nVldTrunc-1; k>=0; k--) {
+            fslope = ccb.truncSlopes[k];
+            if (fslope > maxSlope) maxSlope = fslope;
+            if (fslope < minSlope) minSlope = fslope;
+            sidx = getLimitedSIndexFromSlope(fslope);
+            for (; sidx > last_sidx; sidx--) {
+                RDSlopesRates[sidx] += ccb.truncRates[ccb.truncIdxs[k]];
+            }
+            last_sidx = getLimitedSIndexFromSlope(fslope);
         }
     }
 
@@ -767,20 +1035,11 @@ public class EBCOTRateAllocator extends PostCompRateAllocator {
      * writes the layer bit streams according to the Progression type.
      * */
     private void buildAndWriteLayers() throws IOException {
-        int nPrec = 0;
         int maxBytes, actualBytes;
         float rdThreshold;
-        SubbandAn sb;
-        float threshold;
-        BitOutputBuffer hBuff = null;
-        byte[] bBuff = null;
         int[] tileLengths; // Length of each tile
         int tmp;
-        boolean sopUsed; // Should SOP markers be used ?
-        boolean ephUsed; // Should EPH markers be used ?
-        int nc = src.getNumComps();
         int nt = src.getNumTiles();
-        int mrl;
 
         long stime = 0L;
 
@@ -820,52 +1079,9 @@ public class EBCOTRateAllocator extends PostCompRateAllocator {
                     tileLengths[t] += headEnc.getLength();
                 }
 
-                for(int c=0; c<nc; c++) { //loop on components
-
-                    // set boolean sopUsed here (SOP markers)
-                    sopUsed = ((String)wp.getSOP().getTileDef(t)).
-                        equalsIgnoreCase("true");
-                    // set boolean ephUsed here (EPH markers)
-                    ephUsed = ((String)wp.getEPH().getTileDef(t)).
-                        equalsIgnoreCase("true");
-
-                    // Go to LL band
-                    sb = src.getAnSubbandTree(t,c);
-                    mrl = sb.resLvl+1;
-
-                    while (sb.subb_LL!=null) {
-                        sb = sb.subb_LL;
-                    }
-
-                    for(int r=0; r<mrl ; r++) { // loop on resolution levels
-
-                        nPrec = numPrec[t][c][r].x*numPrec[t][c][r].y;
-                        for(int p=0; p<nPrec; p++) { // loop on precincts
-
-                            findTruncIndices(l,c,r,t,sb,rdThreshold,p);
-
-                            hBuff =
-                                pktEnc.encodePacket(l+1,c,r,t,
-                                                    cblks[t][c][r],
-                                                    truncIdxs[t][l][c][r],
-                                                    hBuff, bBuff,p);
-                            if(pktEnc.isPacketWritable()) {
-                                tmp = bsWriter.
-                                    writePacketHead(hBuff.getBuffer(),
-                                                    hBuff.getLength(),
-                                                    true, sopUsed,ephUsed);
-                                tmp += bsWriter.
-                                    writePacketBody(pktEnc.getLastBodyBuf(),
-                                                    pktEnc.getLastBodyLen(),
-                                                    true,pktEnc.isROIinPkt(),
-                                                    pktEnc.getROILen());
-                                actualBytes += tmp;
-                                tileLengths[t] += tmp;
-                            }
-                        } // End loop on precincts
-                        sb = sb.parent;
-                    } // End loop on resolution levels
-                } // End loop on components
+                tmp = simulateTileLayer(l,t,rdThreshold);
+                actualBytes += tmp;
+                tileLengths[t] += tmp;
             } // end loop on tiles
             layers[l].rdThreshold = rdThreshold;
             layers[l].actualBytes = actualBytes;
@@ -882,62 +1098,208 @@ public class EBCOTRateAllocator extends PostCompRateAllocator {
         // +--------------------------------------------------+
         // Reset the packet encoder before writing all packets
         pktEnc.reset();
-        Progression[] prog; // Progression(s) in each tile
-        int cs,ce,rs,re,lye;
+        for(int t=0; t<nt; t++) { //loop on tiles
+            writeTile(t,tileLengths[t]);
+        } // End loop on tiles
 
-        int[] mrlc = new int[nc];
+        if (DO_TIMING) writeTime += System.currentTimeMillis()-stime;
+    }
+
+    /**
+     * This method encodes and writes the bit stream tile by tile, for the
+     * single-pass fixed-quality encoding. Each tile is coded, its length is
+     * simulated with the single layer threshold, and it is written according
+     * to its progression order. The code-blocks of the tile are released
+     * before coding the next one, so that only one tile is held in memory.
+     *
+     * @see J2KImageWriteParamJava#getDistortionThreshold
+     * */
+    private void writeTilesSinglePass() throws IOException {
+        int nt = src.getNumTiles();
+        int nc = src.getNumComps();
+        float rdThreshold = layers[0].rdThreshold;
+        int tileLength;
+        int actualBytes = 0;
+        int mrl;
+
+        long stime = 0L;
+
+        src.setTile(0,0);
         for(int t=0; t<nt; t++) { //loop on tiles
-            int[][] lysA; // layer index start for each component and
-            // resolution level
-            int[][] lys = new int[nc][];
-            for(int c=0; c<nc; c++){
-                mrlc[c] = src.getAnSubbandTree(t,c).resLvl;
-                lys[c] = new int[mrlc[c]+1];
-            }
+            getTileCodeBlocks(t);
 
-            // Tile header
+            if (DO_TIMING) stime = System.currentTimeMillis();
+
+            // Simulate the tile to know its length
             headEnc.reset();
-            headEnc.encodeTilePartHeader(tileLengths[t],t);
-            bsWriter.commitBitstreamHeader(headEnc);
-            prog = (Progression[])wp.getProgressionType().getTileDef(t);
-
-            for(int prg=0; prg<prog.length;prg++){ // Loop on progression
-                lye = prog[prg].lye;
-                cs = prog[prg].cs;
-                ce = prog[prg].ce;
-                rs = prog[prg].rs;
-                re = prog[prg].re;
-
-                switch(prog[prg].type){
-                case ProgressionType.RES_LY_COMP_POS_PROG:
-                    writeResLyCompPos(t,rs,re,cs,ce,lys,lye);
-                    break;
-                case ProgressionType.LY_RES_COMP_POS_PROG:
-                    writeLyResCompPos(t,rs,re,cs,ce,lys,lye);
-                    break;
-                case ProgressionType.POS_COMP_RES_LY_PROG:
-                    writePosCompResLy(t,rs,re,cs,ce,lys,lye);
-                    break;
-                case ProgressionType.COMP_POS_RES_LY_PROG:
-                    writeCompPosResLy(t,rs,re,cs,ce,lys,lye);
-                    break;
-                case ProgressionType.RES_POS_COMP_LY_PROG:
-                    writeResPosCompLy(t,rs,re,cs,ce,lys,lye);
-                    break;
-                default:
-                    throw new Error("Unsupported bit stream progression type");
-                } // switch on progression
-
-                // Update next first layer index 
-                for(int c=cs; c<ce; c++)
-                    for(int r=rs; r<re; r++){
-                        if(r>mrlc[c]) continue;
-                        lys[c][r] = lye;
+            headEnc.encodeTilePartHeader(0,t);
+            tileLength = headEnc.getLength();
+            tileLength += simulateTileLayer(0,t,rdThreshold);
+            actualBytes += tileLength;
+            pktEnc.reset(t);
+
+            if (DO_TIMING) buildTime += System.currentTimeMillis()-stime;
+            if (DO_TIMING) stime = System.currentTimeMillis();
+
+            writeTile(t,tileLength);
+
+            // Release the coded code-blocks of the tile
+            for(int c=0; c<nc; c++) {
+                mrl = cblks[t][c].length;
+                for(int r=0; r<mrl; r++) {
+                    for(int s=0; s<cblks[t][c][r].length; s++) {
+                        if(cblks[t][c][r][s]!=null) {
+                            Arrays.fill(cblks[t][c][r][s],null);
+                        }
                     }
-            } // End loop on progression
+                }
+            }
+
+            if (DO_TIMING) writeTime += System.currentTimeMillis()-stime;
+
+            //Goto next tile
+            if(t<nt-1) //not at last tile
+                src.nextTile();
         } // End loop on tiles
+        layers[0].actualBytes = actualBytes;
+    }
 
-        if (DO_TIMING) writeTime += System.currentTimeMillis()-stime;
+    /**
+     * Simulates the packets of a layer in a tile, finding the truncation
+     * points of the code-blocks for the given threshold. The state of the
+     * packet encoder is updated as if the packets were written.
+     *
+     * @param l The layer index.
+     *
+     * @param t The tile index.
+     *
+     * @param rdThreshold The rate-distortion threshold of the layer.
+     *
+     * @return The number of bytes of the packets of the layer in the tile.
+     * */
+    private int simulateTileLayer(int l, int t, float rdThreshold)
+        throws IOException {
+        int nPrec = 0;
+        SubbandAn sb;
+        BitOutputBuffer hBuff = null;
+        byte[] bBuff = null;
+        int tmp;
+        int bytes = 0;
+        boolean sopUsed; // Should SOP markers be used ?
+        boolean ephUsed; // Should EPH markers be used ?
+        int nc = src.getNumComps();
+        int mrl;
+
+        for(int c=0; c<nc; c++) { //loop on components
+
+            // set boolean sopUsed here (SOP markers)
+            sopUsed = ((String)wp.getSOP().getTileDef(t)).
+                equalsIgnoreCase("true");
+            // set boolean ephUsed here (EPH markers)
+            ephUsed = ((String)wp.getEPH().getTileDef(t)).
+                equalsIgnoreCase("true");
+
+            // Go to LL band
+            sb = src.getAnSubbandTree(t,c);
+            mrl = sb.resLvl+1;
+
+            while (sb.subb_LL!=null) {
+                sb = sb.subb_LL;
+            }
+
+            for(int r=0; r<mrl ; r++) { // loop on resolution levels
+
+                nPrec = numPrec[t][c][r].x*numPrec[t][c][r].y;
+                for(int p=0; p<nPrec; p++) { // loop on precincts
+
+                    findTruncIndices(l,c,r,t,sb,rdThreshold,p);
+
+                    hBuff =
+                        pktEnc.encodePacket(l+1,c,r,t,
+                                            cblks[t][c][r],
+                                            truncIdxs[t][l][c][r],
+                                            hBuff, bBuff,p);
+                    if(pktEnc.isPacketWritable()) {
+                        tmp = bsWriter.
+                            writePacketHead(hBuff.getBuffer(),
+                                            hBuff.getLength(),
+                                            true, sopUsed,ephUsed);
+                        tmp += bsWriter.
+                            writePacketBody(pktEnc.getLastBodyBuf(),
+                                            pktEnc.getLastBodyLen(),
+                                            true,pktEnc.isROIinPkt(),
+                                            pktEnc.getROILen());
+                        bytes += tmp;
+                    }
+                } // End loop on precincts
+                sb = sb.parent;
+            } // End loop on resolution levels
+        } // End loop on components
+        return bytes;
+    }
+
+    /**
+     * Writes a tile, its header and then its packets according to its
+     * progression order(s), using the thresholds of the layers.
+     *
+     * @param t The tile index.
+     *
+     * @param tileLength The length of the tile, header included.
+     * */
+    private void writeTile(int t, int tileLength) throws IOException {
+        Progression[] prog; // Progression(s) in each tile
+        int cs,ce,rs,re,lye;
+        int nc = src.getNumComps();
+
+        int[] mrlc = new int[nc];
+        int[][] lysA; // layer index start for each component and
+        // resolution level
+        int[][] lys = new int[nc][];
+        for(int c=0; c<nc; c++){
+            mrlc[c] = src.getAnSubbandTree(t,c).resLvl;
+            lys[c] = new int[mrlc[c]+1];
+        }
+
+        // Tile header
+        headEnc.reset();
+        headEnc.encodeTilePartHeader(tileLength,t);
+        bsWriter.commitBitstreamHeader(headEnc);
+        prog = (Progression[])wp.getProgressionType().getTileDef(t);
+
+        for(int prg=0; prg<prog.length;prg++){ // Loop on progression
+            lye = prog[prg].lye;
+            cs = prog[prg].cs;
+            ce = prog[prg].ce;
+            rs = prog[prg].rs;
+            re = prog[prg].re;
+
+            switch(prog[prg].type){
+            case ProgressionType.RES_LY_COMP_POS_PROG:
+                writeResLyCompPos(t,rs,re,cs,ce,lys,lye);
+                break;
+            case ProgressionType.LY_RES_COMP_POS_PROG:
+                writeLyResCompPos(t,rs,re,cs,ce,lys,lye);
+                break;
+            case ProgressionType.POS_COMP_RES_LY_PROG:
+                writePosCompResLy(t,rs,re,cs,ce,lys,lye);
+                break;
+            case ProgressionType.COMP_POS_RES_LY_PROG:
+                writeCompPosResLy(t,rs,re,cs,ce,lys,lye);
+                break;
+            case ProgressionType.RES_POS_COMP_LY_PROG:
+                writeResPosCompLy(t,rs,re,cs,ce,lys,lye);
+                break;
+            default:
+                throw new Error("Unsupported bit stream progression type");
+            } // switch on progression
+
+            // Update next first layer index 
+            for(int c=cs; c<ce; c++)
+                for(int r=rs; r<re; r++){
+                    if(r>mrlc[c]) continue;
+                    lys[c][r] = lye;
+                }
+        } // End loop on progression
     }
 
     /** 
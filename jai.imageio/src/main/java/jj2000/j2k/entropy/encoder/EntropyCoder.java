@@ -356,6 +356,11 @@ public abstract class EntropyCoder extends ImgDataAdapter
                                               StringSpec tts) {
         // Check parameters
         //pl.checkList(OPT_PREFIX,pl.toNameArray(pinfo));
-        return new StdEntropyCoder(src,cblks,pss,bms,mqrs,rts,css,sss,lcs,tts);
+        StdEntropyCoder ec =
+            new StdEntropyCoder(src,cblks,pss,bms,mqrs,rts,css,sss,lcs,tts,
+                                wp.getEncodingExecutor(),
+                                wp.getCodeBlockEncodingThreads());
+        ec.setDistortionThreshold(wp.getDistortionThreshold());
+        return ec;
     }
 }
@@ -177,6 +177,11 @@ public abstract class PostCompRateAllocator extends ImgDataAdapter {
     /** The header encoder */
     HeaderEncoder headEnc;
 
+    /** Additional sources of entropy coded data, each one the end of an
+     * independent encoding chain over the same image. Used to encode several
+     * tiles concurrently, null if the tiles are encoded one at a time. */
+    protected CodedCBlkDataSrcEnc tileSrcs[];
+
     /**
      * Initializes the source of entropy coded data.
      *
@@ -208,6 +213,22 @@ public abstract class PostCompRateAllocator extends ImgDataAdapter {
 	this.headEnc = headEnc;
     }
 
+    /**
+     * Sets the additional sources of entropy coded data used to encode
+     * several tiles concurrently. Each source must be the end of its own
+     * encoding chain, built with the same parameters as the main source, so
+     * that any of them produces the same code-blocks for a given tile. This
+     * method must be called before the initialize() one.
+     *
+     * @param srcs The additional sources, or null to encode the tiles one
+     * at a time.
+     *
+     * @see #initialize
+     * */
+    public void setTileSources(CodedCBlkDataSrcEnc srcs[]) {
+        tileSrcs = srcs;
+    }
+
     /**
      * Initializes the rate allocation points, taking into account header
      * overhead and such. This method must be called after the header has been
@@ -284,8 +305,10 @@ public abstract class PostCompRateAllocator extends ImgDataAdapter {
             }
         }
 
-        // Construct the layer specification from the Alayers option
-        LayersInfo lyrs = parseAlayers(lyropt,rate);
+        // Construct the layer specification from the Alayers option, a
+        // single layer being used with single-pass encoding
+        LayersInfo lyrs = (wp.getDistortionThreshold() >= 0f) ?
+            new LayersInfo(rate) : parseAlayers(lyropt,rate);
 
 	int nTiles = wp.getNumTiles();
 	int nComp = wp.getNumComponents();
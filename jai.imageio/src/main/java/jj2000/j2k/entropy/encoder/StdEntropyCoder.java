@@ -91,6 +91,9 @@ import jj2000.j2k.io.*;
 import jj2000.j2k.*;
 
 import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import com.sun.media.imageioimpl.plugins.jpeg2000.J2KImageWriteParamJava;
 
 /**
@@ -102,13 +105,16 @@ import com.sun.media.imageioimpl.plugins.jpeg2000.J2KImageWriteParamJava;
  *
  * <p>The number of threads used by this entropy coder is specified by the
  * "jj2000.j2k.entropy.encoder.StdEntropyCoder.nthreads" Java system
- * property. If set to "0" the single threaded implementation is used. If set
- * to 'n' ('n' larger than 0) then 'n' extra threads are started by this class
- * which are used to encode the code-blocks in parallel (i.e. ideally 'n'
- * code-blocks will be encoded in parallel at a time). On multiprocessor
- * machines under a "native threads" Java Virtual Machine implementation each
- * one of these threads can run on a separate processor speeding up the
- * encoding time. By default the single-threaded implementation is used. The
+ * property, unless given to the constructor. If set to "0" the single
+ * threaded implementation is used. If set to 'n' ('n' larger than 0) then up
+ * to 'n' code-blocks are encoded in parallel at a time. They run on the
+ * executor given to the constructor or, if none, on a fork-join pool of 'n'
+ * threads shared by all the entropy coders using the same number of
+ * threads. A code-block which no thread of the executor has started yet when
+ * its result is needed is encoded by the calling thread, so that the
+ * executor may be bounded and shared with other tasks, including the ones
+ * calling this class. By default the single-threaded implementation is used.
+ * The
  * multi-threaded implementation currently assumes that the vast majority of
  * consecutive calls to 'getNextCodeBlock()' will be done on the same
  * component. If this is not the case, the speed-up that can be expected on
@@ -168,15 +174,23 @@ public class StdEntropyCoder extends EntropyCoder
     /** The default value for the property in THREADS_PROP_NAME: 0 */
     public static final String DEF_THREADS_NUM = "0";
 
-    /** The increase in priority for the compressor threads, currently 3. The
-     * compressor threads will have a priority of THREADS_PRIORITY_INC more
-     * than the priority of the thread calling this class constructor. Used
-     * only in the multi-threaded implementation. */
+    /** The increase in priority for the compressor threads, currently 0. No
+     * longer used, since the compressors run on shared executors whose
+     * threads have their own priority. */
     public static final int THREADS_PRIORITY_INC = 0;
 
-    /** The pool of threads, for the threaded implementation. It is null, if
-     * non threaded implementation is used */
-    private ThreadPool tPool;
+    /** The executor on which the compressors run, for the threaded
+     * implementation. It is null, if non threaded implementation is used */
+    private Executor executor;
+
+    /** All the compressors, idle or not. Used in multithreaded
+        implementation only */
+    private Compressor comps[];
+
+    /** The error or runtime exception thrown by a compressor, if any. It is
+        thrown again by 'getNextCodeBlock()'. Used in multithreaded
+        implementation only. */
+    private volatile Throwable comprError;
 
     /** The queue of idle compressors. Used in multithreaded
         implementation only */
@@ -247,6 +261,13 @@ public class StdEntropyCoder extends EntropyCoder
     /** The termination type for each tile-component */
     private int[][] tType = null;
 
+    /** The rate-distortion slope below which the coding passes of a
+     * code-block are not needed, or a negative value if all the coding
+     * passes are always performed.
+     *
+     * @see #setDistortionThreshold */
+    private float distThreshold = -1f;
+
     /** Number of bits used for the Zero Coding lookup table */
     private static final int ZC_LUT_BITS = 8;
 
@@ -613,6 +634,10 @@ public class StdEntropyCoder extends EntropyCoder
          * component. */
         private long time[];
 
+        /** Whether this compressor has been submitted to the executor and
+         * not yet claimed by a thread to run it */
+        private final AtomicBoolean submitted = new AtomicBoolean();
+
         /**
          * Creates a new compressor object with the given index.
          *
@@ -623,14 +648,50 @@ public class StdEntropyCoder extends EntropyCoder
             if (DO_TIMING) time = new long[src.getNumComps()];
         }
 
+        /**
+         * Submits this compressor to the executor. If the executor rejects
+         * it, it is run by the thread waiting for its result.
+         * */
+        void submit() {
+            submitted.set(true);
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                // Claimed by the thread calling 'getNextCodeBlock()'
+            }
+        }
+
+        /**
+         * Claims this compressor for running it, if it has been submitted
+         * and no other thread has claimed it yet.
+         *
+         * @return True if the calling thread must run this compressor.
+         * */
+        boolean claim() {
+            return submitted.compareAndSet(true,false);
+        }
+
+        /**
+         * Runs this compressor, unless another thread has claimed it
+         * already. The executor may call this method more than once for the
+         * same submission, since the thread waiting for the result can run
+         * the compressor itself.
+         * */
+        public void run() {
+            if (claim()) {
+                compress();
+            }
+        }
+
         /**
          * Calls the 'compressCodeBlock()' method with thread local
          * arguments. Once completed it adds itself to the 'completedComps[c]'
          * stack, where 'c' is the component for which this compressor is
-         * running. This last step occurs even if exceptions are thrown by the
-         * 'compressCodeBlock()' method.
+         * running, and notifies the waiting thread. This last step occurs
+         * even if exceptions are thrown by the 'compressCodeBlock()' method,
+         * which are saved to be thrown by 'getNextCodeBlock()'.
          * */
-        public void run() {
+        void compress() {
 	    // Start the code-block compression
             try {
                 long stime = 0L;
@@ -639,13 +700,22 @@ public class StdEntropyCoder extends EntropyCoder
                                   outT[idx],stateT[idx],distbufT[idx],
                                   ratebufT[idx],istermbufT[idx],
                                   symbufT[idx],ctxtbufT[idx],options,
-                                  rev,lcType,tType);
+                                  rev,lcType,tType,distThreshold);
                 if (DO_TIMING) time[c] += System.currentTimeMillis()-stime;
             }
+            catch (RuntimeException e) {
+                comprError = e;
+            }
+            catch (Error e) {
+                comprError = e;
+            }
             finally {
                 // Join the queue of completed compression, even if exceptions
                 // occurred.
-                completedComps[c].push(this);
+                synchronized (completedComps[c]) {
+                    completedComps[c].push(this);
+                    completedComps[c].notify();
+                }
             }
         }
 
@@ -952,6 +1022,55 @@ public class StdEntropyCoder extends EntropyCoder
                            PrecinctSizeSpec pss,StringSpec bms,StringSpec mqrs,
                            StringSpec rts,StringSpec css,StringSpec sss,
                            StringSpec lcs,StringSpec tts) {
+        this(src,cblks,pss,bms,mqrs,rts,css,sss,lcs,tts,null,-1);
+    }
+
+    /**
+     * Instantiates a new entropy coder engine, with the specified source of
+     * data, nominal block width and height, which encodes up to 'nt'
+     * code-blocks in parallel on the specified executor.
+     *
+     * <p>If the 'OPT_PRED_TERM' option is given then the MQ termination must
+     * be 'TERM_PRED_ER' or an exception is thrown.</p>
+     *
+     * @param src The source of data
+     *
+     * @param cbks Code-block size specifications
+     *
+     * @param pss Precinct partition specifications
+     *
+     * @param bms By-pass mode specifications
+     *
+     * @param mqrs MQ-reset specifications
+     *
+     * @param rts Regular termination specifications
+     *
+     * @param css Causal stripes specifications
+     *
+     * @param sss Error resolution segment symbol use specifications
+     *
+     * @param lcs Length computation specifications
+     *
+     * @param tts Termination type specifications
+     *
+     * @param exec The executor on which the code-blocks are encoded, or null
+     * to use a fork-join pool shared by the entropy coders.
+     *
+     * @param nthreads The number of code-blocks to encode in parallel, 0 to
+     * encode them one at a time on the calling thread. If negative the value
+     * of the THREADS_PROP_NAME property is used or, if it is not set and
+     * 'exec' is not null, the parallelism of 'exec' (see
+     * ForkJoinPools.getParallelism()).
+     *
+     * @see MQCoder
+     *
+     * @see #THREADS_PROP_NAME
+     * */
+    public StdEntropyCoder(CBlkQuantDataSrcEnc src,CBlkSizeSpec cblks,
+                           PrecinctSizeSpec pss,StringSpec bms,StringSpec mqrs,
+                           StringSpec rts,StringSpec css,StringSpec sss,
+                           StringSpec lcs,StringSpec tts,Executor exec,
+                           int nthreads) {
         super(src);
         this.cblks = cblks;
         this.pss = pss;
@@ -972,20 +1091,31 @@ public class StdEntropyCoder extends EntropyCoder
         maxCBlkHeight = cblks.getMaxCBlkHeight();
 
         // Get the number of threads to use, or default to one
-        try {
+        nt = nthreads;
+        if (nt < 0) {
+            String prop;
             try {
-                nt = Integer.parseInt(System.getProperty(THREADS_PROP_NAME,
-                                                         DEF_THREADS_NUM));
+                prop = System.getProperty(THREADS_PROP_NAME);
             } catch(SecurityException se) {
                 // Use the default value.
-                nt = Integer.parseInt(DEF_THREADS_NUM);
+                prop = null;
+            }
+            try {
+                if (prop != null) {
+                    nt = Integer.parseInt(prop);
+                } else if (exec != null) {
+                    // Use as many compressors as the executor runs tasks
+                    nt = ForkJoinPools.getParallelism(exec);
+                } else {
+                    nt = Integer.parseInt(DEF_THREADS_NUM);
+                }
+                if (nt < 0) throw new NumberFormatException();
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid number of threads "+
+                                                   "for "+
+                                                   "entropy coding in property "+
+                                                   THREADS_PROP_NAME);
             }
-            if (nt < 0) throw new NumberFormatException();
-        } catch (NumberFormatException e) {
-            throw new IllegalArgumentException("Invalid number of threads "+
-                                               "for "+
-                                               "entropy coding in property "+
-                                               THREADS_PROP_NAME);
         }
 
         // If we do timing create necessary structures
@@ -1002,8 +1132,8 @@ public class StdEntropyCoder extends EntropyCoder
                          "Using multithreaded entropy coder "+
                          "with "+nt+" compressor threads.");
             tsl = nt;
-            tPool = new ThreadPool(nt,Thread.currentThread().getPriority()+
-                                   THREADS_PRIORITY_INC,"StdEntropyCoder");
+            executor = (exec != null) ? exec : ForkJoinPools.getPool(nt);
+            comps = new Compressor[nt];
 	    idleComps = new Stack();
             completedComps = new Stack[src.getNumComps()];
             nBusyComps = new int[src.getNumComps()];
@@ -1012,12 +1142,14 @@ public class StdEntropyCoder extends EntropyCoder
                 completedComps[i] = new Stack();
             }
 	    for (i=0; i<nt; i++) {
-		idleComps.push(new StdEntropyCoder.Compressor(i));
+                comps[i] = new StdEntropyCoder.Compressor(i);
+		idleComps.push(comps[i]);
 	    }
         }
         else {
             tsl = 1;
-            tPool = null;
+            executor = null;
+            comps = null;
 	    idleComps = null;
             completedComps = null;
             nBusyComps = null;
@@ -1056,6 +1188,44 @@ public class StdEntropyCoder extends EntropyCoder
         }
     }
 
+    /**
+     * Sets the rate-distortion slope below which the coding passes of a
+     * code-block are not needed, because the rate allocator discards
+     * them. Coding of a code-block then stops at the end of the first
+     * bit-plane after which the distortion that remains in the code-block
+     * is lower than this threshold, that is, after which no further coding
+     * pass could decrease the distortion by at least this threshold per
+     * byte. The last coding pass is then terminated, so the coded data
+     * differs from that of coding all the passes and truncating them. This
+     * must be set before the first code-block is requested.
+     *
+     * <P>Coding stops early, but the rate-distortion statistics of all the
+     * code-blocks of a tile are still kept until the tile is written, so
+     * the memory used grows with the size of the tiles, and an untiled
+     * image is held whole. Large images should therefore be tiled.
+     *
+     * @param thresh The rate-distortion slope threshold, in the units of the
+     * distortion decreases of the coding passes per byte. If negative, which
+     * is the default, all the coding passes are performed.
+     * */
+    public void setDistortionThreshold(float thresh) {
+        distThreshold = thresh;
+    }
+
+    /**
+     * Throws the error or runtime exception thrown by a compressor, if any.
+     *
+     * @exception Error If a compressor has thrown an error.
+     *
+     * @exception RuntimeException If a compressor has thrown a runtime
+     * exception.
+     * */
+    private void checkCompressorErrors() {
+        Throwable t = comprError;
+        if (t instanceof Error) throw (Error)t;
+        if (t != null) throw (RuntimeException)t;
+    }
+
     /**
      * Prints the timing information, if collected, and calls 'finalize' on
      * the super class.
@@ -1065,7 +1235,7 @@ public class StdEntropyCoder extends EntropyCoder
             int c;
             StringBuffer sb;
 
-            if (tPool == null) { // Single threaded implementation
+            if (executor == null) { // Single threaded implementation
                 sb = new StringBuffer("StdEntropyCoder compression wall "+
                                       "clock time:");
                 for (c=0; c<time.length; c++) {
@@ -1171,7 +1341,7 @@ public class StdEntropyCoder extends EntropyCoder
      * */
     public CBlkRateDistStats getNextCodeBlock(int c, CBlkRateDistStats ccb) {
         long stime = 0L;     // Start time for timed sections
-        if (tPool == null) { // Use single threaded implementation
+        if (executor == null) { // Use single threaded implementation
             // Get code-block data from source
             srcblkT[0] = src.getNextInternCodeBlock(c,srcblkT[0]);
 
@@ -1192,7 +1362,8 @@ public class StdEntropyCoder extends EntropyCoder
                               stateT[0],distbufT[0],ratebufT[0],
                               istermbufT[0],symbufT[0],ctxtbufT[0],
                               opts[tIdx][c],isReversible(tIdx,c),
-                              lenCalc[tIdx][c],tType[tIdx][c]);
+                              lenCalc[tIdx][c],tType[tIdx][c],
+                              distThreshold);
             if (DO_TIMING) time[c] += System.currentTimeMillis()-stime;
             // Return result
             return ccb;
@@ -1226,8 +1397,8 @@ public class StdEntropyCoder extends EntropyCoder
                     compr.tType = tType[tIdx][c];
                     nBusyComps[c]++;
                     ccb = null;
-                    // Send compressor to execution in thread pool
-		    tPool.runTarget(compr,completedComps[c]);
+                    // Send compressor to execution on the executor
+                    compr.submit();
                 }
                 else {
                     // We finished with all the code-blocks in the current
@@ -1239,9 +1410,19 @@ public class StdEntropyCoder extends EntropyCoder
             // If there are threads for this component which result has not
             // been returned yet, get it
             if (nBusyComps[c] > 0) {
+                // If no compressor is done, run one that the executor has
+                // not started yet, if any
+                if (completedComps[c].empty()) {
+                    for (int i=comps.length-1; i>=0; i--) {
+                        if (comps[i].c == c && comps[i].claim()) {
+                            comps[i].compress();
+                            break;
+                        }
+                    }
+                }
                 synchronized (completedComps[c]) {
                     // If no compressor is done, wait until one is
-                    if (completedComps[c].empty()) {
+                    while (completedComps[c].empty()) {
                         try {
                             if (DO_TIMING) {
                                 time[c] += System.currentTimeMillis()-stime;
@@ -1259,16 +1440,16 @@ public class StdEntropyCoder extends EntropyCoder
                     cIdx = compr.getIdx();
                     nBusyComps[c]--;
                     idleComps.push(compr);
-                    // Check targets error condition
-                    tPool.checkTargetErrors();
+                    // Check compressors error condition
+                    checkCompressorErrors();
                     // Get the result of compression and return that.
                     if (DO_TIMING) time[c] += System.currentTimeMillis()-stime;
                     return compr.ccb;
                 }
             }
             else {
-                // Check targets error condition
-                tPool.checkTargetErrors();
+                // Check compressors error condition
+                checkCompressorErrors();
                 // Printing timing info if necessary
                 if (DO_TIMING) time[c] += System.currentTimeMillis()-stime;
                 // Nothing is running => no more code-blocks
@@ -1362,7 +1543,12 @@ public class StdEntropyCoder extends EntropyCoder
      *
      * @param tType The type of termination to use with the MQ coder.
      *
+     * @param dthresh The rate-distortion slope threshold below which the
+     * remaining coding passes are not performed, or a negative value to
+     * perform all of them.
+     *
      * @see #getNextCodeBlock
+     * @see #setDistortionThreshold
      * */
     static private void compressCodeBlock(int c, CBlkRateDistStats ccb,
                                           CBlkWTData srcblk, MQCoder mq,
@@ -1373,7 +1559,8 @@ public class StdEntropyCoder extends EntropyCoder
                                           boolean istermbuf[], int symbuf[],
                                           int ctxtbuf[], int options,
                                           boolean rev,
-                                          int lcType, int tType) {
+                                          int lcType, int tType,
+                                          float dthresh) {
         // NOTE: This method should not access any non-final instance or
         // static variables, either directly or indirectly through other
         // methods in order to be sure that the method is thread safe.
@@ -1388,6 +1575,10 @@ public class StdEntropyCoder extends EntropyCoder
         double msew;   // The distortion (MSE weight) for the current bit-plane
         double totdist;// The total cumulative distortion decrease
         int ltpidx;    // The index of the last pass which is terminated
+        double maxdist;// The distortion of the code-block when all its
+                       // coefficients have an error of one least
+                       // significant magnitude bit
+        boolean lastbp;// If the current bit-plane is the last one coded
 
 
         // Check error-resilient termination
@@ -1451,6 +1642,22 @@ public class StdEntropyCoder extends EntropyCoder
         totdist = 0f;
         npass = 0;
         ltpidx = -1;
+        // Once bit-plane 'curbp' is coded the error of each coefficient is
+        // lower than 2^(curbp-lmb) in units of the least significant
+        // magnitude bit, which for all of them weighs 'maxdist'. When
+        // the distortion left after the bit-plane is lower than the
+        // threshold no later pass can be kept by the rate allocator, since
+        // it can not decrease the distortion by the threshold per byte.
+        // The last pass coded is then MQ terminated, as the last pass of
+        // the lowest bit-plane would be, so the code-block is not the same
+        // as when all the passes are coded and then truncated: its last
+        // pass carries the termination bytes instead of being cut at its
+        // estimated length.
+        maxdist = (dthresh >= 0f) ?
+            (double)srcblk.w*srcblk.h*srcblk.sb.stepWMSE*srcblk.wmseScaling :
+            0d;
+        lastbp = curbp == lmb ||
+            (dthresh >= 0f && maxdist*Math.pow(4,curbp-lmb) < dthresh);
         // First significant bit-plane has only the pass pass
         if (curbp >= lmb) {
             // Do we need the "lossless" 'fs' table ?
@@ -1459,7 +1666,7 @@ public class StdEntropyCoder extends EntropyCoder
             }
             // We terminate if regular termination, last bit-plane, or next
             // bit-plane is "raw".
-            istermbuf[npass] = (options & OPT_TERM_PASS) != 0 || curbp == lmb ||
+            istermbuf[npass] = (options & OPT_TERM_PASS) != 0 || lastbp ||
                 ((options & OPT_BYPASS) != 0 &&
                  (31-NUM_NON_BYPASS_MS_BP-skipbp)>=curbp);
             totdist += cleanuppass(srcblk,mq,istermbuf[npass],curbp,state,
@@ -1469,10 +1676,13 @@ public class StdEntropyCoder extends EntropyCoder
             if (istermbuf[npass]) ltpidx = npass;
             npass++;
             msew *= 0.25;
-            curbp--;
+            curbp = lastbp ? lmb-1 : curbp-1;
         }
         // Other bit-planes have all passes
         while (curbp >= lmb) {
+            lastbp = curbp == lmb ||
+                (dthresh >= 0f && maxdist*Math.pow(4,curbp-lmb) < dthresh);
+
             // Do we need the "lossless" 'fs' and 'fm' tables ?
             if (rev && curbp == lmb) {
                 fs = FS_LOSSLESS;
@@ -1523,7 +1733,7 @@ public class StdEntropyCoder extends EntropyCoder
             // Do the clenup pass
             // We terminate if regular termination, last bit-plane, or next
             // bit-plane is "raw".
-            istermbuf[npass] = (options & OPT_TERM_PASS) != 0 || curbp == lmb ||
+            istermbuf[npass] = (options & OPT_TERM_PASS) != 0 || lastbp ||
                 ((options & OPT_BYPASS) != 0 &&
                  (31-NUM_NON_BYPASS_MS_BP-skipbp)>=curbp);
             totdist += cleanuppass(srcblk,mq,istermbuf[npass],curbp,state,
@@ -1535,7 +1745,7 @@ public class StdEntropyCoder extends EntropyCoder
 
             // Goto next bit-plane
             msew *= 0.25;
-            curbp--;
+            curbp = lastbp ? lmb-1 : curbp-1;
         }
 
         // Copy compressed data and rate-distortion statistics to output
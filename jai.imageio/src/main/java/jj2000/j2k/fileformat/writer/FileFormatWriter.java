@@ -89,6 +89,7 @@ import jj2000.j2k.fileformat.*;
 import jj2000.j2k.io.*;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 import javax.imageio.stream.ImageOutputStream;
 import javax.imageio.metadata.IIOMetadataNode;
@@ -110,6 +111,9 @@ public class FileFormatWriter implements FileFormatBoxes {
      * the JP2 file*/
     private File file;
 
+    /** The codestream, if it is in memory instead of in 'file' */
+    private ByteBuffer buf;
+
     private ImageOutputStream stream;
 
     /** Image height */
@@ -209,6 +213,25 @@ public class FileFormatWriter implements FileFormatBoxes {
 
 
 
+    /**
+     * Creates a FileFormatWriter for a codestream held in memory. See the
+     * constructor taking a file for the other parameters.
+     *
+     * @param buf The codestream, from the buffer position to its limit,
+     * which must be at least 'clength' bytes long. The buffer position is
+     * not modified.
+     * */
+    public FileFormatWriter(ByteBuffer buf, ImageOutputStream stream,
+                            int height, int width, int nc,
+                            int[] bpc, int clength,
+                            ColorModel colorModel,
+                            SampleModel sampleModel,
+                            J2KMetadata metadata){
+        this((File)null,stream,height,width,nc,bpc,clength,colorModel,
+             sampleModel,metadata);
+        this.buf = buf;
+    }
+
     /**
      * This method reads the codestream and writes the file format wrapper and
      * the codestream to the same file
@@ -306,6 +329,25 @@ public class FileFormatWriter implements FileFormatBoxes {
             // Write contiguous codestream box name (TBox)
             stream.writeInt(CONTIGUOUS_CODESTREAM_BOX);
         }
+        if (buf != null) {
+            // Write codestream from memory
+            if (buf.hasArray()) {
+                stream.write(buf.array(), buf.arrayOffset()+buf.position(),
+                             clength);
+            } else {
+                byte[] codestream = new byte[1024];
+                ByteBuffer data = buf.duplicate();
+                int remainder = clength;
+                while(remainder >0) {
+                    int len = remainder > 1024 ? 1024 : remainder;
+                    data.get(codestream, 0, len);
+                    stream.write(codestream, 0, len);
+                    remainder -= len;
+                }
+            }
+            return;
+        }
+
             // Read and buffer the codestream
         BEBufferedRandomAccessFile fi =
             new BEBufferedRandomAccessFile(file,"rw+");
@@ -550,7 +550,7 @@ public class ForwCompTransf extends ImgDataAdapter
                         // Use int arithmetic with 12 fractional bits
                         // and rounding
                         outdata[k] =
-                            ( data0[k] + 2 * data1[k] + bdata[k]
+                            ( data0[k0] + 2 * data1[k1] + bdata[k2]
                               ) >> 2; // Same as / 4
                     }
                     // Jump to beggining of previous line in input
@@ -0,0 +1,145 @@
+/*
+ * #%L
+ * Fork of JAI Image I/O Tools.
+ * %%
+ * Copyright (C) 2008 - 2014 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package jj2000.j2k.io;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * An output stream which writes its data to a <tt>ByteBuffer</tt> in
+ * memory. When the buffer is full it is replaced by one twice as large, so
+ * any amount of data (up to 2 GB) can be written.
+ *
+ * <P>The data written so far is accessed through <tt>getByteBuffer()</tt>,
+ * without being copied.
+ * */
+public class ByteBufferOutputStream extends OutputStream {
+
+    /** The buffer, positioned after the last byte written */
+    private ByteBuffer buf;
+
+    /**
+     * Creates a new stream with the specified initial capacity.
+     *
+     * @param size The initial capacity, in bytes.
+     * */
+    public ByteBufferOutputStream(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Negative size: "+size);
+        }
+        buf = ByteBuffer.allocate(size);
+    }
+
+    /**
+     * Writes a byte to the buffer, growing it if necessary.
+     *
+     * @param b The byte to write. The upper 24 bits are ignored.
+     * */
+    public void write(int b) {
+        ensureCapacity(1);
+        buf.put((byte)b);
+    }
+
+    /**
+     * Writes 'len' bytes of 'b', starting at offset 'off', to the buffer,
+     * growing it if necessary.
+     *
+     * @param b The bytes to write.
+     *
+     * @param off The offset of the first byte to write in 'b'.
+     *
+     * @param len The number of bytes to write.
+     * */
+    public void write(byte b[], int off, int len) {
+        ensureCapacity(len);
+        buf.put(b,off,len);
+    }
+
+    /**
+     * Returns the number of bytes written to the stream.
+     *
+     * @return The number of bytes written.
+     * */
+    public int size() {
+        return buf.position();
+    }
+
+    /**
+     * Discards all the data written to the stream. The buffer is kept for
+     * the data written next.
+     * */
+    public void reset() {
+        buf.clear();
+    }
+
+    /**
+     * Returns a buffer holding the data written to the stream, from its
+     * position (0) to its limit (the number of bytes written). The data is
+     * not copied: it may be modified through the returned buffer, but
+     * writing more data to the stream may move it to a new buffer.
+     *
+     * @return The data written to the stream.
+     * */
+    public ByteBuffer getByteBuffer() {
+        ByteBuffer data = buf.duplicate();
+        data.flip();
+        return data;
+    }
+
+    /**
+     * Ensures that 'n' more bytes can be written to the buffer, replacing
+     * it by a larger one if needed.
+     *
+     * @param n The number of bytes to be written.
+     * */
+    private void ensureCapacity(int n) {
+        if (buf.remaining() >= n) {
+            return;
+        }
+        long cap = Math.max(2L*buf.capacity(),(long)buf.position()+n);
+        if (cap > Integer.MAX_VALUE) {
+            if ((long)buf.position()+n > Integer.MAX_VALUE) {
+                throw new OutOfMemoryError("Buffer larger than 2 GB");
+            }
+            cap = Integer.MAX_VALUE;
+        }
+        ByteBuffer nbuf = ByteBuffer.allocate((int)cap);
+        buf.flip();
+        nbuf.put(buf);
+        buf = nbuf;
+    }
+}
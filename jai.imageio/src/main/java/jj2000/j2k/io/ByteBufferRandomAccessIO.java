@@ -0,0 +1,263 @@
+/*
+ * #%L
+ * Fork of JAI Image I/O Tools.
+ * %%
+ * Copyright (C) 2008 - 2014 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package jj2000.j2k.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ReadOnlyBufferException;
+
+/**
+ * A <code>RandomAccessIO</code> over a <code>ByteBuffer</code> or a byte
+ * array, which may be a direct or memory-mapped buffer.  The data is
+ * accessed in place and is not copied; positions are relative to the start
+ * of the data.  Reading beyond the end throws an <code>EOFException</code>.
+ *
+ * <p>This class is not read-only: when the buffer is writable, the write
+ * methods overwrite the data in place, and when it is read-only they throw
+ * an <code>IOException</code>.  The length of the data never changes:
+ * writing beyond the end throws an <code>EOFException</code>.
+ */
+public final class ByteBufferRandomAccessIO implements RandomAccessIO {
+
+    /** The data, positioned at the current read position */
+    private final ByteBuffer buf;
+
+    /**
+     * Creates a <code>RandomAccessIO</code> over a byte array.
+     *
+     * @param data The data.
+     */
+    public ByteBufferRandomAccessIO(byte[] data) {
+        this(data, 0, data.length);
+    }
+
+    /**
+     * Creates a <code>RandomAccessIO</code> over part of a byte array.
+     *
+     * @param data The array holding the data.
+     * @param off The offset of the data in the array.
+     * @param len The length of the data.
+     */
+    public ByteBufferRandomAccessIO(byte[] data, int off, int len) {
+        this(ByteBuffer.wrap(data, off, len));
+    }
+
+    /**
+     * Creates a <code>RandomAccessIO</code> over the remaining bytes of a
+     * <code>ByteBuffer</code>, from its position to its limit.  The
+     * position, limit and byte order of <code>data</code> are not changed
+     * by this object.
+     *
+     * @param data The data.
+     */
+    public ByteBufferRandomAccessIO(ByteBuffer data) {
+        if (data == null) {
+            throw new IllegalArgumentException("data == null!");
+        }
+        buf = data.slice().order(ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * Returns a new <code>RandomAccessIO</code> over the same data,
+     * positioned at its start.  Both may be used concurrently.
+     */
+    public ByteBufferRandomAccessIO duplicate() {
+        ByteBuffer data = buf.duplicate();
+        data.position(0);
+        return new ByteBufferRandomAccessIO(data);
+    }
+
+    public void close() {
+        // Intentionally empty, the data is owned by the caller.
+    }
+
+    public int getPos() {
+        return buf.position();
+    }
+
+    public int length() {
+        return buf.limit();
+    }
+
+    public void seek(int off) throws IOException {
+        if (off < 0 || off > buf.limit()) {
+            throw new EOFException();
+        }
+        buf.position(off);
+    }
+
+    public int read() throws IOException {
+        if (!buf.hasRemaining()) {
+            throw new EOFException();
+        }
+        return buf.get() & 0xff;
+    }
+
+    public void readFully(byte b[], int off, int n) throws IOException {
+        if (n > buf.remaining()) {
+            throw new EOFException();
+        }
+        buf.get(b, off, n);
+    }
+
+    public int getByteOrdering() {
+        return EndianType.BIG_ENDIAN;
+    }
+
+    public byte readByte() throws IOException {
+        try {
+            return buf.get();
+        } catch (BufferUnderflowException e) {
+            throw new EOFException();
+        }
+    }
+
+    public int readUnsignedByte() throws IOException {
+        return read();
+    }
+
+    public short readShort() throws IOException {
+        try {
+            return buf.getShort();
+        } catch (BufferUnderflowException e) {
+            throw new EOFException();
+        }
+    }
+
+    public int readUnsignedShort() throws IOException {
+        return readShort() & 0xffff;
+    }
+
+    public int readInt() throws IOException {
+        try {
+            return buf.getInt();
+        } catch (BufferUnderflowException e) {
+            throw new EOFException();
+        }
+    }
+
+    public long readUnsignedInt() throws IOException {
+        return readInt() & 0xffffffffL;
+    }
+
+    public long readLong() throws IOException {
+        try {
+            return buf.getLong();
+        } catch (BufferUnderflowException e) {
+            throw new EOFException();
+        }
+    }
+
+    public float readFloat() throws IOException {
+        return Float.intBitsToFloat(readInt());
+    }
+
+    public double readDouble() throws IOException {
+        return Double.longBitsToDouble(readLong());
+    }
+
+    public int skipBytes(int n) throws IOException {
+        if (n > buf.remaining()) {
+            throw new EOFException();
+        }
+        buf.position(buf.position() + n);
+        return n;
+    }
+
+    /**
+     * A null operation as the data is written in place.
+     */
+    public void flush() {
+        // Intentionally empty.
+    }
+
+    public void write(int b) throws IOException {
+        writeByte(b);
+    }
+
+    public void writeByte(int v) throws IOException {
+        try {
+            buf.put((byte)v);
+        } catch (BufferOverflowException e) {
+            throw new EOFException();
+        } catch (ReadOnlyBufferException e) {
+            throw new IOException("Writing is not supported!");
+        }
+    }
+
+    public void writeShort(int v) throws IOException {
+        try {
+            buf.putShort((short)v);
+        } catch (BufferOverflowException e) {
+            throw new EOFException();
+        } catch (ReadOnlyBufferException e) {
+            throw new IOException("Writing is not supported!");
+        }
+    }
+
+    public void writeInt(int v) throws IOException {
+        try {
+            buf.putInt(v);
+        } catch (BufferOverflowException e) {
+            throw new EOFException();
+        } catch (ReadOnlyBufferException e) {
+            throw new IOException("Writing is not supported!");
+        }
+    }
+
+    public void writeLong(long v) throws IOException {
+        try {
+            buf.putLong(v);
+        } catch (BufferOverflowException e) {
+            throw new EOFException();
+        } catch (ReadOnlyBufferException e) {
+            throw new IOException("Writing is not supported!");
+        }
+    }
+
+    public void writeFloat(float v) throws IOException {
+        writeInt(Float.floatToIntBits(v));
+    }
+
+    public void writeDouble(double v) throws IOException {
+        writeLong(Double.doubleToLongBits(v));
+    }
+}
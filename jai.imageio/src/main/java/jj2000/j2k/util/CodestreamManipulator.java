@@ -84,10 +84,16 @@ import jj2000.j2k.io.*;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
+
 
 /**
  * This class takes a legal JPEG 2000 codestream and performs some
  * manipulation on it. Currently the manipulations supported are: Tile-parts
+ *
+ * <P>The codestream is either a file, which is rewritten, or a buffer in
+ * memory, in which case the new codestream is returned by
+ * 'getByteBuffer()'.
  * */
 public class CodestreamManipulator{
 
@@ -116,6 +122,9 @@ public class CodestreamManipulator{
     /** The name of the outfile */
     private File file;
 
+    /** The codestream, if it is in memory instead of in 'file' */
+    private ByteBuffer buf;
+
     /** The length of a SOT plus a SOD marker */
     private static int TP_HEAD_LEN = 14;
 
@@ -179,6 +188,46 @@ public class CodestreamManipulator{
         this.tempEph = tempEph;
     }
 
+    /**
+     * Instantiates a codestream manipulator for a codestream in memory.
+     *
+     * @param buf The codestream, from the buffer position to its limit. It
+     * must not be read-only, as it is modified in place before the new
+     * codestream is built.
+     *
+     * @param nt The number of tiles in the image
+     *
+     * @param pptp Packets per tile-part. If zero, no division into tileparts
+     * is performed
+     *
+     * @param ppm Flag indicating that PPM marker is used
+     *
+     * @param ppt Flag indicating that PPT marker is used
+     *
+     * @param tempSop Flag indicating whether SOP merker should be removed
+     *
+     * @param tempEph Flag indicating whether EPH merker should be removed
+     *
+     * @see #getByteBuffer
+     * */
+    public CodestreamManipulator(ByteBuffer buf, int nt, int pptp,
+                                 boolean ppm, boolean ppt, boolean tempSop,
+                                 boolean tempEph) {
+        this((File)null,nt,pptp,ppm,ppt,tempSop,tempEph);
+        this.buf = buf;
+    }
+
+    /**
+     * Returns the codestream in memory. After 'doCodestreamManipulation()'
+     * this is the new codestream, from the buffer position (0) to its
+     * limit.
+     *
+     * @return The codestream, or null if it is in a file.
+     * */
+    public ByteBuffer getByteBuffer() {
+        return buf;
+    }
+
     /**
      * This method performs the actual manipulation of the codestream which is
      * the reparsing for tile parts and packed packet headers
@@ -200,9 +249,10 @@ public class CodestreamManipulator{
         if( ppmUsed == false && pptUsed == false && pptp == 0)
             return 0;
 
-        // Open file for reading and writing
-        BEBufferedRandomAccessFile fi =
-            new BEBufferedRandomAccessFile(file, "rw+");
+        // Open file (or buffer) for reading and writing
+        RandomAccessIO fi = (file != null) ?
+            (RandomAccessIO)new BEBufferedRandomAccessFile(file, "rw+") :
+            new ByteBufferRandomAccessIO(buf);
         addedHeaderBytes -= fi.length();
 
         // Parse the codestream for SOT, SOP and EPH markers
@@ -211,20 +261,31 @@ public class CodestreamManipulator{
         // Read and buffer the tile headers, packet headers and packet data
         readAndBuffer(fi);
 
-        // Close file and overwrite with new file
+        // Close file and overwrite with new file (or buffer)
         fi.close();
-        fi = new  BEBufferedRandomAccessFile(file, "rw");
+        ByteBufferOutputStream bout = null;
+        DataOutputStream fo;
+        if (file != null) {
+            fo = new DataOutputStream(new BufferedOutputStream(
+                                          new FileOutputStream(file)));
+        } else {
+            bout = new ByteBufferOutputStream(buf.remaining()+1024);
+            fo = new DataOutputStream(bout);
+        }
 
         // Create tile-parts
         createTileParts();
 
         // Write new codestream
-        writeNewCodestream(fi);
+        writeNewCodestream(fo);
 
         // Close file
-        fi.flush();
-        addedHeaderBytes += fi.length();
-        fi.close();
+        fo.flush();
+        addedHeaderBytes += fo.size();
+        fo.close();
+        if (bout != null) {
+            buf = bout.getByteBuffer();
+        }
 
         return addedHeaderBytes;
     }
@@ -238,7 +299,7 @@ public class CodestreamManipulator{
      *
      * @exception java.io.IOException If an I/O error ocurred.
      * */
-    private void parseAndFind(BufferedRandomAccessFile fi) throws IOException{
+    private void parseAndFind(RandomAccessIO fi) throws IOException{
         int length,pos,i,t,sop=0,eph=0;
         short marker;
         int halfMarker;
@@ -342,7 +403,7 @@ public class CodestreamManipulator{
      *
      * @exception java.io.IOException If an I/O error ocurred.
      * */
-    private void readAndBuffer(BufferedRandomAccessFile fi)throws IOException{
+    private void readAndBuffer(RandomAccessIO fi)throws IOException{
         int p,prem,length,t,markIndex;
 
         // Buffer main header
@@ -563,7 +624,7 @@ public class CodestreamManipulator{
      *
      * @exception java.io.IOException If an I/O error ocurred.
      * */
-    private void writeNewCodestream(BufferedRandomAccessFile fi)
+    private void writeNewCodestream(DataOutput fi)
         throws IOException{
         int i,t,p,tp;
         int numTiles = tileParts.length;
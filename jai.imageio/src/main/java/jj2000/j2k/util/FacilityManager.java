@@ -85,6 +85,7 @@
 package jj2000.j2k.util;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.io.*;
 
 /**
@@ -111,15 +112,16 @@ import java.io.*;
  * */
 public class FacilityManager {
 
-    /** The loggers associated to different threads */
-    private final static Hashtable loggerList = new Hashtable();
+    /** The loggers associated to different threads. Looked up by every
+     * decoding thread, hence a map that does not lock on reads. */
+    private final static Map loggerList = new ConcurrentHashMap();
 
     /** The default logger, for threads that have none associated with them */
     private static MsgLogger defMsgLogger =
         new StreamMsgLogger(System.out,System.err,78);
 
     /** The ProgressWatch instance associated to different threads */
-    private final static Hashtable watchProgList = new Hashtable();
+    private final static Map watchProgList = new ConcurrentHashMap();
 
     /** The default ProgressWatch for threads that have none
      * associated with them. */
@@ -0,0 +1,96 @@
+/*
+ * #%L
+ * Fork of JAI Image I/O Tools.
+ * %%
+ * Copyright (C) 2008 - 2014 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package jj2000.j2k.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * This class holds the fork-join pools on which the entropy coders and
+ * decoders process code-blocks in parallel, when they are not given an
+ * executor. There is one pool per number of threads, created on first use
+ * and shared by all the coders and decoders which use that number of
+ * threads.
+ * */
+public class ForkJoinPools {
+
+    /** The shared pools, by number of threads */
+    private static final Map<Integer,ForkJoinPool> pools =
+        new HashMap<Integer,ForkJoinPool>();
+
+    /** No instances */
+    private ForkJoinPools() {
+    }
+
+    /**
+     * Returns the fork-join pool with the specified number of threads,
+     * creating it on first use.
+     *
+     * @param nt The number of threads, which must be positive.
+     *
+     * @return The fork-join pool.
+     * */
+    public static ForkJoinPool getPool(int nt) {
+        Integer key = Integer.valueOf(nt);
+        synchronized (pools) {
+            ForkJoinPool pool = pools.get(key);
+            if (pool == null) {
+                pool = new ForkJoinPool(nt);
+                pools.put(key,pool);
+            }
+            return pool;
+        }
+    }
+
+    /**
+     * Returns the number of tasks which the specified executor may run in
+     * parallel: the parallelism of a fork-join pool, or else the number of
+     * processors available to the JVM.
+     *
+     * @param exec The executor.
+     *
+     * @return The number of tasks to run in parallel, at least 1.
+     * */
+    public static int getParallelism(Executor exec) {
+        if (exec instanceof ForkJoinPool) {
+            return ((ForkJoinPool)exec).getParallelism();
+        }
+        return Runtime.getRuntime().availableProcessors();
+    }
+}
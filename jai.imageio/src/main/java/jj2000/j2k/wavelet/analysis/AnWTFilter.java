@@ -333,6 +333,56 @@ public abstract class AnWTFilter implements WaveletFilter{
                      Object lowSig, int lowOff, int lowStep,
                      Object highSig, int highOff, int highStep);
 
+    /**
+     * Filters 'width' signals at once, sample k of signal j being at index
+     * off+j+k*step of each array, as analyze_lpf() would filter each of
+     * them. This is typically used to filter adjacent columns of an image
+     * together. This implementation filters the signals one by one,
+     * subclasses override it with kernels that filter the signals in the
+     * same loops.
+     *
+     * @param width The number of signals. It must not be greater than any
+     * of the steps.
+     *
+     * @see #analyze_lpf
+     * */
+    public
+        void analyze_lpf_cols(Object inSig, int inOff, int inLen, int inStep,
+                        Object lowSig, int lowOff, int lowStep,
+                        Object highSig, int highOff, int highStep,
+                        int width) {
+        for(int j=0; j<width; j++) {
+            analyze_lpf(inSig, inOff+j, inLen, inStep,
+                        lowSig, lowOff+j, lowStep,
+                        highSig, highOff+j, highStep);
+        }
+    }
+
+    /**
+     * Filters 'width' signals at once, sample k of signal j being at index
+     * off+j+k*step of each array, as analyze_hpf() would filter each of
+     * them. This is typically used to filter adjacent columns of an image
+     * together. This implementation filters the signals one by one,
+     * subclasses override it with kernels that filter the signals in the
+     * same loops.
+     *
+     * @param width The number of signals. It must not be greater than any
+     * of the steps.
+     *
+     * @see #analyze_hpf
+     * */
+    public
+        void analyze_hpf_cols(Object inSig, int inOff, int inLen, int inStep,
+                        Object lowSig, int lowOff, int lowStep,
+                        Object highSig, int highOff, int highStep,
+                        int width) {
+        for(int j=0; j<width; j++) {
+            analyze_hpf(inSig, inOff+j, inLen, inStep,
+                        lowSig, lowOff+j, lowStep,
+                        highSig, highOff+j, highStep);
+        }
+    }
+
     /**
      * Returns the time-reversed low-pass synthesis waveform of the
      * filter, which is the low-pass filter. This is the time-reversed
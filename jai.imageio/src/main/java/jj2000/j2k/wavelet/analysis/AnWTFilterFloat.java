@@ -293,6 +293,76 @@ public abstract class AnWTFilterFloat extends AnWTFilter {
             (float[])highSig, highOff, highStep);
     }
 
+    /**
+     * A specific version of the analyze_lpf_cols() method that works on
+     * float data. This implementation calls analyze_lpf() for each signal.
+     *
+     * @see AnWTFilter#analyze_lpf_cols
+     * */
+    public
+        void analyze_lpf_cols(float[] inSig, int inOff, int inLen, int inStep,
+                        float[] lowSig, int lowOff, int lowStep,
+                        float[] highSig, int highOff, int highStep,
+                        int width) {
+        for(int j=0; j<width; j++) {
+            analyze_lpf(inSig, inOff+j, inLen, inStep,
+                        lowSig, lowOff+j, lowStep,
+                        highSig, highOff+j, highStep);
+        }
+    }
+
+    /**
+     * The general version of the analyze_lpf_cols() method, it just casts
+     * the arrays once and calls the specialized version.
+     *
+     * @see AnWTFilter#analyze_lpf_cols
+     * */
+    public
+        void analyze_lpf_cols(Object inSig, int inOff, int inLen, int inStep,
+                        Object lowSig, int lowOff, int lowStep,
+                        Object highSig, int highOff, int highStep,
+                        int width) {
+        analyze_lpf_cols((float[])inSig, inOff, inLen, inStep,
+                         (float[])lowSig, lowOff, lowStep,
+                         (float[])highSig, highOff, highStep,
+                         width);
+    }
+
+    /**
+     * A specific version of the analyze_hpf_cols() method that works on
+     * float data. This implementation calls analyze_hpf() for each signal.
+     *
+     * @see AnWTFilter#analyze_hpf_cols
+     * */
+    public
+        void analyze_hpf_cols(float[] inSig, int inOff, int inLen, int inStep,
+                        float[] lowSig, int lowOff, int lowStep,
+                        float[] highSig, int highOff, int highStep,
+                        int width) {
+        for(int j=0; j<width; j++) {
+            analyze_hpf(inSig, inOff+j, inLen, inStep,
+                        lowSig, lowOff+j, lowStep,
+                        highSig, highOff+j, highStep);
+        }
+    }
+
+    /**
+     * The general version of the analyze_hpf_cols() method, it just casts
+     * the arrays once and calls the specialized version.
+     *
+     * @see AnWTFilter#analyze_hpf_cols
+     * */
+    public
+        void analyze_hpf_cols(Object inSig, int inOff, int inLen, int inStep,
+                        Object lowSig, int lowOff, int lowStep,
+                        Object highSig, int highOff, int highStep,
+                        int width) {
+        analyze_hpf_cols((float[])inSig, inOff, inLen, inStep,
+                         (float[])lowSig, lowOff, lowStep,
+                         (float[])highSig, highOff, highStep,
+                         width);
+    }
+
     /**
      * Returns the type of data on which this filter works, as defined
      * in the DataBlk interface, which is always TYPE_FLOAT for this
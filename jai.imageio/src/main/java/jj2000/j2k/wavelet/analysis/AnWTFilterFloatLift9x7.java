@@ -486,6 +486,349 @@ public class AnWTFilterFloatLift9x7 extends AnWTFilterFloat {
         }
     }
 
+    /**
+     * A version of the analyze_lpf() method which filters 'width' signals
+     * at once, sample k of signal j being at index off+j+k*step of each
+     * array. Each lifting step is applied to all the signals before the
+     * next one, so the innermost loops run over contiguous elements, which
+     * the compiler can vectorize. The result is the same as filtering each
+     * signal with analyze_lpf().
+     *
+     * @param width The number of signals. It must not be greater than any
+     * of the steps.
+     *
+     * @see AnWTFilter#analyze_lpf_cols
+     * */
+    public
+        void analyze_lpf_cols(float inSig[], int inOff, int inLen, int inStep,
+                     float lowSig[], int lowOff, int lowStep,
+                     float highSig[], int highOff, int highStep, int width) {
+        int i,maxi,j;
+        int iStep = 2 * inStep; //Subsampling in inSig
+        int ik;    //Indexing inSig
+        int lk;    //Indexing lowSig
+        int hk;    //Indexing highSig
+
+        // Generate intermediate high frequency subband
+
+        //Initialize counters
+        ik = inOff + inStep;
+        lk = lowOff;
+        hk = highOff;
+
+        //Apply first lifting step to each "inner" sample
+        for( i = 1, maxi = inLen-1; i < maxi; i += 2 ) {
+            for(j=0; j<width; j++) {
+                highSig[hk+j] = inSig[ik+j] +
+                    ALPHA*(inSig[ik-inStep+j] + inSig[ik+inStep+j]);
+            }
+
+            ik += iStep;
+            hk += highStep;
+        }
+
+        //Handle head boundary effect if input signal has even length
+        if(inLen % 2 == 0) {
+           for(j=0; j<width; j++) {
+               highSig[hk+j] = inSig[ik+j] + 2*ALPHA*inSig[ik-inStep+j];
+           }
+        }
+
+        // Generate intermediate low frequency subband
+
+        //Initialize counters
+        ik = inOff;
+        lk = lowOff;
+        hk = highOff;
+
+        if(inLen>1) {
+            for(j=0; j<width; j++) {
+                lowSig[lk+j] = inSig[ik+j] + 2*BETA*highSig[hk+j];
+            }
+        }
+        else {
+            for(j=0; j<width; j++) {
+                lowSig[lk+j] = inSig[ik+j];
+            }
+        }
+
+        ik += iStep;
+        lk += lowStep;
+        hk += highStep;
+
+        //Apply lifting step to each "inner" sample
+        for( i = 2, maxi = inLen-1; i < maxi; i += 2 ) {
+            for(j=0; j<width; j++) {
+                lowSig[lk+j] = inSig[ik+j] +
+                    BETA*(highSig[hk-highStep+j] + highSig[hk+j]);
+            }
+
+            ik += iStep;
+            lk += lowStep;
+            hk += highStep;
+        }
+
+        //Handle head boundary effect if input signal has odd length
+        if((inLen % 2 == 1)&&(inLen>2)) {
+            for(j=0; j<width; j++) {
+                lowSig[lk+j] =  inSig[ik+j] + 2*BETA*highSig[hk-highStep+j];
+            }
+        }
+
+        // Generate high frequency subband
+
+        //Initialize counters
+        lk = lowOff;
+        hk = highOff;
+
+        //Apply first lifting step to each "inner" sample
+        for(i = 1, maxi = inLen-1; i < maxi; i += 2)  {
+            for(j=0; j<width; j++) {
+                highSig[hk+j] += GAMMA*(lowSig[lk+j] + lowSig[lk+lowStep+j]);
+            }
+
+            lk += lowStep;
+            hk += highStep;
+        }
+
+        //Handle head boundary effect if input signal has even length
+        if(inLen % 2 == 0) {
+            for(j=0; j<width; j++) {
+                highSig[hk+j] += 2*GAMMA*lowSig[lk+j];
+            }
+        }
+
+        // Generate low frequency subband
+
+        //Initialize counters
+        lk = lowOff;
+        hk = highOff;
+
+        //Handle tail boundary effect
+        //If access the overlap then perform the lifting step
+        if(inLen>1){
+            for(j=0; j<width; j++) {
+                lowSig[lk+j] += 2*DELTA*highSig[hk+j];
+            }
+        }
+
+        lk += lowStep;
+        hk += highStep;
+
+        //Apply lifting step to each "inner" sample
+        for(i = 2, maxi = inLen-1; i < maxi; i += 2) {
+            for(j=0; j<width; j++) {
+                lowSig[lk+j] +=
+                    DELTA*(highSig[hk - highStep+j] + highSig[hk+j]);
+            }
+
+            lk += lowStep;
+            hk += highStep;
+        }
+
+        //Handle head boundary effect if input signal has odd length
+        if((inLen % 2 == 1)&&(inLen>2)) {
+            for(j=0; j<width; j++) {
+                lowSig[lk+j] +=  2*DELTA*highSig[hk-highStep+j];
+            }
+        }
+
+        // Normalize low and high frequency subbands
+
+        //Re-initialize counters
+        lk = lowOff;
+        hk = highOff;
+
+        //Normalize each sample
+        for( i=0 ; i<(inLen>>1); i++ ) {
+            for(j=0; j<width; j++) {
+                lowSig[lk+j] *= KL;
+            }
+            for(j=0; j<width; j++) {
+                highSig[hk+j] *= KH;
+            }
+            lk += lowStep;
+            hk += highStep;
+        }
+        //If the input signal has odd length then normalize the last low-pass
+        //coefficient (if input signal is length one filter is identity)
+        if( inLen%2==1 && inLen != 1) {
+            for(j=0; j<width; j++) {
+                lowSig[lk+j] *= KL;
+            }
+        }
+    }
+
+    /**
+     * A version of the analyze_hpf() method which filters 'width' signals
+     * at once, sample k of signal j being at index off+j+k*step of each
+     * array. Each lifting step is applied to all the signals before the
+     * next one, so the innermost loops run over contiguous elements, which
+     * the compiler can vectorize. The result is the same as filtering each
+     * signal with analyze_hpf().
+     *
+     * @param width The number of signals. It must not be greater than any
+     * of the steps.
+     *
+     * @see AnWTFilter#analyze_hpf_cols
+     * */
+    public void analyze_hpf_cols(float inSig[], int inOff, int inLen, int inStep,
+                    float lowSig[], int lowOff, int lowStep,
+                    float highSig[], int highOff, int highStep, int width) {
+
+        int i,maxi,j;
+        int iStep = 2 * inStep; //Subsampling in inSig
+        int ik;    //Indexing inSig
+        int lk;    //Indexing lowSig
+        int hk;    //Indexing highSig
+
+        // Generate intermediate high frequency subband
+
+        //Initialize counters
+        ik = inOff;
+        lk = lowOff;
+        hk = highOff;
+
+        if ( inLen>1 ) {
+            // apply symmetric extension.
+            for(j=0; j<width; j++) {
+                highSig[hk+j] = inSig[ik+j] + 2*ALPHA*inSig[ik+inStep+j];
+            }
+        }
+        else {
+	    // Normalize for Nyquist gain
+            for(j=0; j<width; j++) {
+                highSig[hk+j] = inSig[ik+j]*2;
+            }
+        }
+
+        ik += iStep;
+        hk += highStep;
+
+        //Apply first lifting step to each "inner" sample
+        for( i = 2 ; i < inLen-1 ; i += 2 ) {
+            for(j=0; j<width; j++) {
+                highSig[hk+j] = inSig[ik+j] +
+                    ALPHA*(inSig[ik-inStep+j] + inSig[ik+inStep+j]);
+            }
+            ik += iStep;
+            hk += highStep;
+        }
+
+        //If input signal has odd length then we perform the lifting step
+        // i.e. apply a symmetric extension.
+        if( (inLen%2==1) && (inLen>1) ) {
+            for(j=0; j<width; j++) {
+                highSig[hk+j] = inSig[ik+j] + 2*ALPHA*inSig[ik-inStep+j];
+            }
+        }
+
+        // Generate intermediate low frequency subband
+
+        //Initialize counters
+        //ik = inOff + inStep;
+        ik = inOff + inStep;
+        lk = lowOff;
+        hk = highOff;
+
+        //Apply lifting step to each "inner" sample
+        // we are at the component boundary
+        for(i = 1; i < inLen-1; i += 2) {
+            for(j=0; j<width; j++) {
+                lowSig[lk+j] = inSig[ik+j] +
+                    BETA*(highSig[hk+j] + highSig[hk+highStep+j]);
+            }
+
+            ik += iStep;
+            lk += lowStep;
+            hk += highStep;
+        }
+        if ( inLen>1 && inLen%2==0 ) {
+            // symetric extension
+            for(j=0; j<width; j++) {
+                lowSig[lk+j] = inSig[ik+j]+2*BETA*highSig[hk+j];
+            }
+        }
+
+        // Generate high frequency subband
+
+        //Initialize counters
+        lk = lowOff;
+        hk = highOff;
+
+        if ( inLen>1 ) {
+            // symmetric extension.
+            for(j=0; j<width; j++) {
+                highSig[hk+j] += GAMMA*2*lowSig[lk+j];
+            }
+        }
+        //lk += lowStep;
+        hk += highStep;
+
+        //Apply first lifting step to each "inner" sample
+        for(i = 2 ; i < inLen-1 ; i += 2)  {
+            for(j=0; j<width; j++) {
+                highSig[hk+j] += GAMMA*(lowSig[lk+j] + lowSig[lk+lowStep+j]);
+            }
+            lk += lowStep;
+            hk += highStep;
+        }
+
+        //Handle head boundary effect
+        if ( inLen>1 && inLen%2==1 ) {
+            // symmetric extension.
+            for(j=0; j<width; j++) {
+                highSig[hk+j] += GAMMA*2*lowSig[lk+j];
+            }
+        }
+
+        // Generate low frequency subband
+
+        //Initialize counters
+        lk = lowOff;
+        hk = highOff;
+
+        // we are at the component boundary
+        for(i = 1 ; i < inLen-1; i += 2) {
+            for(j=0; j<width; j++) {
+                lowSig[lk+j] += DELTA*(highSig[hk+j] + highSig[hk+highStep+j]);
+            }
+            lk += lowStep;
+            hk += highStep;
+        }
+
+        if ( inLen>1 && inLen%2==0 ) {
+            for(j=0; j<width; j++) {
+                lowSig[lk+j] += DELTA*2*highSig[hk+j];
+            }
+        }
+
+        // Normalize low and high frequency subbands
+
+        //Re-initialize counters
+        lk = lowOff;
+        hk = highOff;
+
+        //Normalize each sample
+        for( i=0 ; i<(inLen>>1); i++ ) {
+            for(j=0; j<width; j++) {
+                lowSig[lk+j] *= KL;
+            }
+            for(j=0; j<width; j++) {
+                highSig[hk+j] *= KH;
+            }
+            lk += lowStep;
+            hk += highStep;
+        }
+        //If the input signal has odd length then normalize the last high-pass
+        //coefficient (if input signal is length one filter is identity)
+        if( inLen%2==1 && inLen != 1) {
+            for(j=0; j<width; j++) {
+                highSig[hk+j] *= KH;
+            }
+        }
+    }
+
     /**
      * Returns the negative support of the low-pass analysis
      * filter. That is the number of taps of the filter in the
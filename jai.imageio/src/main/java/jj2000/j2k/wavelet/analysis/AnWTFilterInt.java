@@ -296,6 +296,76 @@ public abstract class AnWTFilterInt extends AnWTFilter {
                 (int[])lowSig, lowOff, lowStep,
                 (int[])highSig, highOff, highStep);
     }
+
+    /**
+     * A specific version of the analyze_lpf_cols() method that works on
+     * int data. This implementation calls analyze_lpf() for each signal.
+     *
+     * @see AnWTFilter#analyze_lpf_cols
+     * */
+    public
+        void analyze_lpf_cols(int[] inSig, int inOff, int inLen, int inStep,
+                        int[] lowSig, int lowOff, int lowStep,
+                        int[] highSig, int highOff, int highStep,
+                        int width) {
+        for(int j=0; j<width; j++) {
+            analyze_lpf(inSig, inOff+j, inLen, inStep,
+                        lowSig, lowOff+j, lowStep,
+                        highSig, highOff+j, highStep);
+        }
+    }
+
+    /**
+     * The general version of the analyze_lpf_cols() method, it just casts
+     * the arrays once and calls the specialized version.
+     *
+     * @see AnWTFilter#analyze_lpf_cols
+     * */
+    public
+        void analyze_lpf_cols(Object inSig, int inOff, int inLen, int inStep,
+                        Object lowSig, int lowOff, int lowStep,
+                        Object highSig, int highOff, int highStep,
+                        int width) {
+        analyze_lpf_cols((int[])inSig, inOff, inLen, inStep,
+                         (int[])lowSig, lowOff, lowStep,
+                         (int[])highSig, highOff, highStep,
+                         width);
+    }
+
+    /**
+     * A specific version of the analyze_hpf_cols() method that works on
+     * int data. This implementation calls analyze_hpf() for each signal.
+     *
+     * @see AnWTFilter#analyze_hpf_cols
+     * */
+    public
+        void analyze_hpf_cols(int[] inSig, int inOff, int inLen, int inStep,
+                        int[] lowSig, int lowOff, int lowStep,
+                        int[] highSig, int highOff, int highStep,
+                        int width) {
+        for(int j=0; j<width; j++) {
+            analyze_hpf(inSig, inOff+j, inLen, inStep,
+                        lowSig, lowOff+j, lowStep,
+                        highSig, highOff+j, highStep);
+        }
+    }
+
+    /**
+     * The general version of the analyze_hpf_cols() method, it just casts
+     * the arrays once and calls the specialized version.
+     *
+     * @see AnWTFilter#analyze_hpf_cols
+     * */
+    public
+        void analyze_hpf_cols(Object inSig, int inOff, int inLen, int inStep,
+                        Object lowSig, int lowOff, int lowStep,
+                        Object highSig, int highOff, int highStep,
+                        int width) {
+        analyze_hpf_cols((int[])inSig, inOff, inLen, inStep,
+                         (int[])lowSig, lowOff, lowStep,
+                         (int[])highSig, highOff, highStep,
+                         width);
+    }
     /**
      * Returns the type of data on which this filter works, as defined
      * in the DataBlk interface, which is always TYPE_INT for this
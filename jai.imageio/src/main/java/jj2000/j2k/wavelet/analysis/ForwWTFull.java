@@ -97,6 +97,13 @@ import com.sun.media.imageioimpl.plugins.jpeg2000.J2KImageWriteParamJava;
  * */
 public class ForwWTFull extends ForwardWT {
 
+    /**
+     * The number of columns filtered together in the vertical analysis
+     * pass. The strip is gathered with one copy per line and its columns
+     * are filtered in the same loops.
+     * */
+    private static final int STRIP_WIDTH = 8;
+
     /** Boolean to know if one are currently dealing with int or float
         data. */
     private boolean intData;
@@ -808,33 +815,33 @@ public class ForwWTFull extends ForwardWT {
         if ( intData ) {
             //Perform the decompositions if the filter is implemented with an
             //integer arithmetic.
-            int i, j;
+            int i, j, sw;
             int offset;
-            int[] tmpVector = new int[java.lang.Math.max(w,h)];
+            int[] tmpVector =
+                new int[java.lang.Math.max(w,h*STRIP_WIDTH)];
 
             int[] data = ((DataBlkInt)band).getDataInt();
 
-            //Perform the vertical decomposition
-            if (subband.ulcy%2==0) { // Even start index => use LPF
-                for(j=0; j<w; j++) {
-                    offset = uly*band_w + ulx+j;
-                    for(i=0; i<h; i++)
-                        tmpVector[i] = data[offset+(i*band_w)];
-                    subband.vFilter.analyze_lpf(tmpVector, 0, h, 1,
+            //Perform the vertical decomposition, STRIP_WIDTH columns at a
+            //time. The lines of the strip are copied to tmpVector, where
+            //the columns are interleaved, and the columns are filtered
+            //together.
+            for(j=0; j<w; j+=sw) {
+                sw = (w-j<STRIP_WIDTH) ? w-j : STRIP_WIDTH;
+                offset = uly*band_w + ulx+j;
+                for(i=0; i<h; i++)
+                    System.arraycopy(data,offset+i*band_w,tmpVector,i*sw,sw);
+                if (subband.ulcy%2==0) { // Even start index => use LPF
+                    subband.vFilter.analyze_lpf_cols(tmpVector, 0, h, sw,
                                              data, offset, band_w,
                                              data, offset+((h+1)/2)*band_w,
-                                             band_w);
+                                             band_w, sw);
                 }
-            }
-            else { // Odd start index => use HPF
-                for(j=0; j<w; j++) {
-                    offset = uly*band_w + ulx+j;
-                    for(i=0; i<h; i++)
-                        tmpVector[i] = data[offset+(i*band_w)];
-                    subband.vFilter.analyze_hpf(tmpVector, 0, h, 1,
+                else { // Odd start index => use HPF
+                    subband.vFilter.analyze_hpf_cols(tmpVector, 0, h, sw,
                                              data, offset, band_w,
                                              data, offset+(h/2)*band_w,
-                                             band_w);
+                                             band_w, sw);
                 }
             }
 
@@ -863,34 +870,35 @@ public class ForwWTFull extends ForwardWT {
         else {
             //Perform the decompositions if the filter is implemented with a
             //float arithmetic.
-            int i, j;
+            int i, j, sw;
             int offset;
-            float[] tmpVector = new float[java.lang.Math.max(w,h)];
+            float[] tmpVector =
+                new float[java.lang.Math.max(w,h*STRIP_WIDTH)];
             float[]data = ((DataBlkFloat)band).getDataFloat();
 
-            //Perform the vertical decomposition.
-            if (subband.ulcy%2==0) { // Even start index => use LPF
-                for(j=0; j<w; j++) {
-                    offset = uly*band_w + ulx+j;
-                    for(i=0; i<h; i++)
-                        tmpVector[i] = data[offset+(i*band_w)];
-                    subband.vFilter.analyze_lpf(tmpVector, 0, h, 1,
+            //Perform the vertical decomposition, STRIP_WIDTH columns at a
+            //time. The lines of the strip are copied to tmpVector, where
+            //the columns are interleaved, and the columns are filtered
+            //together.
+            for(j=0; j<w; j+=sw) {
+                sw = (w-j<STRIP_WIDTH) ? w-j : STRIP_WIDTH;
+                offset = uly*band_w + ulx+j;
+                for(i=0; i<h; i++)
+                    System.arraycopy(data,offset+i*band_w,tmpVector,i*sw,sw);
+                if (subband.ulcy%2==0) { // Even start index => use LPF
+                    subband.vFilter.analyze_lpf_cols(tmpVector, 0, h, sw,
                                              data, offset, band_w,
                                              data, offset+((h+1)/2)*band_w,
-                                             band_w);
+                                             band_w, sw);
                 }
-            }
-            else { // Odd start index => use HPF
-                for(j=0; j<w; j++) {
-                    offset = uly*band_w + ulx+j;
-                    for(i=0; i<h; i++)
-                        tmpVector[i] = data[offset+(i*band_w)];
-                    subband.vFilter.analyze_hpf(tmpVector, 0, h, 1,
+                else { // Odd start index => use HPF
+                    subband.vFilter.analyze_hpf_cols(tmpVector, 0, h, sw,
                                              data, offset, band_w,
                                              data, offset+(h/2)*band_w,
-                                             band_w);
+                                             band_w, sw);
                 }
             }
+
             //Perform the horizontal decomposition.
             if (subband.ulcx%2==0) { // Even start index => use LPF
                 for(i=0; i<h; i++) {
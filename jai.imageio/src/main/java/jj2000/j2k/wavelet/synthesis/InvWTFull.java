@@ -82,6 +82,7 @@
  * */
 package jj2000.j2k.wavelet.synthesis;
 import java.awt.Point;
+import java.lang.reflect.Array;
 
 import jj2000.j2k.wavelet.*;
 import jj2000.j2k.decoder.*;
@@ -115,6 +116,25 @@ import jj2000.j2k.util.*;
  * */
 public class InvWTFull extends InverseWT {
 
+    /**
+     * The number of columns processed together in the vertical synthesis
+     * pass. Copying whole line segments of the strip keeps memory accesses
+     * contiguous instead of gathering each column element by element.
+     * */
+    private static final int STRIP_WIDTH = 8;
+
+    /**
+     * Per-thread scratch buffers used by the 1D synthesis steps, the first
+     * element is the int[] buffer and the second the float[] one. They are
+     * grown as needed and never shrunk.
+     * */
+    private static final ThreadLocal<Object[]> scratch =
+        new ThreadLocal<Object[]>() {
+            protected Object[] initialValue() {
+                return new Object[2];
+            }
+        };
+
     /** Reference to the ProgressWatch instance if any */
     private ProgressWatch pw = null;
 
@@ -135,6 +155,13 @@ public class InvWTFull extends InverseWT {
      */
     private DataBlk reconstructedComps[];
 
+    /**
+     * Buffers of previously reconstructed tile-components, reused for the
+     * following ones instead of allocating new buffers. The index is the
+     * component index.
+     */
+    private DataBlk spareComps[];
+
     /** Number of decomposition levels in each component */
     private int[] ndl;
 
@@ -162,6 +189,7 @@ public class InvWTFull extends InverseWT {
 
         int nc = src.getNumComps();
         reconstructedComps = new DataBlk[nc];
+        spareComps = new DataBlk[nc];
         ndl = new int[nc];
         pw = FacilityManager.getProgressWatch();
     }
@@ -302,18 +330,28 @@ public class InvWTFull extends InverseWT {
 
         //If the source image has not been decomposed 
         if(reconstructedComps[c]==null) {
-            //Allocate component data buffer
-            switch (dtype) {
-            case DataBlk.TYPE_FLOAT:
-                reconstructedComps[c] =
-                    new DataBlkFloat(0,0,getTileCompWidth(tIdx,c),
-                                     getTileCompHeight(tIdx,c));
-                break;
-            case DataBlk.TYPE_INT:
-                reconstructedComps[c] =
-                    new DataBlkInt(0,0,getTileCompWidth(tIdx,c),
-                                   getTileCompHeight(tIdx,c));
-                break;
+            //Allocate component data buffer, or reuse a spare one. Its
+            //contents need not be cleared since the reconstruction writes
+            //every sample.
+            int w = getTileCompWidth(tIdx,c);
+            int h = getTileCompHeight(tIdx,c);
+            DataBlk spare = spareComps[c];
+            spareComps[c] = null;
+            if (spare!=null && spare.getDataType()==dtype &&
+                Array.getLength(spare.getData())>=w*h) {
+                spare.ulx = spare.uly = spare.offset = 0;
+                spare.w = spare.scanw = w;
+                spare.h = h;
+                reconstructedComps[c] = spare;
+            } else {
+                switch (dtype) {
+                case DataBlk.TYPE_FLOAT:
+                    reconstructedComps[c] = new DataBlkFloat(0,0,w,h);
+                    break;
+                case DataBlk.TYPE_INT:
+                    reconstructedComps[c] = new DataBlkInt(0,0,w,h);
+                    break;
+                }
             }
             //Reconstruct source image
             waveletTreeReconstruction(reconstructedComps[c],
@@ -409,6 +447,38 @@ public class InvWTFull extends InverseWT {
 	return blk;
     }
 
+    /**
+     * Gives up the component buffers of this object, which must not be used
+     * afterwards, so that they can be reused by another instance through
+     * <tt>reuseBuffers()</tt>.
+     *
+     * @return The component buffers, some of which may be null.
+     * */
+    public DataBlk[] releaseBuffers() {
+        DataBlk[] bufs = new DataBlk[spareComps.length];
+        for (int c=0; c<bufs.length; c++) {
+            bufs[c] = (reconstructedComps[c]!=null) ?
+                reconstructedComps[c] : spareComps[c];
+            reconstructedComps[c] = spareComps[c] = null;
+        }
+        return bufs;
+    }
+
+    /**
+     * Takes over component buffers released by another instance. They are
+     * then reused, when large enough, for the tile-components reconstructed
+     * by this object. This avoids allocating new buffers when many images
+     * are decoded one after the other.
+     *
+     * @param bufs The buffers returned by <tt>releaseBuffers()</tt>.
+     * */
+    public void reuseBuffers(DataBlk[] bufs) {
+        int nc = Math.min(spareComps.length, bufs.length);
+        for (int c=0; c<nc; c++) {
+            spareComps[c] = bufs[c];
+        }
+    }
+
     /**
      * Performs the 2D inverse wavelet transform on a subband of the image, on
      * the specified component. This method will successively perform 1D
@@ -424,7 +494,7 @@ public class InvWTFull extends InverseWT {
         Object data;
         Object buf;
         int ulx, uly, w, h;
-        int i,j,k;
+        int i,j,sw;
         int offset;
 
         // If subband is empty (i.e. zero size) nothing to do
@@ -439,16 +509,10 @@ public class InvWTFull extends InverseWT {
         w = sb.w;
         h = sb.h;
 
-        buf = null;  // To keep compiler happy
-
-        switch (sb.getHorWFilter().getDataType()) {
-        case DataBlk.TYPE_INT:
-            buf = new int[(w>=h) ? w : h];
-            break;
-        case DataBlk.TYPE_FLOAT:
-            buf = new float[(w>=h) ? w : h];
-            break;
-        }
+        // The scratch buffer holds one line for the horizontal pass and a
+        // strip of STRIP_WIDTH interleaved columns for the vertical one.
+        buf = getScratchBuffer(sb.getHorWFilter().getDataType(),
+                               (w>=h*STRIP_WIDTH) ? w : h*STRIP_WIDTH);
 
         //Perform the horizontal reconstruction
         offset = (uly-db.uly)*db.w + ulx-db.ulx;
@@ -466,49 +530,56 @@ public class InvWTFull extends InverseWT {
             }
         }
 
-        //Perform the vertical reconstruction 
+        //Perform the vertical reconstruction, STRIP_WIDTH columns at a
+        //time. Each line of the strip is copied with a single arraycopy so
+        //that the buffer holds the columns interleaved, and all the columns
+        //of the strip are then filtered together, line by line.
         offset = (uly-db.uly)*db.w+ulx-db.ulx;
-        switch (sb.getVerWFilter().getDataType()) {
-        case DataBlk.TYPE_INT:
-            int data_int[], buf_int[];
-            data_int = (int[]) data;
-            buf_int = (int[]) buf;
+        for(j=0; j<w; j+=sw, offset+=sw) {
+            sw = (w-j<STRIP_WIDTH) ? w-j : STRIP_WIDTH;
+            for(i=0; i<h; i++) {
+                System.arraycopy(data,offset+i*db.w,buf,i*sw,sw);
+            }
             if (sb.ulcy%2==0) { // start index is even => use LPF
-                for(j=0; j<w; j++, offset++) {
-                    for(i=h-1, k=offset+i*db.w; i>=0; i--, k-=db.w)
-                        buf_int[i] = data_int[k];
-                    sb.vFilter.synthetize_lpf(buf,0,(h+1)/2,1,buf,(h+1)/2,
-                                              h/2,1,data,offset,db.w);
-                }
+                sb.vFilter.synthetize_lpf_cols(buf,0,(h+1)/2,sw,
+                                               buf,((h+1)/2)*sw,h/2,sw,
+                                               data,offset,db.w,sw);
             } else { // start index is odd => use HPF
-                for(j=0; j<w; j++, offset++) {
-                    for(i=h-1, k=offset+i*db.w; i>=0; i--, k-= db.w)
-                        buf_int[i] = data_int[k];
-                    sb.vFilter.synthetize_hpf(buf,0,h/2,1,buf,h/2,(h+1)/2,1,
-                                              data,offset,db.w);
-                }
+                sb.vFilter.synthetize_hpf_cols(buf,0,h/2,sw,
+                                               buf,(h/2)*sw,(h+1)/2,sw,
+                                               data,offset,db.w,sw);
             }
-            break;
+        }
+    }
+
+    /**
+     * Returns the calling thread's scratch buffer for the given data type,
+     * growing it if it is shorter than 'len'. The buffer is reused across
+     * subbands, tiles and images decoded by the same thread, so its
+     * contents are undefined on return.
+     *
+     * @param type The data type of the buffer, as defined in DataBlk.
+     *
+     * @param len The minimum length of the buffer.
+     *
+     * @return An int[] or float[] of at least 'len' elements.
+     * */
+    private static Object getScratchBuffer(int type,int len) {
+        Object[] bufs = scratch.get();
+        switch (type) {
+        case DataBlk.TYPE_INT:
+            if (bufs[0]==null || ((int[])bufs[0]).length<len) {
+                bufs[0] = new int[len];
+            }
+            return bufs[0];
         case DataBlk.TYPE_FLOAT:
-            float data_float[], buf_float[];
-            data_float = (float[]) data;
-            buf_float = (float[]) buf;
-            if (sb.ulcy%2==0) { // start index is even => use LPF
-                for(j=0; j<w; j++, offset++) {
-                    for(i=h-1, k=offset+i*db.w; i>=0; i--, k-= db.w)
-                        buf_float[i] = data_float[k];
-                    sb.vFilter.synthetize_lpf(buf,0,(h+1)/2,1,buf,(h+1)/2,
-                                              h/2,1,data,offset,db.w);
-                }
-            } else { // start index is odd => use HPF
-                for(j=0; j<w; j++, offset++) {
-                    for(i=h-1, k=offset+i*db.w; i>=0; i--, k-= db.w)
-                        buf_float[i] = data_float[k];
-                    sb.vFilter.synthetize_hpf(buf,0,h/2,1,buf,h/2,(h+1)/2,1,
-                                              data,offset,db.w);
-                }
+            if (bufs[1]==null || ((float[])bufs[1]).length<len) {
+                bufs[1] = new float[len];
             }
-            break;
+            return bufs[1];
+        default:
+            throw new IllegalArgumentException("Unsupported data type: "+
+                                               type);
         }
     }
 
@@ -619,9 +690,12 @@ public class InvWTFull extends InverseWT {
             ndl[c] = src.getSynSubbandTree(tIdx,c).resLvl;
         }
 
-        // Reset the decomposed component buffers.
+        // Reset the decomposed component buffers, keeping them for reuse.
         if (reconstructedComps != null) {
             for (i=reconstructedComps.length-1; i>=0; i--) {
+                if (reconstructedComps[i] != null) {
+                    spareComps[i] = reconstructedComps[i];
+                }
                 reconstructedComps[i] = null;
             }
         }
@@ -668,9 +742,12 @@ public class InvWTFull extends InverseWT {
             ndl[c] = src.getSynSubbandTree(tIdx,c).resLvl;
         }
 
-        // Reset the decomposed component buffers.
+        // Reset the decomposed component buffers, keeping them for reuse.
         if (reconstructedComps != null) {
             for (i=reconstructedComps.length-1; i>=0; i--) {
+                if (reconstructedComps[i] != null) {
+                    spareComps[i] = reconstructedComps[i];
+                }
                 reconstructedComps[i] = null;
             }
         }
@@ -285,6 +285,56 @@ public abstract class SynWTFilter implements WaveletFilter,
                         Object highSig, int highOff, int highLen, int highStep,
                         Object outSig, int outOff, int outStep);
 
+    /**
+     * Filters 'width' signals at once, sample k of signal j being at index
+     * off+j+k*step of each array, as synthetize_lpf() would filter each of
+     * them. This is typically used to filter adjacent columns of an image
+     * together. This implementation filters the signals one by one,
+     * subclasses override it with kernels that filter the signals in the
+     * same loops.
+     *
+     * @param width The number of signals. It must not be greater than any
+     * of the steps.
+     *
+     * @see #synthetize_lpf
+     * */
+    public
+        void synthetize_lpf_cols(Object lowSig, int lowOff, int lowLen, int lowStep,
+                        Object highSig, int highOff, int highLen, int highStep,
+                        Object outSig, int outOff, int outStep,
+                        int width) {
+        for(int j=0; j<width; j++) {
+            synthetize_lpf(lowSig, lowOff+j, lowLen, lowStep,
+                           highSig, highOff+j, highLen, highStep,
+                           outSig, outOff+j, outStep);
+        }
+    }
+
+    /**
+     * Filters 'width' signals at once, sample k of signal j being at index
+     * off+j+k*step of each array, as synthetize_hpf() would filter each of
+     * them. This is typically used to filter adjacent columns of an image
+     * together. This implementation filters the signals one by one,
+     * subclasses override it with kernels that filter the signals in the
+     * same loops.
+     *
+     * @param width The number of signals. It must not be greater than any
+     * of the steps.
+     *
+     * @see #synthetize_hpf
+     * */
+    public
+        void synthetize_hpf_cols(Object lowSig, int lowOff, int lowLen, int lowStep,
+                        Object highSig, int highOff, int highLen, int highStep,
+                        Object outSig, int outOff, int outStep,
+                        int width) {
+        for(int j=0; j<width; j++) {
+            synthetize_hpf(lowSig, lowOff+j, lowLen, lowStep,
+                           highSig, highOff+j, highLen, highStep,
+                           outSig, outOff+j, outStep);
+        }
+    }
+
 }
 
 
@@ -312,6 +312,76 @@ public abstract class SynWTFilterFloat extends SynWTFilter {
                    (float[])outSig, outOff, outStep);
         }
 
+    /**
+     * A specific version of the synthetize_lpf_cols() method that works on
+     * float data. This implementation calls synthetize_lpf() for each signal.
+     *
+     * @see SynWTFilter#synthetize_lpf_cols
+     * */
+    public
+        void synthetize_lpf_cols(float[] lowSig, int lowOff, int lowLen, int lowStep,
+                        float[] highSig, int highOff, int highLen, int highStep,
+                        float[] outSig, int outOff, int outStep,
+                        int width) {
+        for(int j=0; j<width; j++) {
+            synthetize_lpf(lowSig, lowOff+j, lowLen, lowStep,
+                           highSig, highOff+j, highLen, highStep,
+                           outSig, outOff+j, outStep);
+        }
+    }
+
+    /**
+     * The general version of the synthetize_lpf_cols() method, it just casts
+     * the arrays once and calls the specialized version.
+     *
+     * @see SynWTFilter#synthetize_lpf_cols
+     * */
+    public
+        void synthetize_lpf_cols(Object lowSig, int lowOff, int lowLen, int lowStep,
+                        Object highSig, int highOff, int highLen, int highStep,
+                        Object outSig, int outOff, int outStep,
+                        int width) {
+        synthetize_lpf_cols((float[])lowSig, lowOff, lowLen, lowStep,
+                            (float[])highSig, highOff, highLen, highStep,
+                            (float[])outSig, outOff, outStep,
+                            width);
+    }
+
+    /**
+     * A specific version of the synthetize_hpf_cols() method that works on
+     * float data. This implementation calls synthetize_hpf() for each signal.
+     *
+     * @see SynWTFilter#synthetize_hpf_cols
+     * */
+    public
+        void synthetize_hpf_cols(float[] lowSig, int lowOff, int lowLen, int lowStep,
+                        float[] highSig, int highOff, int highLen, int highStep,
+                        float[] outSig, int outOff, int outStep,
+                        int width) {
+        for(int j=0; j<width; j++) {
+            synthetize_hpf(lowSig, lowOff+j, lowLen, lowStep,
+                           highSig, highOff+j, highLen, highStep,
+                           outSig, outOff+j, outStep);
+        }
+    }
+
+    /**
+     * The general version of the synthetize_hpf_cols() method, it just casts
+     * the arrays once and calls the specialized version.
+     *
+     * @see SynWTFilter#synthetize_hpf_cols
+     * */
+    public
+        void synthetize_hpf_cols(Object lowSig, int lowOff, int lowLen, int lowStep,
+                        Object highSig, int highOff, int highLen, int highStep,
+                        Object outSig, int outOff, int outStep,
+                        int width) {
+        synthetize_hpf_cols((float[])lowSig, lowOff, lowLen, lowStep,
+                            (float[])highSig, highOff, highLen, highStep,
+                            (float[])outSig, outOff, outStep,
+                            width);
+    }
+
     /**
      * Returns the type of data on which this filter works, as defined
      * in the DataBlk interface, which is always TYPE_FLOAT for this
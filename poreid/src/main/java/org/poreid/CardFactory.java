@@ -188,7 +188,6 @@ public final class CardFactory {
      * @throws POReIDException Exceção lançada quando ocorre uma exceção num componente (encapsula a exeção original)
      */
     public static <T extends POReIDSmartCard> T getCard(Locale locale, CacheStatus cachePreferences, Proxy proxy) throws CardTerminalNotPresentException, UnknownCardException, CardNotPresentException, CanceledSelectionException, POReIDException{
-        TerminalFactory factory;        
         Iterator<CardTerminal> iterator;
         List<CardTerminal> terminals;
         List<T> cardList = new ArrayList<>();
@@ -199,26 +198,7 @@ public final class CardFactory {
             throw new POReIDException("Não deve utilizar a Event Dispatch Thread (EDT) para executar lógica da aplicação");
         }
                        
-        try {
-            factory = TerminalFactory.getDefault();
-            if (!factory.terminals().isValidContext()) {
-                factory.releaseContext();
-                factory = TerminalFactory.getDefault();
-            }
-        } catch (CardException ex){
-            throw new CardTerminalNotPresentException("Não foi encontrado um leitor de cartões",ex);
-        }
-        
-        try {                        
-            if (factory.terminals().list().isEmpty()) {
-                factory.releaseContext();
-                throw new CardTerminalNotPresentException("Não foi encontrado um leitor de cartões");
-            }
-            terminals = factory.terminals().list(CardTerminals.State.CARD_PRESENT);
-        } catch (CardException | NullPointerException ex) {
-            factory.releaseContext();
-            throw new CardTerminalNotPresentException("Não foi possível obter lista de leitores", ex);
-        }     
+        terminals = listTerminalsWithCard();
         
         iterator = terminals.iterator();
         while (iterator.hasNext()) {
@@ -244,8 +224,37 @@ public final class CardFactory {
     }
     
     
+    /*
+     * Obtém a lista de leitores com cartão, restabelecendo o contexto PC/SC caso este já não seja válido.
+     */
+    static List<CardTerminal> listTerminalsWithCard() throws CardTerminalNotPresentException {
+        TerminalFactory factory;
+        
+        try {
+            factory = TerminalFactory.getDefault();
+            if (!factory.terminals().isValidContext()) {
+                factory.releaseContext();
+                factory = TerminalFactory.getDefault();
+            }
+        } catch (CardException ex){
+            throw new CardTerminalNotPresentException("Não foi encontrado um leitor de cartões",ex);
+        }
+        
+        try {                        
+            if (factory.terminals().list().isEmpty()) {
+                factory.releaseContext();
+                throw new CardTerminalNotPresentException("Não foi encontrado um leitor de cartões");
+            }
+            return factory.terminals().list(CardTerminals.State.CARD_PRESENT);
+        } catch (CardException | NullPointerException ex) {
+            factory.releaseContext();
+            throw new CardTerminalNotPresentException("Não foi possível obter lista de leitores", ex);
+        }
+    }
+    
+    
     @SuppressWarnings("unchecked")
-    private static <T extends POReIDSmartCard> T knownATR(CardTerminal terminal, Locale locale, CacheStatus status, Proxy proxy) throws CardException, UnknownCardException{
+    static <T extends POReIDSmartCard> T knownATR(CardTerminal terminal, Locale locale, CacheStatus status, Proxy proxy) throws CardException, UnknownCardException{
         Card card = terminal.connect("*");
         String className = POReIDConfig.getSmartCardImplementingClassName(Util.bytesToHex(card.getATR().getBytes()));
         org.poreid.CacheStatus cachePreferences = POReIDConfig.getSmartCardCacheStatus(Util.bytesToHex(card.getATR().getBytes()));
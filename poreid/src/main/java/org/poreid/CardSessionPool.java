@@ -0,0 +1,369 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014, 2015, 2016 Rui Martinho (rmartinho@gmail.com), António Braz (antoniocbraz@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.poreid;
+
+import java.net.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.poreid.CardFactory.CacheStatus;
+import org.poreid.config.POReIDConfig;
+import org.poreid.pcscforjava.Card;
+import org.poreid.pcscforjava.CardEventListener;
+import org.poreid.pcscforjava.CardException;
+import org.poreid.pcscforjava.CardTerminal;
+import org.poreid.pcscforjava.TerminalFactory;
+
+/**
+ * Conjunto de sessões de longa duração, uma por leitor de cartões, para utilização concorrente por várias threads.
+ * <p>
+ * Cada leitor tem o seu próprio semáforo, pelo que os comandos enviados a um mesmo leitor são serializados, enquanto leitores
+ * distintos são utilizados em paralelo. A sessão não está associada à thread que a obteve, podendo ser devolvida por outra
+ * thread. O cartão obtido através de uma sessão só deve ser utilizado até à devolução da mesma.
+ * @param <T> Uma classe que implemente a interface POReIDSmartCard
+ * @author POReID
+ */
+public final class CardSessionPool<T extends POReIDSmartCard> implements AutoCloseable {
+    private static final long RESCAN_INTERVAL = TimeUnit.MILLISECONDS.toNanos(500);
+    private final ConcurrentHashMap<String, Slot<T>> slots = new ConcurrentHashMap<>();
+    private final ReentrantLock poolLock = new ReentrantLock();
+    private final Condition released = poolLock.newCondition();
+    private final Locale locale;
+    private final CacheStatus cacheStatus;
+    private final Proxy proxy;
+    private volatile int generation = 0;
+    private volatile boolean closed = false;
+    private volatile boolean listening = false;
+    private final CardEventListener cardListener = new CardEventListener() {
+        @Override
+        public void cardInserted(CardTerminal terminal) {
+            signalRelease();
+        }
+
+        @Override
+        public void cardRemoved(CardTerminal terminal) {
+            signalRelease();
+        }
+    };
+
+
+    /**
+     * Cria um conjunto de sessões com as parametrizações (linguagem e utilização da cache) definidas no ficheiro de configuração.
+     */
+    public CardSessionPool() {
+        this(POReIDConfig.getDefaultLocale(), CacheStatus.UNSET, Proxy.NO_PROXY);
+    }
+
+
+    /**
+     * Cria um conjunto de sessões.
+     * @param locale Permite escolher a linguagem utilizada (português/inglês)
+     * @param cacheStatus Permite indicar se a cache deve ser utilizada
+     * @param proxy Permite indicar um proxy
+     */
+    public CardSessionPool(Locale locale, CacheStatus cacheStatus, Proxy proxy) {
+        this.locale = (null == locale) ? POReIDConfig.getDefaultLocale() : locale;
+        this.cacheStatus = (null == cacheStatus) ? CacheStatus.UNSET : cacheStatus;
+        this.proxy = (null == proxy) ? Proxy.NO_PROXY : proxy;
+    }
+
+
+    /**
+     * Obtém uma sessão num leitor livre com um cartão suportado, aguardando até ao tempo indicado que algum fique disponível.
+     * @param timeout Tempo máximo de espera
+     * @param unit Unidade do tempo de espera
+     * @return sessão obtida, deve ser devolvida através do método close
+     * @throws CardTerminalNotPresentException Exceção lançada quando não existe um leitor de cartões no sistema
+     * @throws CardNotPresentException Exceção lançada quando não ficou disponível nenhum cartão durante o tempo de espera
+     * @throws POReIDException Exceção lançada quando o conjunto de sessões já foi terminado ou a espera foi interrompida
+     */
+    public Session<T> lease(long timeout, TimeUnit unit) throws CardTerminalNotPresentException, CardNotPresentException, POReIDException {
+        return lease(null, timeout, unit);
+    }
+
+
+    /**
+     * Obtém uma sessão no leitor indicado, aguardando até ao tempo indicado que este fique disponível.
+     * @param terminalName Nome do leitor, null para qualquer leitor
+     * @param timeout Tempo máximo de espera
+     * @param unit Unidade do tempo de espera
+     * @return sessão obtida, deve ser devolvida através do método close
+     * @throws CardTerminalNotPresentException Exceção lançada quando não existe um leitor de cartões no sistema
+     * @throws CardNotPresentException Exceção lançada quando não ficou disponível nenhum cartão durante o tempo de espera
+     * @throws POReIDException Exceção lançada quando o conjunto de sessões já foi terminado ou a espera foi interrompida
+     */
+    public Session<T> lease(String terminalName, long timeout, TimeUnit unit) throws CardTerminalNotPresentException, CardNotPresentException, POReIDException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        boolean rescanned = false;
+        Session<T> session;
+
+        if (!listening) {
+            listenForCards();
+        }
+        for (;;) {
+            int observed = generation;
+
+            if (closed) {
+                throw new POReIDException("O conjunto de sessões já foi terminado");
+            }
+
+            if (null != (session = tryAcquire(terminalName))) {
+                return session;
+            }
+
+            if (!rescanned) {
+                scanTerminals();
+                rescanned = true;
+                continue;
+            }
+
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new CardNotPresentException("Não existe um cartão disponível" + ((null != terminalName) ? " no leitor " + terminalName : ""));
+            }
+
+            poolLock.lock();
+            try {
+                if (observed == generation) {
+                    released.awaitNanos(Math.min(remaining, RESCAN_INTERVAL));
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new POReIDException("A espera por uma sessão foi interrompida", ex);
+            } finally {
+                poolLock.unlock();
+            }
+            rescanned = false;
+        }
+    }
+
+
+    /**
+     * Termina todas as sessões, aguardando que as que estão em utilização sejam devolvidas.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (listening) {
+            try {
+                TerminalFactory.getDefault().terminals().removeCardEventListener(cardListener);
+            } catch (CardException ignore) {
+            }
+        }
+        for (Slot<T> slot : slots.values()) {
+            slot.permit.acquireUninterruptibly();
+            try {
+                slot.discard();
+            } finally {
+                slot.permit.release();
+            }
+        }
+        slots.clear();
+        signalRelease();
+    }
+
+
+    private Session<T> tryAcquire(String terminalName) {
+        List<Slot<T>> candidates = new ArrayList<>();
+
+        if (null != terminalName) {
+            Slot<T> slot = slots.get(terminalName);
+            if (null != slot) {
+                candidates.add(slot);
+            }
+        } else {
+            candidates.addAll(slots.values());
+        }
+
+        for (Slot<T> slot : candidates) {
+            if (slot.permit.tryAcquire()) {
+                if (slot.open(locale, cacheStatus, proxy)) {
+                    return new Session<>(this, slot);
+                }
+                slot.permit.release();
+            }
+        }
+
+        return null; /* null - correto */
+    }
+
+
+    /*
+     * As inserções e remoções de cartões acordam as threads em espera, evitando aguardar pela próxima verificação periódica.
+     */
+    private synchronized void listenForCards() {
+        if (!listening) {
+            try {
+                TerminalFactory.getDefault().terminals().addCardEventListener(cardListener);
+            } catch (CardException | UnsupportedOperationException ex) {
+                Logger.getLogger(CardSessionPool.class.getName()).log(Level.FINE, null, ex);
+            }
+            listening = true;
+        }
+    }
+
+
+    private void scanTerminals() throws CardTerminalNotPresentException {
+        for (CardTerminal terminal : CardFactory.listTerminalsWithCard()) {
+            Slot<T> slot = slots.get(terminal.getName());
+            if (null == slot) {
+                slots.putIfAbsent(terminal.getName(), new Slot<T>(terminal));
+            } else if (slot.terminal != terminal && slot.permit.tryAcquire()) {
+                /* o contexto PC/SC foi restabelecido, o leitor anterior já não é utilizável */
+                try {
+                    slot.discard();
+                    slots.replace(terminal.getName(), slot, new Slot<T>(terminal));
+                } finally {
+                    slot.permit.release();
+                }
+            }
+        }
+    }
+
+
+    private void signalRelease() {
+        poolLock.lock();
+        try {
+            generation++;
+            released.signalAll();
+        } finally {
+            poolLock.unlock();
+        }
+    }
+
+
+    /*
+     * Estado associado a um leitor. Os campos card e connection só são acedidos com o semáforo do leitor adquirido.
+     */
+    private static final class Slot<T extends POReIDSmartCard> {
+        private final Semaphore permit = new Semaphore(1);
+        private final CardTerminal terminal;
+        private T card;
+        private Card connection;
+
+        private Slot(CardTerminal terminal) {
+            this.terminal = terminal;
+        }
+
+        private boolean open(Locale locale, CacheStatus cacheStatus, Proxy proxy) {
+            if (null != card && connection.isValid()) {
+                return true;
+            }
+
+            discard();
+            try {
+                if (!terminal.isCardPresent()) {
+                    return false;
+                }
+                card = CardFactory.knownATR(terminal, locale, cacheStatus, proxy);
+                connection = terminal.connect("*");
+                return true;
+            } catch (CardException | UnknownCardException ex) {
+                discard();
+                return false;
+            }
+        }
+
+        private void discard() {
+            if (null != card) {
+                try {
+                    card.close();
+                } catch (POReIDException ex) {
+                    Logger.getLogger(CardSessionPool.class.getName()).log(Level.FINE, null, ex);
+                }
+            }
+            card = null;
+            connection = null;
+        }
+    }
+
+
+    /**
+     * Sessão obtida a partir do conjunto de sessões, garante o acesso exclusivo ao leitor até ser devolvida.
+     * @param <T> Uma classe que implemente a interface POReIDSmartCard
+     */
+    public static final class Session<T extends POReIDSmartCard> implements AutoCloseable {
+        private final CardSessionPool<T> pool;
+        private final Slot<T> slot;
+        private final AtomicBoolean returned = new AtomicBoolean(false);
+
+        private Session(CardSessionPool<T> pool, Slot<T> slot) {
+            this.pool = pool;
+            this.slot = slot;
+        }
+
+        /**
+         * Obtém o cartão associado à sessão
+         * @return cartão suportado pelo poreid
+         */
+        public T getCard() {
+            if (returned.get()) {
+                throw new IllegalStateException("A sessão já foi devolvida");
+            }
+            return slot.card;
+        }
+
+        /**
+         * Obtém o nome do leitor associado à sessão
+         * @return nome do leitor
+         */
+        public String getTerminalName() {
+            return slot.terminal.getName();
+        }
+
+        /**
+         * Termina a ligação ao cartão antes de devolver a sessão, utilizar quando o cartão ficou num estado inconsistente.
+         */
+        public void invalidate() {
+            release(true);
+        }
+
+        /**
+         * Devolve a sessão ao conjunto, mantendo a ligação ao cartão para utilizações seguintes.
+         */
+        @Override
+        public void close() {
+            release(false);
+        }
+
+        private void release(boolean discard) {
+            if (returned.compareAndSet(false, true)) {
+                if (discard) {
+                    slot.discard();
+                }
+                slot.permit.release();
+                pool.signalRelease();
+            }
+        }
+    }
+}
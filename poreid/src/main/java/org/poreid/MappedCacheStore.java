@@ -0,0 +1,563 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014, 2015, 2016 Rui Martinho (rmartinho@gmail.com), António Braz (antoniocbraz@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.poreid;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Cache em disco num único ficheiro mapeado em memória.
+ * O ficheiro é composto por um cabeçalho, um índice (tabela de dispersão com endereçamento aberto, indexada pelo nome
+ * do ficheiro em cache - PAN e identificador do ficheiro) e uma zona de dados onde as entradas são acrescentadas.
+ * O índice é reconstruído, e se necessário aumentado, quando a ocupação excede 3/4 dos slots. O espaço das entradas
+ * removidas é recuperado compactando a zona de dados quando ultrapassa metade desta.
+ * O ficheiro nunca é truncado, pois pode estar mapeado por outros processos; as leituras utilizam um bloqueio partilhado
+ * e as escritas um bloqueio exclusivo.
+ * @author POReID
+ */
+final class MappedCacheStore {
+    private final static Logger LOGGER = Logger.getLogger(MappedCacheStore.class.getName());
+    private static final int MAGIC = 0x50524443; // PRDC
+    private static final int FORMAT_VERSION = 2;
+    private static final int HEADER_SIZE = 64;
+    private static final int SLOT_COUNT_POSITION = 8;
+    private static final int DATA_END_POSITION = 12;
+    private static final int FREE_BYTES_POSITION = 20;
+    private static final int USED_SLOTS_POSITION = 28;
+    private static final int REMOVED_SLOTS_POSITION = 32;
+    private static final int INITIAL_SLOT_COUNT = 1024;
+    private static final int MIN_COMPACT_SIZE = 64 * 1024;
+    private static final int SLOT_SIZE = 96;
+    private static final int MAX_KEY_LEN = 64;
+    private static final int SLOT_STATE = 0;
+    private static final int SLOT_KEY_LEN = 1;
+    private static final int SLOT_KEY = 2;
+    private static final int SLOT_OFFSET = SLOT_KEY + MAX_KEY_LEN;
+    private static final int SLOT_LENGTH = SLOT_OFFSET + 8;
+    private static final int SLOT_CAPACITY = SLOT_LENGTH + 4;
+    private static final int SLOT_CREATED = SLOT_CAPACITY + 4;
+    private static final byte EMPTY = 0;
+    private static final byte USED = 1;
+    private static final byte REMOVED = 2;
+    private static MappedCacheStore instance;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private MappedByteBuffer buffer;
+
+
+    private MappedCacheStore(File location) throws IOException {
+        file = new RandomAccessFile(location, "rw");
+        channel = file.getChannel();
+
+        try (FileLock lock = channel.lock()) {
+            if (channel.size() < HEADER_SIZE) {
+                format();
+            } else {
+                map(channel.size());
+                if (MAGIC != buffer.getInt(0) || FORMAT_VERSION != buffer.getInt(4) || INITIAL_SLOT_COUNT > slotCount()
+                        || channel.size() < dataStart(slotCount()) || channel.size() < buffer.getLong(DATA_END_POSITION)) {
+                    format();
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Devolve a instância partilhada da cache ou null caso não seja possível abrir o ficheiro
+     * @return instância da cache
+     */
+    static synchronized MappedCacheStore getInstance() {
+        if (null == instance) {
+            File location = new File(org.poreid.config.POReIDConfig.cacheLocation);
+            if (location.exists() || location.mkdir()) {
+                try {
+                    instance = new MappedCacheStore(new File(location, org.poreid.config.POReIDConfig.cacheStoreFileName));
+                } catch (IOException ex) {
+                    LOGGER.log(Level.INFO, "Não foi possível abrir a cache.{0}", ex);
+                }
+            }
+        }
+
+        return instance;
+    }
+
+
+    /*
+     * O ficheiro não é truncado, pode estar mapeado por outros processos
+     */
+    private void format() throws IOException {
+        int dataStart = dataStart(INITIAL_SLOT_COUNT);
+
+        map(Math.max(channel.size(), dataStart));
+        put(0, new byte[dataStart]);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, FORMAT_VERSION);
+        buffer.putInt(SLOT_COUNT_POSITION, INITIAL_SLOT_COUNT);
+        buffer.putLong(DATA_END_POSITION, dataStart);
+    }
+
+
+    private void map(long size) throws IOException {
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+
+    /*
+     * Volta a mapear o ficheiro caso tenha crescido (por este ou por outro processo)
+     */
+    private void ensureMapped(long size) throws IOException {
+        if (buffer.capacity() < size) {
+            map(Math.max(size, channel.size()));
+        }
+    }
+
+
+    private FileLock lockShared() throws IOException {
+        FileLock lock = channel.lock(0, Long.MAX_VALUE, true);
+        ensureMapped(channel.size());
+        return lock;
+    }
+
+
+    private FileLock lockExclusive() throws IOException {
+        FileLock lock = channel.lock();
+        ensureMapped(channel.size());
+        return lock;
+    }
+
+
+    private void get(long position, byte[] dst) {
+        ByteBuffer view = buffer.duplicate();
+        view.position((int) position);
+        view.get(dst);
+    }
+
+
+    private void put(long position, byte[] src) {
+        ByteBuffer view = buffer.duplicate();
+        view.position((int) position);
+        view.put(src);
+    }
+
+
+    private static byte[] toKey(String fileId) {
+        byte[] key = fileId.getBytes(StandardCharsets.UTF_8);
+        return key.length <= MAX_KEY_LEN ? key : null;
+    }
+
+
+    private static int dataStart(int slotCount) {
+        return HEADER_SIZE + slotCount * SLOT_SIZE;
+    }
+
+
+    private static int slotPosition(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+
+    private static int firstSlot(byte[] key, int slotCount) {
+        return (Arrays.hashCode(key) & 0x7FFFFFFF) % slotCount;
+    }
+
+
+    private int slotCount() {
+        return buffer.getInt(SLOT_COUNT_POSITION);
+    }
+
+
+    private byte[] readKey(int position) {
+        byte[] key = new byte[buffer.get(position + SLOT_KEY_LEN) & 0xFF];
+        get(position + SLOT_KEY, key);
+        return key;
+    }
+
+
+    /*
+     * Procura a entrada com a chave indicada, devolve a posição do slot ou -1
+     */
+    private int find(byte[] key) {
+        int slotCount = slotCount();
+        int start = firstSlot(key, slotCount);
+
+        for (int i = 0; i < slotCount; i++) {
+            int position = slotPosition((start + i) % slotCount);
+            byte state = buffer.get(position + SLOT_STATE);
+            if (EMPTY == state) {
+                return -1;
+            }
+            if (USED == state && Arrays.equals(key, readKey(position))) {
+                return position;
+            }
+        }
+
+        return -1;
+    }
+
+
+    /**
+     * Verifica se a entrada existe
+     * @param fileId nome do ficheiro em cache
+     * @return true se existe, false se não existe
+     */
+    synchronized boolean contains(String fileId) {
+        byte[] key = toKey(fileId);
+
+        if (null == key) {
+            return false;
+        }
+
+        try (FileLock lock = lockShared()) {
+            return -1 != find(key);
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+
+    /**
+     * Lê o conteúdo de uma entrada
+     * @param fileId nome do ficheiro em cache
+     * @return conteúdo da entrada ou null se não existe
+     */
+    synchronized byte[] read(String fileId) {
+        byte[] key = toKey(fileId);
+        int position;
+
+        if (null == key) {
+            return null;
+        }
+
+        try (FileLock lock = lockShared()) {
+            if (-1 == (position = find(key))) {
+                return null;
+            }
+
+            byte[] contents = new byte[buffer.getInt(position + SLOT_LENGTH)];
+            get(buffer.getLong(position + SLOT_OFFSET), contents);
+
+            return contents;
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+
+    /**
+     * Escreve o conteúdo de uma entrada, reutilizando sempre que possível o espaço já atribuído
+     * @param fileId nome do ficheiro em cache
+     * @param contents conteúdo a escrever
+     */
+    synchronized void write(String fileId, byte[] contents) {
+        byte[] key = toKey(fileId);
+
+        if (null == key) {
+            LOGGER.log(Level.INFO, "Entrada não guardada na cache, nome demasiado longo: {0}", fileId);
+            return;
+        }
+
+        try (FileLock lock = lockExclusive()) {
+            ensureIndexCapacity();
+
+            int position = find(key);
+            long offset;
+            int capacity;
+
+            if (-1 != position && buffer.getInt(position + SLOT_CAPACITY) >= contents.length) {
+                offset = buffer.getLong(position + SLOT_OFFSET);
+                capacity = buffer.getInt(position + SLOT_CAPACITY);
+            } else {
+                if (-1 != position) {
+                    release(position);
+                }
+                position = freeSlot(key);
+                if (-1 == position) {
+                    LOGGER.log(Level.INFO, "Entrada não guardada na cache, índice cheio: {0}", fileId);
+                    return;
+                }
+
+                if (REMOVED == buffer.get(position + SLOT_STATE)) {
+                    buffer.putInt(REMOVED_SLOTS_POSITION, buffer.getInt(REMOVED_SLOTS_POSITION) - 1);
+                }
+                buffer.putInt(USED_SLOTS_POSITION, buffer.getInt(USED_SLOTS_POSITION) + 1);
+
+                offset = buffer.getLong(DATA_END_POSITION);
+                capacity = contents.length;
+                ensureMapped(offset + capacity);
+                buffer.putLong(DATA_END_POSITION, offset + capacity);
+            }
+
+            put(offset, contents);
+
+            buffer.put(position + SLOT_KEY_LEN, (byte) key.length);
+            put(position + SLOT_KEY, key);
+            buffer.putLong(position + SLOT_OFFSET, offset);
+            buffer.putInt(position + SLOT_LENGTH, contents.length);
+            buffer.putInt(position + SLOT_CAPACITY, capacity);
+            buffer.putLong(position + SLOT_CREATED, System.currentTimeMillis());
+            buffer.put(position + SLOT_STATE, USED);
+
+            compactIfNeeded();
+        } catch (IOException ex) {
+            LOGGER.log(Level.INFO, "Não foi possível escrever na cache.{0}", ex);
+        }
+    }
+
+
+    /*
+     * Primeiro slot livre (vazio ou removido) na sequência de procura da chave
+     */
+    private int freeSlot(byte[] key) {
+        int slotCount = slotCount();
+        int start = firstSlot(key, slotCount);
+
+        for (int i = 0; i < slotCount; i++) {
+            int position = slotPosition((start + i) % slotCount);
+            if (USED != buffer.get(position + SLOT_STATE)) {
+                return position;
+            }
+        }
+
+        return -1;
+    }
+
+
+    /*
+     * Marca o slot como removido, o espaço da entrada é recuperado na próxima compactação
+     */
+    private void release(int position) {
+        buffer.put(position + SLOT_STATE, REMOVED);
+        buffer.putLong(FREE_BYTES_POSITION, buffer.getLong(FREE_BYTES_POSITION) + buffer.getInt(position + SLOT_CAPACITY));
+        buffer.putInt(position + SLOT_CAPACITY, 0);
+        buffer.putInt(USED_SLOTS_POSITION, buffer.getInt(USED_SLOTS_POSITION) - 1);
+        buffer.putInt(REMOVED_SLOTS_POSITION, buffer.getInt(REMOVED_SLOTS_POSITION) + 1);
+    }
+
+
+    /*
+     * Reconstrói o índice, eliminando os slots removidos, quando não há espaço para mais uma entrada com ocupação
+     * até 3/4. O número de slots é duplicado enquanto as entradas ocuparem mais de metade do índice.
+     */
+    private void ensureIndexCapacity() throws IOException {
+        int slotCount = slotCount();
+        int used = buffer.getInt(USED_SLOTS_POSITION);
+
+        if ((used + buffer.getInt(REMOVED_SLOTS_POSITION) + 1) * 4L <= slotCount * 3L) {
+            return;
+        }
+
+        int newSlotCount = slotCount;
+        while ((used + 1) * 2L > newSlotCount) {
+            newSlotCount *= 2;
+        }
+        rehash(newSlotCount);
+    }
+
+
+    private void rehash(int newSlotCount) throws IOException {
+        int slotCount = slotCount();
+        int newDataStart = dataStart(newSlotCount);
+        long dataEnd = Math.max(buffer.getLong(DATA_END_POSITION), newDataStart);
+        long live = 0;
+        List<byte[]> slots = new ArrayList<>();
+
+        for (int slot = 0; slot < slotCount; slot++) {
+            int position = slotPosition(slot);
+            if (USED == buffer.get(position + SLOT_STATE)) {
+                byte[] copy = new byte[SLOT_SIZE];
+                get(position, copy);
+                slots.add(copy);
+            }
+        }
+
+        // as entradas que ficam na zona ocupada pelo novo índice passam para o fim da zona de dados
+        for (byte[] copy : slots) {
+            ByteBuffer slot = ByteBuffer.wrap(copy);
+            long offset = slot.getLong(SLOT_OFFSET);
+            if (offset < newDataStart) {
+                byte[] contents = new byte[slot.getInt(SLOT_LENGTH)];
+                get(offset, contents);
+                ensureMapped(dataEnd + contents.length);
+                put(dataEnd, contents);
+                slot.putLong(SLOT_OFFSET, dataEnd);
+                slot.putInt(SLOT_CAPACITY, contents.length);
+                dataEnd += contents.length;
+            }
+            live += slot.getInt(SLOT_CAPACITY);
+        }
+
+        ensureMapped(newDataStart);
+        put(HEADER_SIZE, new byte[newDataStart - HEADER_SIZE]);
+        for (byte[] copy : slots) {
+            int slot = firstSlot(Arrays.copyOfRange(copy, SLOT_KEY, SLOT_KEY + (copy[SLOT_KEY_LEN] & 0xFF)), newSlotCount);
+            while (EMPTY != buffer.get(slotPosition(slot) + SLOT_STATE)) {
+                slot = (slot + 1) % newSlotCount;
+            }
+            put(slotPosition(slot), copy);
+        }
+
+        buffer.putInt(SLOT_COUNT_POSITION, newSlotCount);
+        buffer.putLong(DATA_END_POSITION, dataEnd);
+        buffer.putLong(FREE_BYTES_POSITION, dataEnd - newDataStart - live);
+        buffer.putInt(USED_SLOTS_POSITION, slots.size());
+        buffer.putInt(REMOVED_SLOTS_POSITION, 0);
+    }
+
+
+    /*
+     * Compacta a zona de dados quando o espaço livre excede metade desta, deslocando as entradas pela ordem em que
+     * se encontram no ficheiro
+     */
+    private void compactIfNeeded() {
+        int dataStart = dataStart(slotCount());
+        long dataEnd = buffer.getLong(DATA_END_POSITION);
+        long free = buffer.getLong(FREE_BYTES_POSITION);
+
+        if (free < MIN_COMPACT_SIZE || free * 2 < dataEnd - dataStart) {
+            return;
+        }
+
+        List<Integer> positions = new ArrayList<>();
+        for (int slot = 0; slot < slotCount(); slot++) {
+            int position = slotPosition(slot);
+            if (USED == buffer.get(position + SLOT_STATE)) {
+                positions.add(position);
+            }
+        }
+        Collections.sort(positions, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return Long.compare(buffer.getLong(o1 + SLOT_OFFSET), buffer.getLong(o2 + SLOT_OFFSET));
+            }
+        });
+
+        long next = dataStart;
+        for (int position : positions) {
+            long offset = buffer.getLong(position + SLOT_OFFSET);
+            int length = buffer.getInt(position + SLOT_LENGTH);
+            if (offset != next) {
+                byte[] contents = new byte[length];
+                get(offset, contents);
+                put(next, contents);
+                buffer.putLong(position + SLOT_OFFSET, next);
+            }
+            buffer.putInt(position + SLOT_CAPACITY, length);
+            next += length;
+        }
+
+        buffer.putLong(DATA_END_POSITION, next);
+        buffer.putLong(FREE_BYTES_POSITION, 0);
+    }
+
+
+    /**
+     * Remove uma entrada, o espaço ocupado fica disponível para novas entradas
+     * @param fileId nome do ficheiro em cache
+     */
+    synchronized void remove(String fileId) {
+        byte[] key = toKey(fileId);
+
+        if (null == key) {
+            return;
+        }
+
+        try (FileLock lock = lockExclusive()) {
+            int position = find(key);
+            if (-1 != position) {
+                release(position);
+                compactIfNeeded();
+            }
+        } catch (IOException ex) {
+            LOGGER.log(Level.INFO, "Não foi possível remover a entrada da cache.{0}", ex);
+        }
+    }
+
+
+    /**
+     * Mantém na cache apenas as entradas dos cartões utilizados mais recentemente
+     * @param threshold número de cartões a manter
+     * @return nomes das entradas removidas
+     */
+    synchronized List<String> enforceThreshold(int threshold) {
+        final Map<String, Long> created = new HashMap<>();
+        Map<String, List<Integer>> positions = new HashMap<>();
+        List<String> removed = new ArrayList<>();
+
+        try (FileLock lock = lockExclusive()) {
+            for (int slot = 0; slot < slotCount(); slot++) {
+                int position = slotPosition(slot);
+                if (USED == buffer.get(position + SLOT_STATE)) {
+                    String card = new String(readKey(position), StandardCharsets.UTF_8).split("_")[0];
+                    long millis = buffer.getLong(position + SLOT_CREATED);
+                    if (!positions.containsKey(card)) {
+                        positions.put(card, new ArrayList<Integer>());
+                        created.put(card, millis);
+                    } else if (millis < created.get(card)) {
+                        created.put(card, millis);
+                    }
+                    positions.get(card).add(position);
+                }
+            }
+
+            if (positions.size() > threshold) {
+                List<String> cards = new ArrayList<>(positions.keySet());
+                Collections.sort(cards, new Comparator<String>() {
+                    @Override
+                    public int compare(String o1, String o2) {
+                        return Long.compare(created.get(o2), created.get(o1));
+                    }
+                });
+
+                for (String card : cards.subList(threshold, cards.size())) {
+                    for (int position : positions.get(card)) {
+                        removed.add(new String(readKey(position), StandardCharsets.UTF_8));
+                        release(position);
+                    }
+                }
+                compactIfNeeded();
+            }
+        } catch (IOException ex) {
+            LOGGER.log(Level.INFO, "Não foi possível expurgar a cache.{0}", ex);
+        }
+
+        return removed;
+    }
+}
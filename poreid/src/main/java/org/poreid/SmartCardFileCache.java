@@ -23,14 +23,7 @@
  */
 package org.poreid;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -41,6 +34,8 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
@@ -48,6 +43,8 @@ import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.SortedSet;
@@ -60,8 +57,10 @@ import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.Mac;
 import javax.crypto.NoSuchPaddingException;
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
+import org.poreid.config.CacheStoreType;
 import org.poreid.config.POReIDConfig;
 
 /**
@@ -76,7 +75,30 @@ public final class SmartCardFileCache {
     private byte[] keyHMAC;
     private static final int SHA_256_DIGEST_LEN = 32;
     private static final int AES_KEY_LEN = 16;
+    private static final int MEMORY_CACHE_MAX_SIZE = 1024 * 1024;
+    private static final MemoryCache memoryCache = new MemoryCache(MEMORY_CACHE_MAX_SIZE);
+    private static final int CACHE_FORMAT_GCM = 0x47434D02;
+    private static final int GCM_HEADER_LEN = 8;
+    private static final int GCM_NONCE_LEN = 12;
+    private static final int GCM_TAG_LEN = 16;
+    private static final ThreadLocal<Cipher> GCM_CIPHER = new ThreadLocal<Cipher>() {
+        @Override
+        protected Cipher initialValue() {
+            try {
+                return Cipher.getInstance("AES/GCM/NoPadding");
+            } catch (NoSuchAlgorithmException | NoSuchPaddingException ex) {
+                return null;
+            }
+        }
+    };
+    private static final ThreadLocal<SecureRandom> RANDOM = new ThreadLocal<SecureRandom>() {
+        @Override
+        protected SecureRandom initialValue() {
+            return new SecureRandom();
+        }
+    };
     private File location;
+    private MappedCacheStore store;
 
     /**
      * Constroi uma instância
@@ -93,6 +115,9 @@ public final class SmartCardFileCache {
             keyAES = Arrays.copyOfRange(data, 0, AES_KEY_LEN);
             keyHMAC = Arrays.copyOfRange(data, AES_KEY_LEN, data.length);            
             location = new File(POReIDConfig.cacheLocation);
+            if (cacheStatus.isEnabled() && CacheStoreType.MAPPED == POReIDConfig.getCacheStoreType()) {
+                store = MappedCacheStore.getInstance();
+            }
         }
     }
 
@@ -113,8 +138,14 @@ public final class SmartCardFileCache {
     public boolean isCached(String fileId) {
         boolean isCached = false;
         
-        if (cacheStatus.isEnabled() && location.exists()) {            
-            isCached = new File(POReIDConfig.cacheLocation + fileId).exists();           
+        if (cacheStatus.isEnabled()) {
+            if (memoryCache.contains(fileId)) {
+                return true;
+            }
+            if (null != store) {
+                return store.contains(fileId);
+            }
+            isCached = location.exists() && new File(POReIDConfig.cacheLocation + fileId).exists();           
         }
         
         return isCached;
@@ -142,31 +173,55 @@ public final class SmartCardFileCache {
      * @return conteudo do ficheiro em cache ou null se a cache estiver inativa
      */
     public byte[] readCachedFile(String fileId) {
-        byte[] data = new byte[8192];
-        byte[] cachedData = null;
+        CacheEntry entry;
+        byte[] stored;
+        boolean migrate = false;
 
         if (cacheStatus.isEnabled()) {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            try (DataInputStream dinput = new DataInputStream(new BufferedInputStream(new FileInputStream(POReIDConfig.cacheLocation + fileId)))) {
-                if (dinput.readInt() == POReIDConfig.getPOReIDVersion()) {
-                    int count;
-                    while ((count = dinput.read(data)) != -1) {
-                        baos.write(data, 0, count);
+            entry = memoryCache.get(fileId);
+            if (null != entry && cacheStatus.isValid(entry.getCacheDate())) {
+                return entry.getContents();
+            }
+            
+            entry = null;
+            stored = (null != store ? store.read(fileId) : readFile(fileId));
+            if (null != stored && stored.length > 4) {
+                int format = ByteBuffer.wrap(stored).getInt();
+                try {
+                    if (CACHE_FORMAT_GCM == format) {
+                        entry = openEntry(fileId, stored);
+                    } else if (POReIDConfig.getPOReIDVersion() == format) {
+                        entry = decipherCache(Arrays.copyOfRange(stored, 4, stored.length));
+                        migrate = (null != GCM_CIPHER.get());
                     }
-                    cachedData = decipherCache(baos.toByteArray());                    
+                } catch (GeneralSecurityException ignore) {
                 }
-            } catch (IOException | InvalidAlgorithmParameterException | NoSuchAlgorithmException | InvalidKeyException | NoSuchPaddingException | IllegalBlockSizeException | BadPaddingException ignore) {
             }
 
-            if (null == cachedData) {
+            if (null == entry || !cacheStatus.isValid(entry.getCacheDate())) {
                 removeCacheFile(fileId);
+                return null; /* null - correto */ 
             }
-
-            return cachedData;
+            
+            if (migrate) {
+                writeCacheFile(fileId, entry.getContents(), entry.getCacheDate());
+            }
+            
+            memoryCache.put(fileId, entry);
+            return entry.getContents();
         } else {
             return null; /* null - correto */ 
         }
     }
+    
+    
+    private byte[] readFile(String fileId) {
+        try {
+            return Files.readAllBytes(FileSystems.getDefault().getPath(POReIDConfig.cacheLocation, fileId));
+        } catch (IOException ex) {
+            return null;
+        }
+    }
 
     /**
      * Escreve conteúdo do ficheiro na cache
@@ -174,20 +229,86 @@ public final class SmartCardFileCache {
      * @param contents Conteúdo a escrever no ficheiro de cache
      */
     public void writeCacheFile(String fileId, byte[] contents) {
-        if (cacheStatus.isEnabled() && (location.exists() || location.mkdir())) {
-            try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(POReIDConfig.cacheLocation + fileId))))) {
-                dos.writeInt(POReIDConfig.getPOReIDVersion());
-                dos.write(cipherCache(contents));
-                dos.flush();
-                dos.close();
-            } catch (FileNotFoundException ignore) {
-            } catch (InvalidAlgorithmParameterException | IOException | NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException | IllegalBlockSizeException | BadPaddingException ignore) {
+        writeCacheFile(fileId, contents, System.currentTimeMillis());
+    }
+    
+    
+    private void writeCacheFile(String fileId, byte[] contents, long cacheDate) {
+        byte[] sealed;
+        
+        if (!cacheStatus.isEnabled()) {
+            return;
+        }
+        
+        try {
+            sealed = sealEntry(fileId, contents, cacheDate);
+        } catch (GeneralSecurityException ex) {
+            return;
+        }
+        
+        if (null != store) {
+            store.write(fileId, sealed);
+            memoryCache.put(fileId, new CacheEntry(Arrays.copyOf(contents, contents.length), 0, contents.length, cacheDate));
+        } else if (location.exists() || location.mkdir()) {
+            try (FileOutputStream fos = new FileOutputStream(new File(POReIDConfig.cacheLocation + fileId))) {
+                fos.write(sealed);
+                memoryCache.put(fileId, new CacheEntry(Arrays.copyOf(contents, contents.length), 0, contents.length, cacheDate));
+            } catch (IOException ignore) {
             }
         }
     }
     
     
-    private byte[] cipherCache(byte[] contents) throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException, IllegalBlockSizeException, BadPaddingException, InvalidAlgorithmParameterException{
+    /*
+     * Formato GCM: formato (4 bytes) | versão do POReID (4 bytes) | nonce (12 bytes) | AES-GCM(data (8 bytes) | conteúdo) com o formato,
+     * a versão e o nome do ficheiro como dados autenticados. As entradas escritas por outra versão do POReID são rejeitadas.
+     * Caso o fornecedor não disponibilize AES/GCM é utilizado o formato anterior (AES-CBC + HMAC-SHA1).
+     */
+    private byte[] sealEntry(String fileId, byte[] contents, long cacheDate) throws GeneralSecurityException {
+        Cipher cipher = GCM_CIPHER.get();
+        
+        if (null == cipher) {
+            byte[] bundle = cipherCache(contents, cacheDate);
+            return ByteBuffer.allocate(4 + bundle.length).putInt(POReIDConfig.getPOReIDVersion()).put(bundle).array();
+        }
+        
+        byte[] sealed = new byte[GCM_HEADER_LEN + GCM_NONCE_LEN + 8 + contents.length + GCM_TAG_LEN];
+        byte[] nonce = new byte[GCM_NONCE_LEN];
+        RANDOM.get().nextBytes(nonce);
+        ByteBuffer.wrap(sealed).putInt(CACHE_FORMAT_GCM).putInt(POReIDConfig.getPOReIDVersion()).put(nonce);
+        
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(this.keyAES, "AES"), new GCMParameterSpec(GCM_TAG_LEN * 8, sealed, GCM_HEADER_LEN, GCM_NONCE_LEN));
+        cipher.updateAAD(sealed, 0, GCM_HEADER_LEN);
+        cipher.updateAAD(fileId.getBytes(StandardCharsets.UTF_8));
+        int offset = GCM_HEADER_LEN + GCM_NONCE_LEN;
+        offset += cipher.update(ByteBuffer.allocate(8).putLong(cacheDate).array(), 0, 8, sealed, offset);
+        cipher.doFinal(contents, 0, contents.length, sealed, offset);
+        
+        return sealed;
+    }
+    
+    
+    private CacheEntry openEntry(String fileId, byte[] sealed) throws GeneralSecurityException {
+        Cipher cipher = GCM_CIPHER.get();
+        int offset = GCM_HEADER_LEN + GCM_NONCE_LEN;
+        byte[] plain;
+        int length;
+        
+        if (null == cipher || sealed.length < offset + GCM_TAG_LEN + 8 || POReIDConfig.getPOReIDVersion() != ByteBuffer.wrap(sealed).getInt(4)) {
+            return null; /* null - correto */ 
+        }
+        
+        cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(this.keyAES, "AES"), new GCMParameterSpec(GCM_TAG_LEN * 8, sealed, GCM_HEADER_LEN, GCM_NONCE_LEN));
+        cipher.updateAAD(sealed, 0, GCM_HEADER_LEN);
+        cipher.updateAAD(fileId.getBytes(StandardCharsets.UTF_8));
+        plain = new byte[cipher.getOutputSize(sealed.length - offset)];
+        length = cipher.doFinal(sealed, offset, sealed.length - offset, plain, 0);
+        
+        return new CacheEntry(plain, 8, length - 8, ByteBuffer.wrap(plain).getLong());
+    }
+    
+    
+    private byte[] cipherCache(byte[] contents, long cacheDate) throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException, IllegalBlockSizeException, BadPaddingException, InvalidAlgorithmParameterException{
         Cipher cipher; 
         byte[] ivData;
         IvParameterSpec iv;
@@ -203,7 +324,7 @@ public final class SmartCardFileCache {
         SecureRandom.getInstance("SHA1PRNG").nextBytes(ivData);
         iv = new IvParameterSpec(ivData);
         
-        date = ByteBuffer.allocate(Long.SIZE / Byte.SIZE).putLong(System.currentTimeMillis()).array();                
+        date = ByteBuffer.allocate(Long.SIZE / Byte.SIZE).putLong(cacheDate).array();                
         
         cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(this.keyAES, "AES"),iv);
         cipher.update(date);
@@ -222,7 +343,7 @@ public final class SmartCardFileCache {
     }
     
     
-    private byte[] decipherCache(byte[] bundle) throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException, IllegalBlockSizeException, BadPaddingException, InvalidAlgorithmParameterException{
+    private CacheEntry decipherCache(byte[] bundle) throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException, IllegalBlockSizeException, BadPaddingException, InvalidAlgorithmParameterException{
         Cipher cipher;
         byte[] ivData;
         IvParameterSpec iv;
@@ -251,11 +372,16 @@ public final class SmartCardFileCache {
         
         long cacheDate = ((ByteBuffer) (ByteBuffer.allocate(Long.SIZE / Byte.SIZE).put(Arrays.copyOfRange(decipheredContent, 0, 8)).flip())).getLong();
 
-        return cacheStatus.isValid(cacheDate) ? Arrays.copyOfRange(decipheredContent, 8, decipheredContent.length) : null;        
+        return new CacheEntry(decipheredContent, 8, decipheredContent.length - 8, cacheDate);
     }
     
     
     private void removeCacheFile(String fileId) {
+        memoryCache.remove(fileId);
+        if (null != store) {
+            store.remove(fileId);
+            return;
+        }
         try {
             Files.deleteIfExists(FileSystems.getDefault().getPath(POReIDConfig.cacheLocation, fileId));
         } catch (IOException ignore) {
@@ -265,12 +391,93 @@ public final class SmartCardFileCache {
     
     public void enforceCacheThreshold() {                
         if (cacheStatus.isEnabled() && POReIDConfig.getCacheThreshold() != POReIDConfig.NO_CACHE_THRESHOLD) {
+            if (null != store) {
+                for (String fileId : store.enforceThreshold(POReIDConfig.getCacheThreshold())) { // percorre apenas o índice, não é necessária uma thread
+                    memoryCache.remove(fileId);
+                }
+                return;
+            }
             Thread thread = new Thread(new Work(),"enforce cache threshold");
             thread.start();
         }
     }
     
     
+    /*
+     * Conteúdo decifrado de um ficheiro em cache e respetiva data de escrita
+     */
+    static final class CacheEntry {
+        private final byte[] buffer;
+        private final int offset;
+        private final int length;
+        private final long cacheDate;
+        
+        CacheEntry(byte[] buffer, int offset, int length, long cacheDate) {
+            this.buffer = buffer;
+            this.offset = offset;
+            this.length = length;
+            this.cacheDate = cacheDate;
+        }
+        
+        public byte[] getContents() {
+            return Arrays.copyOfRange(buffer, offset, offset + length);
+        }
+        
+        public long getCacheDate() {
+            return cacheDate;
+        }
+        
+        public int size() {
+            return length;
+        }
+    }
+    
+    
+    /*
+     * Cache em memória (partilhada entre instâncias) dos ficheiros decifrados, com remoção LRU quando o tamanho total excede o limite
+     */
+    static final class MemoryCache {
+        private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private final int maxSize;
+        private int size = 0;
+        
+        MemoryCache(int maxSize) {
+            this.maxSize = maxSize;
+        }
+        
+        public synchronized boolean contains(String fileId) {
+            return entries.containsKey(fileId);
+        }
+        
+        public synchronized CacheEntry get(String fileId) {
+            return entries.get(fileId);
+        }
+        
+        public synchronized void put(String fileId, CacheEntry entry) {
+            if (entry.size() > maxSize) {
+                remove(fileId);
+                return;
+            }
+            
+            CacheEntry previous = entries.put(fileId, entry);
+            size += entry.size() - (null != previous ? previous.size() : 0);
+            
+            Iterator<CacheEntry> iterator = entries.values().iterator();
+            while (size > maxSize && iterator.hasNext()) {
+                size -= iterator.next().size();
+                iterator.remove();
+            }
+        }
+        
+        public synchronized void remove(String fileId) {
+            CacheEntry previous = entries.remove(fileId);
+            if (null != previous) {
+                size -= previous.size();
+            }
+        }
+    }
+    
+    
     class CacheInfo {
         private final ArrayList<String> fileNames;
         private long millis;
@@ -43,6 +43,7 @@ public final class TerminalFeatures {
     private final String readerName;
     private static final byte FEATURE_VERIFY_PIN_DIRECT = 0x06;
     private static final byte FEATURE_MODIFY_PIN_DIRECT = 0x07;              
+    private static final byte TLV_PROPERTY_MAX_APDU_DATA_SIZE = 0x0A;   // http://www.pcscworkgroup.com/specifications/files/pcsc10_v2.02.09.pdf -- 2.6.14
     private static final byte MICROSOFT_DEVICE_TYPE__SMARTCARD = 0x31;  // http://research.microsoft.com/en-us/um/redmond/projects/invisible/src/drivers/net/simnic/devioctl.h.htm
     private static final int SCARD_CTL_BASE_CODE = 0x42000000;          // reader.h pcsc - *nix code 
     private static final int GET_FEATURE_REQUEST = 3400;                // http://www.pcscworkgroup.com/specifications/files/pcsc10_v2.02.09.pdf
@@ -116,6 +117,36 @@ public final class TerminalFeatures {
     }
     
     
+    /**
+     * Devolve o tamanho máximo dos dados de um APDU suportado pelo leitor (propriedade dwMaxAPDUDataSize)
+     * @return tamanho máximo em bytes, 0 se o leitor apenas suporta APDUs curtos ou -1 se o leitor não disponibiliza esta informação
+     */
+    public int getMaxAPDUDataSize() {
+        byte[] properties;
+        int idx = 0;
+        
+        try {
+            properties = card.getTlvProperties();
+        } catch (CardException | IllegalStateException e) {
+            return -1;
+        }
+        
+        while (idx + 1 < properties.length) {
+            int length = properties[idx + 1] & 0xFF;
+            if (TLV_PROPERTY_MAX_APDU_DATA_SIZE == properties[idx] && idx + 2 + length <= properties.length) {
+                int value = 0;
+                for (int i = length - 1; i >= 0; i--) {
+                    value = (value << 8) | (properties[idx + 2 + i] & 0xFF);
+                }
+                return value;
+            }
+            idx += 2 + length;
+        }
+        
+        return -1;
+    }
+    
+    
     private Integer getFeature(byte featureTag) {
         byte[] features;
 
@@ -23,11 +23,13 @@
  */
 package org.poreid.cc;
 
+import java.io.InputStream;
 import java.math.BigInteger;
 import java.nio.charset.StandardCharsets;
 import java.security.KeyFactory;
 import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
+import java.security.cert.CertificateException;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.RSAPublicKeySpec;
 import java.text.MessageFormat;
@@ -75,6 +77,19 @@ public abstract class CitizenCard extends POReIDCard implements CitizenData{
     }
 
     
+    @Override
+    public final InputStream openPhotoStream() throws SmartCardFileException {
+        try {
+            if (null != ccpa){
+                return ccpa.openStream();
+            }
+            return openFile(getFileDescription().PHOTO, null);
+        } catch (PinTimeoutException | PinEntryCancelledException | PinBlockedException | POReIDException ex) {
+            throw new SmartCardFileException("Erro durante a leitura da fotografia. Não foi possivel ler os dados.", ex);
+        }
+    }
+    
+    
     @Override
     public final CitizenCardIdAttributes getID() throws SmartCardFileException {
         try {
@@ -129,6 +144,28 @@ public abstract class CitizenCard extends POReIDCard implements CitizenData{
     }
     
     
+    @Override
+    public final void preloadCitizenData() throws SmartCardFileException {
+        try {
+            Files files = getFileDescription();
+            byte[][] contents = readFiles(files.ID, files.PHOTO, files.SOD, files.AuthenticationCertificate, files.QualifiedSignatureCertificate);
+            
+            if (null == ccia) {
+                ccia = new CitizenCardIdAttributes(contents[0]);
+            }
+            if (null == ccpa) {
+                ccpa = new CitizenCardPhotoAttributes(contents[1]);
+            }
+            if (null == sod) {
+                sod = contents[2];
+            }
+            setPreloadedCertificates(contents[3], contents[4]);
+        } catch (PinTimeoutException | PinEntryCancelledException | PinBlockedException | POReIDException | CertificateException ex) {
+            throw new SmartCardFileException("Erro durante a leitura dos dados do cidadão. Não foi possivel ler os dados.", ex);
+        }
+    }
+    
+    
     @Override
     public final String getUIVisibleInfo(){
         if (visibleInfo == null){
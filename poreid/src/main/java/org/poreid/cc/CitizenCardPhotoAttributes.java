@@ -23,6 +23,8 @@
  */
 package org.poreid.cc;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
@@ -92,7 +94,7 @@ public final class CitizenCardPhotoAttributes {
             md.update(firf.getCbeff());
             md.update(firf.getFacialRecordHeader());
             md.update(firf.getFacialRecordData());
-            md.update(Arrays.copyOfRange(photo,80,photo.length));
+            md.update(photo, 80, photo.length - 80);
             
             digest = md.digest();
         }
@@ -100,6 +102,11 @@ public final class CitizenCardPhotoAttributes {
         return digest;
     }
     
+    
+    InputStream openStream(){
+        return new ByteArrayInputStream(data);
+    }
+    
           
     private void checkNLoad(){
         if (!isdataLoaded){
@@ -132,7 +139,7 @@ public final class CitizenCardPhotoAttributes {
             }
         }
 
-        photo = Arrays.copyOfRange(data, 0/*80*/, offset + 1); //RUIM: a applet envia os primeiros 80 bytes, logo este componente tem de trabalhar da mesma forma...
+        photo = (offset + 1 == data.length ? data : Arrays.copyOfRange(data, 0/*80*/, offset + 1)); //RUIM: a applet envia os primeiros 80 bytes, logo este componente tem de trabalhar da mesma forma...
         isdataLoaded = true;
     }
 }
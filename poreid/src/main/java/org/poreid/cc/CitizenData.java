@@ -23,6 +23,7 @@
  */
 package org.poreid.cc;
 
+import java.io.InputStream;
 import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
 import java.security.spec.InvalidKeySpecException;
@@ -80,6 +81,14 @@ public interface CitizenData {
      */
     CitizenCardPhotoAttributes getPhotoData() throws SmartCardFileException;
 
+    /**
+     * Retorna um fluxo sobre os metadados e a foto no formato jpeg2000, lidos do cartão à medida que o fluxo é consumido.
+     * O fluxo deve ser consumido antes de ser efetuada qualquer outra operação sobre o cartão.
+     * @return fluxo sobre os metadados e a foto no formato jpeg2000
+     * @throws SmartCardFileException Exceção lançada quando ocorre um erro durante uma operação sobre um ficheiro existente no cartão
+     */
+    InputStream openPhotoStream() throws SmartCardFileException;
+
     /**
      * Retorna o conteúdo do ficheiro SOD
      * @return conteúdo do ficheiro SOD
@@ -87,6 +96,13 @@ public interface CitizenData {
      */
     byte[] getSOD() throws SmartCardFileException;
 
+    /**
+     * Lê numa única transação a identificação, a fotografia, o SOD e os certificados de autenticação e de assinatura qualificada.
+     * As invocações seguintes de getID, getPhotoData, getSOD, getAuthenticationCertificate e getQualifiedSignatureCertificate não acedem ao cartão.
+     * @throws SmartCardFileException Exceção lançada quando ocorre um erro durante uma operação sobre um ficheiro existente no cartão
+     */
+    void preloadCitizenData() throws SmartCardFileException;
+
     /**
      * Grava as notas pessoais no cartão. Este método deve ser invocado com as notas pessoais completas e não apenas o excerto modificado.
      * @param notes notas pessoais do cidadão para gravar no cartão
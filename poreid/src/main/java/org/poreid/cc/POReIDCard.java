@@ -37,6 +37,7 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
@@ -45,12 +46,20 @@ import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.ResourceBundle;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import org.poreid.POReIDSmartCard;
 import org.poreid.SmartCardFile;
@@ -90,10 +99,14 @@ public abstract class POReIDCard implements POReIDSmartCard {
     private final String aid;
     private String cardPan = null;
     private CertificateFactory certificateFactory = null;
+    private X509Certificate authenticationCertificate = null;
+    private X509Certificate qualifiedSignatureCertificate = null;
     private final int BLOCK_SIZE_READ = 0x100;
+    private final int MAX_BLOCK_SIZE_READ = 0x1000; // limitado pelo buffer de receção do SCardTransmit (8192 bytes)
     private final int BLOCK_SIZE_WRITE = 0xF8;
     private final int RETRY_COUNT = 3;
 	protected final int NO_FCI = -1;
+    private final int NOT_SELECTED = -2;
     private SmartCardFileCache fileCache;
     private final TerminalFeatures terminalFeatures;
     private final Locale locale;
@@ -101,6 +114,15 @@ public abstract class POReIDCard implements POReIDSmartCard {
     private final ResourceBundle bundle;
     private boolean otpPinChanging;
     private boolean locked;
+    private int readBlockSize = 0;
+    private static final ExecutorService READ_AHEAD = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "smart card file read-ahead");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
     
     protected POReIDCard(CardSpecificReferences csr, org.poreid.CacheStatus cacheStatus) {
         this.csr = csr;
@@ -122,16 +144,18 @@ public abstract class POReIDCard implements POReIDSmartCard {
 
     
     private byte[] readBinary(int offset, int size) throws IOException, SecurityStatusNotSatisfiedException, POReIDException {
-        boolean availableFCI = (size != NO_FCI);        
-        int blockSize = (!availableFCI || size > BLOCK_SIZE_READ ? BLOCK_SIZE_READ : size);
+        boolean availableFCI = (size != NO_FCI && size > 0);
+        byte[] data = new byte[availableFCI ? size : BLOCK_SIZE_READ];
+        int count = 0;
+        int blockSize = BLOCK_SIZE_READ;
         
         try {
-            ByteArrayOutputStream data = new ByteArrayOutputStream();
             byte[] chunk = new byte[0];
             int retry = 0;
             
-            do {                
-                CommandAPDU readBinaryApdu = new CommandAPDU(0x00, 0xB0, offset >> 8, offset & 0xFF, (availableFCI ? (BLOCK_SIZE_READ > size ? size : BLOCK_SIZE_READ) : blockSize));
+            do {
+                blockSize = (availableFCI ? Math.min(getReadBlockSize(), size - count) : BLOCK_SIZE_READ);
+                CommandAPDU readBinaryApdu = new CommandAPDU(0x00, 0xB0, offset >> 8, offset & 0xFF, blockSize);
                 ResponseAPDU responseApdu = channel.transmit(readBinaryApdu, true, true);
                 int sw = responseApdu.getSW();
 
@@ -143,10 +167,15 @@ public abstract class POReIDCard implements POReIDSmartCard {
                     throw new SecurityStatusNotSatisfiedException("Necessário fornecer pin para utilizar recurso.");
                 }
                 
+                if (blockSize > BLOCK_SIZE_READ && (0x6700 == sw || 0x6C00 == (sw & 0xFF00))) {
+                    readBlockSize = BLOCK_SIZE_READ; // o cartão ou o leitor não aceitaram o comprimento do APDU extendido
+                    continue;
+                }
+                
                 if (0x9000 != sw) {
                     if (!card.isValid() || retry > RETRY_COUNT) {
                         byte[] apdu = responseApdu.getBytes();                                
-                        throw new IOException("Código de estado não esperado: [" + Integer.toHexString(responseApdu.getSW())+"] - ["+responseApdu.getSW()+"], responseAPDU size: "+ apdu.length + ", sw1 = "+(apdu[apdu.length - 2] & 0xff)+", sw2 = "+(apdu[apdu.length - 1] & 0xff)+", retry = "+retry+", data size = "+data.size());
+                        throw new IOException("Código de estado não esperado: [" + Integer.toHexString(responseApdu.getSW())+"] - ["+responseApdu.getSW()+"], responseAPDU size: "+ apdu.length + ", sw1 = "+(apdu[apdu.length - 2] & 0xff)+", sw2 = "+(apdu[apdu.length - 1] & 0xff)+", retry = "+retry+", data size = "+count);
                     } else {
                         retry++;
                         continue;
@@ -154,18 +183,78 @@ public abstract class POReIDCard implements POReIDSmartCard {
                 }
                 
                 chunk = responseApdu.getData();
-                data.write(chunk);
+                if (0 == chunk.length) {
+                    break;
+                }
+                if (count + chunk.length > data.length) {
+                    data = Arrays.copyOf(data, Math.max(data.length << 1, count + chunk.length));
+                }
+                System.arraycopy(chunk, 0, data, count, chunk.length);
                 offset += chunk.length;
-                size -= chunk.length;                
-            } while (BLOCK_SIZE_READ == chunk.length || retry != 0);
+                count += chunk.length;
+            } while (availableFCI ? count < size : (BLOCK_SIZE_READ == chunk.length || retry != 0));
             
-            return data.toByteArray();
+            return (count == data.length ? data : Arrays.copyOf(data, count));
         } catch (CardException ex) {
+            if (blockSize > BLOCK_SIZE_READ) {
+                readBlockSize = BLOCK_SIZE_READ;
+            }
             throw new POReIDException(ex);
         }
     }
     
     
+    /*
+     * Determina uma única vez por sessão o número máximo de bytes a pedir em cada READ BINARY.
+     * APDUs extendidos apenas são utilizados com o protocolo T=1, quando o cartão os anuncia no ATR
+     * e o leitor não indica que apenas suporta APDUs curtos.
+     */
+    private int getReadBlockSize() {
+        if (0 == readBlockSize) {
+            readBlockSize = BLOCK_SIZE_READ;
+            if ("T=1".equals(card.getProtocol()) && isExtendedLengthSupported()) {
+                int maxAPDUDataSize = terminalFeatures.getMaxAPDUDataSize();
+                if (maxAPDUDataSize < 0 || maxAPDUDataSize > MAX_BLOCK_SIZE_READ) {
+                    readBlockSize = MAX_BLOCK_SIZE_READ;
+                } else if (maxAPDUDataSize > BLOCK_SIZE_READ) {
+                    readBlockSize = maxAPDUDataSize;
+                }
+            }
+        }
+        
+        return readBlockSize;
+    }
+    
+    
+    /*
+     * Card capabilities (ISO/IEC 7816-4 8.1.1.2.7) - bit 7 do terceiro byte indica o suporte de Lc e Le extendidos
+     */
+    private boolean isExtendedLengthSupported() {
+        byte[] historical = card.getATR().getHistoricalBytes();
+        int end = historical.length;
+        int index = 1;
+        
+        if (0 == end || (0x00 != historical[0] && (byte) 0x80 != historical[0])) {
+            return false;
+        }
+        
+        if (0x00 == historical[0]) {
+            end -= 3; // indicador de estado obrigatório nos últimos 3 bytes
+        }
+        
+        while (index < end) {
+            int tag = (historical[index] >> 4) & 0x0F;
+            int length = historical[index] & 0x0F;
+            if (0x07 == tag && length >= 3 && index + 3 < historical.length) {
+                return 0 != (historical[index + 3] & 0x40);
+            }
+            index += length + 1;
+        }
+        
+        return false;
+    }
+    
+    
     @Override
     public final boolean verifyPin(Pin pin, byte[] pinCode) throws PinTimeoutException, PinEntryCancelledException, PinBlockedException, POReIDException {       
         if (!CCConfig.isExternalPinCachePermitted() && !otpPinChanging){
@@ -413,73 +502,343 @@ public abstract class POReIDCard implements POReIDSmartCard {
     }
 
     protected final byte[] readFile(SmartCardFile file, byte[] pinCode) throws PinEntryCancelledException, PinBlockedException, POReIDException, PinTimeoutException {
+        return readFiles(pinCode, file)[0];
+    }
+    
+    /**
+     * Lê um conjunto de ficheiros numa única transação exclusiva. Os ficheiros que partilham o mesmo
+     * identificador (ex: identificação, fotografia e chave pública) são selecionados apenas uma vez.
+     * @param files ficheiros a ler
+     * @return conteúdo dos ficheiros, pela mesma ordem em que foram indicados
+     */
+    protected final byte[][] readFiles(SmartCardFile... files) throws PinEntryCancelledException, PinBlockedException, POReIDException, PinTimeoutException {
+        return readFiles(null, files);
+    }
+    
+    
+    private byte[][] readFiles(byte[] pinCode, SmartCardFile... files) throws PinEntryCancelledException, PinBlockedException, POReIDException, PinTimeoutException {
+        Map<String, List<Integer>> groups = new LinkedHashMap<>();
+        byte[][] contents = new byte[files.length][];
+        
+        for (int i = 0; i < files.length; i++) {
+            List<Integer> group = groups.get(files[i].getFileId());
+            if (null == group) {
+                group = new ArrayList<>();
+                groups.put(files[i].getFileId(), group);
+            }
+            group.add(i);
+        }
+        
+        loadData();
+        try {
+            for (List<Integer> group : groups.values()) {
+                int lenght_sel = NOT_SELECTED;
+                for (int i : group) {
+                    SmartCardFile file = files[i];
+                    String idFileid = this.fileCache.getSCFileCacheFileName(file);
+                    boolean readComplete = false;
+                    boolean recover = true;
+
+                    if (file.isCacheable() && this.fileCache.isCached(idFileid)) {
+                        if (file.isUpdateable()) {
+                            lenght_sel = selectFile(file.getFileId());
+                            try {
+                                contents[i] = this.fileCache.readNCheckCacheFile(file, readBinary(file.getDiffOffset(), file.getDiffLenght()));
+                            } catch (SecurityStatusNotSatisfiedException ignore) {
+                            }
+                        } else {
+                            contents[i] = this.fileCache.readCachedFile(idFileid);
+                        }
+
+                        if (null != contents[i]) {
+                            continue;
+                        }
+                    }
+                    
+                    do {
+                        try {
+                            if (NOT_SELECTED == lenght_sel) {
+                                lenght_sel = selectFile(file.getFileId());
+                            }
+                            contents[i] = readBinary(file, lenght_sel);
+                            readComplete = true;
+                        } catch (POReIDException ex) {
+                            lenght_sel = NOT_SELECTED;
+                            if (recover) {
+                                reconnect(ex.getCause());
+                                recover = false;
+                            } else {
+                                throw ex;
+                            }
+                        } catch (SecurityStatusNotSatisfiedException ex) {
+                            lenght_sel = NOT_SELECTED;
+                            if (null != file.getPin()) {
+                                verifyPin(file.getPin(), pinCode);
+                            } else {
+                                throw new POReIDException(ex);
+                            }
+                        }
+                    } while (!readComplete);
+
+                    if (file.isCacheable()) {
+                        this.fileCache.writeCacheFile(idFileid, contents[i]);
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            throw new POReIDException(ex.getMessage(), ex);
+        }
+
+        return contents;
+    }
+    
+    
+    /**
+     * Abre um fluxo sobre o ficheiro, o conteúdo é lido do cartão (em blocos de READ BINARY) à medida que é consumido,
+     * sendo o bloco seguinte lido antecipadamente enquanto o anterior é processado. Os ficheiros que podem ser guardados em cache
+     * são escritos na cache quando o fluxo é lido até ao fim.
+     * O fluxo deve ser consumido ou fechado antes de ser efetuada qualquer outra operação sobre o cartão.
+     * @param file ficheiro a ler
+     * @param pinCode pin a utilizar caso o ficheiro esteja protegido
+     * @return fluxo sobre o conteúdo do ficheiro
+     */
+    protected final InputStream openFile(SmartCardFile file, byte[] pinCode) throws PinEntryCancelledException, PinBlockedException, POReIDException, PinTimeoutException {
         String idFileid;
-        byte[] contents = null;
-        int lenght_sel;
-        int offset, lenght;
-        boolean readComplete = false;
         boolean recover = true;
-
+        
         loadData();
         idFileid = this.fileCache.getSCFileCacheFileName(file);
-        try {
-            if (file.isCacheable() && this.fileCache.isCached(idFileid)) {
-                if (file.isUpdateable()) {
-                    selectFile(file.getFileId());
-                    try {
-                        contents = this.fileCache.readNCheckCacheFile(file, readBinary(file.getDiffOffset(), file.getDiffLenght()));
-                    } catch (SecurityStatusNotSatisfiedException ignore) {
-                    }
+        if (file.isCacheable() && !file.isUpdateable() && this.fileCache.isCached(idFileid)) {
+            byte[] contents = this.fileCache.readCachedFile(idFileid);
+            if (null != contents) {
+                return new ByteArrayInputStream(contents);
+            }
+        }
+        
+        do {
+            try {
+                SmartCardFileInputStream input = new SmartCardFileInputStream(file, pinCode, idFileid, selectFile(file.getFileId()));
+                input.fill();
+                return input;
+            } catch (POReIDException ex) {
+                if (recover) {
+                    reconnect(ex.getCause());
+                    recover = false;
                 } else {
-                    contents = this.fileCache.readCachedFile(idFileid);
+                    throw ex;
                 }
-
-                if (null != contents) {
-                    return contents;
+            } catch (SecurityStatusNotSatisfiedException ex) {
+                if (null != file.getPin()) {
+                    verifyPin(file.getPin(), pinCode);
+                } else {
+                    throw new POReIDException(ex);
                 }
+            } catch (IOException ex) {
+                throw new POReIDException(ex.getMessage(), ex);
             }
-                        
-            do {                
-                try {                    
-                    lenght_sel = selectFile(file.getFileId());
-                    if (-1 != file.getOffset()) {
-                        if (-1 != file.getLenght()) {
-                            lenght = file.getLenght();
-                        } else {
-                            lenght = (lenght_sel != NO_FCI ? lenght_sel - file.getOffset() : lenght_sel);
-                        }
-                        offset = file.getOffset();
-                    } else {
-                        offset = 0;
-                        lenght = lenght_sel;
+        } while (true);
+    }
+    
+    
+    private final class SmartCardFileInputStream extends InputStream {
+        private final SmartCardFile file;
+        private final byte[] pinCode;
+        private final String idFileid;
+        private int offset;
+        private int remaining;
+        private byte[] buffer = new byte[0];
+        private int position = 0;
+        private boolean eof = false;
+        private Future<byte[]> next = null;
+        private int nextSize;
+        private ByteArrayOutputStream contents;
+        
+        private SmartCardFileInputStream(SmartCardFile file, byte[] pinCode, String idFileid, int lenght_sel) {
+            this.file = file;
+            this.pinCode = pinCode;
+            this.idFileid = idFileid;
+            this.contents = file.isCacheable() ? new ByteArrayOutputStream() : null;
+            
+            if (-1 != file.getOffset()) {
+                offset = file.getOffset();
+                remaining = (-1 != file.getLenght() ? file.getLenght() : (lenght_sel != NO_FCI ? lenght_sel - file.getOffset() : lenght_sel));
+            } else {
+                offset = 0;
+                remaining = lenght_sel;
+            }
+            
+            if (0 >= remaining) {
+                remaining = NO_FCI;
+            }
+        }
+        
+        private int blockSize() {
+            return (NO_FCI == remaining ? BLOCK_SIZE_READ : Math.min(getReadBlockSize(), remaining));
+        }
+        
+        /*
+         * Lê o primeiro bloco, os erros são tratados por openFile, e inicia a leitura antecipada do seguinte
+         */
+        private void fill() throws IOException, SecurityStatusNotSatisfiedException, POReIDException {
+            int blockSize = blockSize();
+            
+            accept(readBinary(offset, blockSize), blockSize);
+            readAhead();
+        }
+        
+        private void accept(byte[] chunk, int blockSize) {
+            buffer = chunk;
+            position = 0;
+            offset += chunk.length;
+            if (NO_FCI != remaining) {
+                remaining -= chunk.length;
+            }
+            eof = (0 == chunk.length || 0 == remaining || chunk.length < blockSize);
+            
+            if (null != contents) {
+                contents.write(chunk, 0, chunk.length);
+                if (eof) {
+                    fileCache.writeCacheFile(idFileid, contents.toByteArray());
+                    contents = null;
+                }
+            }
+        }
+        
+        private void readAhead() {
+            if (!eof) {
+                final int chunkOffset = offset;
+                final int chunkSize = nextSize = blockSize();
+                next = READ_AHEAD.submit(new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() throws Exception {
+                        return readChunk(chunkOffset, chunkSize);
                     }
-                    
-                    contents = readBinary(offset, lenght);
-                    readComplete = true;
-                } catch (POReIDException ex){
+                });
+            }
+        }
+        
+        /*
+         * Lê um bloco, recuperando a ligação ao cartão ou verificando o pin e voltando a selecionar o ficheiro quando necessário
+         */
+        private byte[] readChunk(int chunkOffset, int chunkSize) throws IOException, POReIDException, PinEntryCancelledException, PinBlockedException, PinTimeoutException {
+            boolean recover = true;
+            boolean reselect = false;
+            
+            do {
+                try {
+                    if (reselect) {
+                        selectFile(file.getFileId());
+                        reselect = false;
+                    }
+                    return readBinary(chunkOffset, chunkSize);
+                } catch (POReIDException ex) {
                     if (recover) {
                         reconnect(ex.getCause());
-                        recover = false;                        
+                        recover = false;
+                        reselect = true;
                     } else {
                         throw ex;
-                    }                    
+                    }
                 } catch (SecurityStatusNotSatisfiedException ex) {
                     if (null != file.getPin()) {
                         verifyPin(file.getPin(), pinCode);
+                        reselect = true;
                     } else {
                         throw new POReIDException(ex);
                     }
                 }
-            } while (!readComplete);
-
-            if (file.isCacheable()) {
-                this.fileCache.writeCacheFile(idFileid, contents);
+            } while (true);
+        }
+        
+        private boolean ensureAvailable() throws IOException {
+            while (position == buffer.length) {
+                if (null == next) {
+                    return false;
+                }
+                
+                byte[] chunk;
+                try {
+                    chunk = next.get();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException(ex.getMessage());
+                } catch (ExecutionException ex) {
+                    next = null;
+                    throw (ex.getCause() instanceof IOException) ? (IOException) ex.getCause() : new IOException(ex.getCause().getMessage(), ex.getCause());
+                }
+                
+                next = null;
+                accept(chunk, nextSize);
+                readAhead();
             }
-        } catch (IOException ex) {
-            throw new POReIDException(ex.getMessage(), ex);
+            
+            return true;
         }
-
-        return contents;
+        
+        @Override
+        public int read() throws IOException {
+            return ensureAvailable() ? buffer[position++] & 0xFF : -1;
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (0 == len) {
+                return 0;
+            }
+            if (!ensureAvailable()) {
+                return -1;
+            }
+            
+            int count = Math.min(len, buffer.length - position);
+            System.arraycopy(buffer, position, b, off, count);
+            position += count;
+            
+            return count;
+        }
+        
+        @Override
+        public int available() {
+            return buffer.length - position;
+        }
+        
+        /*
+         * Aguarda pelo fim da leitura antecipada em curso, para que o cartão possa ser utilizado de seguida
+         */
+        @Override
+        public void close() throws IOException {
+            if (null != next) {
+                try {
+                    next.get();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException ignore) {
+                }
+                next = null;
+            }
+            buffer = new byte[0];
+            position = 0;
+            eof = true;
+            contents = null;
+        }
+    }
+    
+    
+    private byte[] readBinary(SmartCardFile file, int lenght_sel) throws IOException, SecurityStatusNotSatisfiedException, POReIDException {
+        int offset, lenght;
+        
+        if (-1 != file.getOffset()) {
+            if (-1 != file.getLenght()) {
+                lenght = file.getLenght();
+            } else {
+                lenght = (lenght_sel != NO_FCI ? lenght_sel - file.getOffset() : lenght_sel);
+            }
+            offset = file.getOffset();
+        } else {
+            offset = 0;
+            lenght = lenght_sel;
+        }
+        
+        return readBinary(offset, lenght);
     }
     
     
@@ -559,25 +918,53 @@ public abstract class POReIDCard implements POReIDSmartCard {
     @Override
     public final X509Certificate getCertificate(SmartCardFile file) throws CertificateNotFound {
         try {
-            if (null == this.certificateFactory){
-                this.certificateFactory = CertificateFactory.getInstance("X.509");
-            }
-            return (X509Certificate) this.certificateFactory.generateCertificate(new ByteArrayInputStream(readFile(file)));
+            return toCertificate(readFile(file));
         } catch (PinTimeoutException | CertificateException | PinEntryCancelledException | PinBlockedException | POReIDException ex){
             throw new CertificateNotFound("Certificado não encontrado",ex);
         }
     }
     
     
+    private X509Certificate toCertificate(byte[] contents) throws CertificateException {
+        if (null == this.certificateFactory){
+            this.certificateFactory = CertificateFactory.getInstance("X.509");
+        }
+        return (X509Certificate) this.certificateFactory.generateCertificate(new ByteArrayInputStream(contents));
+    }
+    
+    
+    /**
+     * Guarda os certificados de autenticação e de assinatura qualificada lidos previamente (p.e. numa única transação com outros ficheiros),
+     * as invocações seguintes de getAuthenticationCertificate e getQualifiedSignatureCertificate não acedem ao cartão
+     * @param authentication conteúdo do certificado de autenticação
+     * @param qualifiedSignature conteúdo do certificado de assinatura qualificada
+     * @throws CertificateException Exceção lançada quando o conteúdo não corresponde a um certificado
+     */
+    protected final void setPreloadedCertificates(byte[] authentication, byte[] qualifiedSignature) throws CertificateException {
+        if (null == authenticationCertificate) {
+            authenticationCertificate = toCertificate(authentication);
+        }
+        if (null == qualifiedSignatureCertificate) {
+            qualifiedSignatureCertificate = toCertificate(qualifiedSignature);
+        }
+    }
+    
+    
     @Override
     public final X509Certificate getAuthenticationCertificate() throws CertificateNotFound {
-        return this.getCertificate(files.AuthenticationCertificate);
+        if (null != authenticationCertificate) {
+            return authenticationCertificate;
+        }
+        return authenticationCertificate = this.getCertificate(files.AuthenticationCertificate);
     }
 
     
     @Override
     public final X509Certificate getQualifiedSignatureCertificate() throws CertificateNotFound {
-        return this.getCertificate(files.QualifiedSignatureCertificate);
+        if (null != qualifiedSignatureCertificate) {
+            return qualifiedSignatureCertificate;
+        }
+        return qualifiedSignatureCertificate = this.getCertificate(files.QualifiedSignatureCertificate);
     }
 
     
@@ -40,7 +40,7 @@ import javax.xml.bind.annotation.adapters.XmlJavaTypeAdapter;
 
 @XmlRootElement
 @XmlAccessorType(XmlAccessType.FIELD)
-@XmlType(propOrder = {"supportedSmartCards", "smartCardReaders", "locale", "externalPinCache", "timedInteraction", "cacheThreshold"})
+@XmlType(propOrder = {"supportedSmartCards", "smartCardReaders", "locale", "externalPinCache", "timedInteraction", "cacheThreshold", "cacheStore"})
 public class Configuration {
     @XmlJavaTypeAdapter(POReIDSupportedSmarCardsMapAdapter.class)
     @XmlElement(name = "poreid-supported-smartcards", required = true)
@@ -62,6 +62,9 @@ public class Configuration {
     
     @XmlElement(name = "cache-threshold")
     private int cacheThreshold; 
+    
+    @XmlElement(name = "cache-store")
+    private CacheStoreType cacheStore;
 
     
     public Map<String, POReIDSupportedSmartCardProperties> getSupportedSmartCards() {
@@ -122,4 +125,14 @@ public class Configuration {
     public void setcacheThreshold(int cacheThreshold){
         this.cacheThreshold = cacheThreshold;
     }
+    
+    
+    public CacheStoreType getCacheStore(){
+        return (null == cacheStore) ? CacheStoreType.FILES : cacheStore;
+    }
+    
+    
+    public void setCacheStore(CacheStoreType cacheStore){
+        this.cacheStore = cacheStore;
+    }
 }
@@ -56,6 +56,7 @@ public class POReIDConfig {
     public static final String ASSINATURA = "Assinatura";
     public static final String cacheDirectory = ".poreidcache";
     public static final String cacheLocation = System.getProperty("user.home") + System.getProperty("file.separator") + cacheDirectory + System.getProperty("file.separator");    
+    public static final String cacheStoreFileName = "poreid.cache";
     public static final String IMAGE_ERROR_LOCATION = "/org/poreid/images/erro.png";
     public static final String IMAGE_WARNING_LOCATION = "/org/poreid/images/aviso.png";
     public static final String IMAGE_SIGNATURE_LOCATION = "/org/poreid/images/assinatura.png";
@@ -242,4 +243,9 @@ public class POReIDConfig {
     public static int getCacheThreshold(){
         return config.getcacheThreshold();
     }
+    
+    
+    public static CacheStoreType getCacheStoreType(){
+        return config.getCacheStore();
+    }
 }
@@ -0,0 +1,60 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014, 2015, 2016 Rui Martinho (rmartinho@gmail.com), António Braz (antoniocbraz@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.poreid.pcscforjava;
+
+/**
+ * {@link CardEventListener CardEventListener} receives the insertion / removal
+ * of cards in the {@link CardTerminal CardTerminal} objects of a
+ * {@link CardTerminals CardTerminals} list.<br /><br />
+ * 
+ * The notifications are delivered by a monitor thread blocked in
+ * SCardGetStatusChange, as soon as the resource manager reports the change.
+ * The callbacks are invoked on that thread, so they should return quickly and
+ * hand off any lengthy work (e.g. reading the card) to another thread.
+ * 
+ * @see CardTerminals#addCardEventListener
+ *
+ * @author  POReID
+ */
+public interface CardEventListener {
+
+    /**
+     * Called when a card is inserted in a terminal. Also called for the cards
+     * already present when the monitor starts observing the terminal.
+     * 
+     * @param terminal the {@link CardTerminal CardTerminal} where the card
+     * was inserted.
+     */
+    void cardInserted(CardTerminal terminal);
+
+    /**
+     * Called when a card is removed from a terminal, or when a terminal with
+     * a card is disconnected.
+     * 
+     * @param terminal the {@link CardTerminal CardTerminal} where the card
+     * was removed.
+     */
+    void cardRemoved(CardTerminal terminal);
+}
@@ -225,6 +225,36 @@ public abstract class CardTerminals{
      */
     public abstract boolean isPlugAndPlaySupported() throws CardException;
 
+    /**
+     * Registers a listener which is notified of card insertions / removals
+     * in any terminal of this list, without polling.
+     *
+     * <p>The default implementation does not support event notification.</p>
+     *
+     * @param listener the {@link CardEventListener CardEventListener} to add.
+     *
+     * @throws NullPointerException if listener is null.
+     * @throws CardException if the card event monitor could not be started.
+     * @throws UnsupportedOperationException if this implementation does not
+     * support event notification.
+     */
+    public void addCardEventListener(CardEventListener listener)
+            throws CardException {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Removes a listener previously registered with
+     * {@linkplain #addCardEventListener}. The card event monitor is stopped
+     * when there are no more listeners.
+     *
+     * @param listener the {@link CardEventListener CardEventListener} to
+     * remove.
+     */
+    public void removeCardEventListener(CardEventListener listener) {
+        // empty
+    }
+
     /**
      * Enumeration of attributes of a CardTerminal.
      * It is used as a parameter to the {@linkplain CardTerminals#list} method.
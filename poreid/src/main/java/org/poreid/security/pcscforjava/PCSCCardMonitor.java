@@ -0,0 +1,308 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014, 2015, 2016 Rui Martinho (rmartinho@gmail.com), António Braz (antoniocbraz@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.poreid.security.pcscforjava;
+
+import org.poreid.pcscforjava.CardEventListener;
+import org.poreid.pcscforjava.CardException;
+import org.poreid.pcscforjava.CardTerminal;
+import org.poreid.pcscforjava.PCSCErrorValues;
+import static org.poreid.security.pcscforjava.PCSC.*;
+import static org.poreid.security.pcscforjava.PCSCDefines.*;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Class which monitors the insertion / removal of cards.<br /><br />
+ * 
+ * The monitor thread blocks in SCardGetStatusChange with the state of every
+ * reader, on its own resource manager context, and notifies the registered
+ * {@link CardEventListener CardEventListener} objects as soon as a change is
+ * reported. When Plug & Play is supported the special reader
+ * <code>\\?PnP?\Notification</code> is also observed so that the arrival of a
+ * new reader wakes the monitor; otherwise the wait is bounded by
+ * {@link #READER_RESCAN_TIMEOUT READER_RESCAN_TIMEOUT} to pick up new readers.
+ *
+ * @author  POReID
+ */
+final class PCSCCardMonitor implements Runnable {
+    
+    /**
+     * The name of the Plug & Play pseudo reader.
+     */
+    private static final String     PNP_NOTIFICATION = "\\\\?PnP?\\Notification";
+    /**
+     * The maximum wait, in milliseconds, when Plug & Play is not supported.
+     */
+    private static final long       READER_RESCAN_TIMEOUT = 1000;
+    /**
+     * The monitor instance.
+     */
+    private static PCSCCardMonitor  m_instance;
+    /**
+     * The registered listeners.
+     */
+    private final List<CardEventListener> m_listeners = 
+            new CopyOnWriteArrayList<CardEventListener>();
+    /**
+     * Indicates if the Plug & Play pseudo reader is observed.
+     */
+    private final boolean           m_bPnP;
+    /**
+     * The last state reported for each reader.
+     */
+    private final Map<String,Integer> m_states = new HashMap<String,Integer>();
+    /**
+     * The monitor context id.
+     */
+    private volatile long           m_lContextId;
+    /**
+     * Indicates if we stop or continue the execution of the thread.
+     */
+    private volatile boolean        m_bStop;
+    
+    /**
+     * Private constructor: singleton mode.
+     * @param bPnP true to observe the Plug & Play pseudo reader.
+     */
+    private PCSCCardMonitor(boolean bPnP)
+    {
+        this.m_bPnP = bPnP;
+    }
+    
+    /**
+     * Adds a listener, starting the monitor thread if needed.
+     * @param listener the listener to add.
+     * @param bPnP true if Plug & Play is supported.
+     * @throws CardException if the monitor context could not be established.
+     */
+    synchronized static void addListener(CardEventListener listener, 
+            boolean bPnP) throws CardException
+    {
+        if(null == m_instance)
+        {
+            PCSCCardMonitor _monitor = new PCSCCardMonitor(bPnP);
+            
+            try { _monitor.m_lContextId = 
+                    SCardEstablishContext(SCARD_SCOPE_SYSTEM); }
+            catch(PCSCException ex) {
+                throw new CardException("org.poreid.pcscforjava."
+                    + "PCSCCardMonitor.addListener "
+                    + "PCSCException: " + ex.getMessage(), ex);
+            }
+            
+            Thread _thread = new Thread(_monitor, "PCSCCardMonitor");
+            _thread.setDaemon(true);
+            _thread.start();
+            m_instance = _monitor;
+        }
+        
+        if(!m_instance.m_listeners.contains(listener))
+            m_instance.m_listeners.add(listener);
+    }
+    
+    /**
+     * Removes a listener, stopping the monitor thread when there are no more
+     * listeners.
+     * @param listener the listener to remove.
+     */
+    synchronized static void removeListener(CardEventListener listener)
+    {
+        if(null == m_instance)
+            return;
+        
+        m_instance.m_listeners.remove(listener);
+        if(m_instance.m_listeners.isEmpty())
+        {
+            m_instance.m_bStop = true;
+            try { SCardCancel(m_instance.m_lContextId); }
+            catch(PCSCException ex) {}
+            m_instance = null;
+        }
+    }
+    
+    /**
+     * The thread running method.
+     */
+    @Override
+    public void run() {
+        while(!m_bStop)
+        {
+            try
+            {
+                if(this.m_lContextId == 0)
+                    this.m_lContextId = SCardEstablishContext(SCARD_SCOPE_SYSTEM);
+                
+                waitForEvent();
+            }
+            catch(PCSCException ex)
+            {
+                if(ex.code == PCSCErrorValues.SCARD_E_TIMEOUT)
+                    continue;
+                if(m_bStop)
+                    break;
+                
+                // The resource manager was restarted or is not available.
+                releaseContext();
+                try { Thread.sleep(READER_RESCAN_TIMEOUT); } 
+                catch (InterruptedException ie) { break; }
+            }
+        }
+        
+        releaseContext();
+    }
+    
+    /**
+     * Waits for a change in the readers and notifies the listeners.
+     * @throws PCSCException if a PC/SC exception occurs.
+     */
+    private void waitForEvent() throws PCSCException
+    {
+        String[] _readers;
+        
+        try { _readers = SCardListReaders(this.m_lContextId); }
+        catch(PCSCException ex) {
+            if(ex.code != PCSCErrorValues.SCARD_E_NO_READERS_AVAILABLE)
+                throw ex;
+            _readers = new String[0];
+        }
+        
+        if(_readers.length != this.m_states.size() || 
+                !this.m_states.keySet().containsAll(Arrays.asList(_readers)))
+            readersChanged(_readers);
+        
+        if(_readers.length == 0 && !this.m_bPnP)
+        {
+            try { Thread.sleep(READER_RESCAN_TIMEOUT); }
+            catch (InterruptedException ex) { this.m_bStop = true; }
+            return;
+        }
+        
+        String[] _names = this.m_bPnP ? 
+                Arrays.copyOf(_readers, _readers.length + 1) : _readers;
+        int[] _status = new int[_names.length];
+        
+        for(int _i = 0; _i < _readers.length; _i++)
+            _status[_i] = this.m_states.get(_readers[_i]);
+        if(this.m_bPnP)
+        {
+            _names[_readers.length] = PNP_NOTIFICATION;
+            // The number of readers is kept in the high word of the state.
+            _status[_readers.length] = _readers.length << 16;
+        }
+        
+        _status = SCardGetStatusChange(this.m_lContextId, 
+                this.m_bPnP ? TIMEOUT_INFINITE : READER_RESCAN_TIMEOUT, 
+                _status, _names);
+        
+        if(m_bStop || _status == null)
+            return;
+        
+        for(int _i = 0; _i < _readers.length; _i++)
+        {
+            boolean _bBefore = present(this.m_states.get(_readers[_i]));
+            boolean _bNow = present(_status[_i]);
+            
+            this.m_states.put(_readers[_i], _status[_i] & ~SCARD_STATE_CHANGED);
+            if(_bBefore != _bNow)
+                notifyListeners(_readers[_i], _bNow);
+        }
+    }
+    
+    /**
+     * Updates the list of observed readers. A removed reader with a card is
+     * notified as a card removal. The Plug & Play thread is also signaled so
+     * that the terminals list is refreshed without waiting for its next poll.
+     * @param readers the current reader names.
+     */
+    private void readersChanged(String[] readers)
+    {
+        Map<String,Integer> _previous = new HashMap<String,Integer>(this.m_states);
+        
+        this.m_states.clear();
+        for(String _reader : readers)
+        {
+            Integer _state = _previous.remove(_reader);
+            this.m_states.put(_reader, 
+                    (null == _state) ? SCARD_STATE_UNAWARE : _state);
+        }
+        
+        for(Map.Entry<String,Integer> _entry : _previous.entrySet())
+        {
+            if(present(_entry.getValue()))
+                notifyListeners(_entry.getKey(), false);
+        }
+        
+        PCSCTerminals.signalPnPEvent();
+    }
+    
+    /**
+     * Notifies the listeners of a card insertion / removal.
+     * @param reader the reader name.
+     * @param bInserted true for an insertion, false for a removal.
+     */
+    private void notifyListeners(String reader, boolean bInserted)
+    {
+        CardTerminal _terminal = PCSCTerminals.implGetTerminal(reader);
+        
+        for(CardEventListener _listener : this.m_listeners)
+        {
+            try {
+                if(bInserted)
+                    _listener.cardInserted(_terminal);
+                else
+                    _listener.cardRemoved(_terminal);
+            } catch (RuntimeException ex) {
+                System.err.println("PCSCCardMonitor listener error " 
+                        + ex.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Releases the monitor context.
+     */
+    private void releaseContext()
+    {
+        if(this.m_lContextId != 0)
+        {
+            try { SCardReleaseContext(this.m_lContextId); }
+            catch(PCSCException ex) {}
+            this.m_lContextId = 0;
+        }
+    }
+    
+    /**
+     * Returns true if the state indicates a card in the reader.
+     * @param state the reader state.
+     * @return true if the state indicates a card in the reader.
+     */
+    private static boolean present(int state)
+    {
+        return (state & SCARD_STATE_PRESENT) != 0;
+    }
+}
@@ -30,6 +30,7 @@ import org.poreid.pcscforjava.PCSCErrorValues;
 import org.poreid.pcscforjava.CardException;
 import org.poreid.pcscforjava.TerminalFactory;
 import org.poreid.pcscforjava.CardTerminalsEvent;
+import org.poreid.pcscforjava.CardEventListener;
 import java.util.*;
 import java.lang.ref.*;
 
@@ -123,7 +124,7 @@ final class PCSCTerminals extends CardTerminals {
      * @param name the name of the terminal.
      * @return the terminal.
      */
-    private static synchronized TerminalImpl implGetTerminal(String name) {
+    static synchronized TerminalImpl implGetTerminal(String name) {
         Reference<TerminalImpl> ref = terminals.get(name);
         TerminalImpl terminal = (ref != null) ? ref.get() : null;
         if (terminal != null) {
@@ -391,6 +392,56 @@ final class PCSCTerminals extends CardTerminals {
         return false;
     }
     
+    /**
+     * Registers a listener notified by the card monitor thread, which blocks
+     * in SCardGetStatusChange instead of polling.
+     * @param listener the listener to add.
+     * @throws CardException if the monitor could not be started.
+     */
+    @Override
+    public void addCardEventListener(CardEventListener listener) 
+            throws CardException
+    {
+        boolean _bPnP = false;
+        
+        if (listener == null) {
+            throw new NullPointerException();
+        }
+        
+        try { 
+            initContext();
+            _bPnP = isPlugAndPlaySupported();
+        } catch (PCSCException | CardException ex) {
+            System.err.println("PCSCTerminals addCardEventListener error " 
+                    + ex.getMessage());
+        }
+        
+        PCSCCardMonitor.addListener(listener, _bPnP);
+    }
+    
+    /**
+     * Removes a listener from the card monitor thread.
+     * @param listener the listener to remove.
+     */
+    @Override
+    public void removeCardEventListener(CardEventListener listener)
+    {
+        PCSCCardMonitor.removeListener(listener);
+    }
+    
+    /**
+     * Signals a reader change detected by the card monitor to the Plug & Play
+     * thread, so that the terminals list is updated without waiting for the
+     * next poll.
+     */
+    static void signalPnPEvent()
+    {
+        PCSCPnPThread _pnp = m_cardTerminalsThread;
+        
+        if(_pnp != null)
+            _pnp.signalEvent();
+    }
+    
     /**
      * Starts the Plug & Play thread.
      */
@@ -0,0 +1,421 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Rui Martinho (rmartinho@gmail.com), António Braz (antoniocbraz@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.poreid.verify.ocsp;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.SecureRandom;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import org.bouncycastle.asn1.ASN1Primitive;
+import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.ocsp.OCSPObjectIdentifiers;
+import org.bouncycastle.asn1.x509.AccessDescription;
+import org.bouncycastle.asn1.x509.AuthorityInformationAccess;
+import org.bouncycastle.asn1.x509.ExtendedKeyUsage;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.asn1.x509.KeyPurposeId;
+import org.bouncycastle.cert.CertException;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.ocsp.BasicOCSPResp;
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.bouncycastle.cert.ocsp.CertificateStatus;
+import org.bouncycastle.cert.ocsp.OCSPException;
+import org.bouncycastle.cert.ocsp.OCSPReq;
+import org.bouncycastle.cert.ocsp.OCSPReqBuilder;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.bouncycastle.cert.ocsp.RevokedStatus;
+import org.bouncycastle.cert.ocsp.SingleResp;
+import org.bouncycastle.cert.ocsp.jcajce.JcaCertificateID;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentVerifierProviderBuilder;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+import org.bouncycastle.x509.extension.X509ExtensionUtil;
+
+/**
+ * Serviço de validação por OCSP partilhável entre threads.
+ * <p>
+ * As respostas são guardadas em cache por emissor e número de série até ao nextUpdate indicado pelo respondedor
+ * (limitado à idade máxima configurada), os pedidos concorrentes para o mesmo certificado são agregados num único
+ * pedido e as ligações HTTP são reutilizadas (keep-alive) ao consumir e fechar integralmente cada resposta.
+ * @author POReID
+ */
+public final class OCSPService {
+    private static final long DEFAULT_MAX_AGE = TimeUnit.MINUTES.toMillis(5);
+    private static final int MAX_CACHED_RESPONSES = 4096;
+    private static final int NONCE_LENGTH = 16;
+    private static final int CONNECT_TIMEOUT = 10000;
+    private static final int READ_TIMEOUT = 15000;
+    private static final Provider provider = new BouncyCastleProvider();
+    private static final OCSPService defaultService = new OCSPService(DEFAULT_MAX_AGE);
+    private final Map<String, CachedResponse> cache;
+    private final ConcurrentHashMap<String, FutureTask<CachedResponse>> inFlight = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private final long maxAge;
+    
+    
+    /**
+     * Cria um serviço de validação por OCSP.
+     * @param maxAge Tempo máximo em milisegundos durante o qual uma resposta é reutilizada, mesmo que o nextUpdate seja posterior ou não exista. 0 desativa a cache.
+     */
+    public OCSPService(long maxAge) {
+        this.maxAge = maxAge;
+        this.cache = Collections.synchronizedMap(new LinkedHashMap<String, CachedResponse>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedResponse> eldest) {
+                return size() > MAX_CACHED_RESPONSES;
+            }
+        });
+    }
+    
+    
+    /**
+     * Obtém o serviço de validação partilhado, com uma idade máxima de 5 minutos para as respostas em cache.
+     * @return serviço de validação por OCSP
+     */
+    public static OCSPService getInstance() {
+        return defaultService;
+    }
+    
+    
+    /**
+     * Obtém a resposta OCSP relativa ao certificado, a partir da cache quando ainda válida.
+     * @param issuer Certificado do emissor
+     * @param certificate Certificado a validar
+     * @return resposta OCSP validada
+     * @throws OCSPValidationException Caso não seja possível obter ou validar a resposta
+     */
+    public CachedResponse getResponse(final X509Certificate issuer, final X509Certificate certificate) throws OCSPValidationException {
+        final String key = cacheKey(issuer, certificate);
+        CachedResponse cached = cache.get(key);
+        
+        if (null != cached && !cached.isExpired(System.currentTimeMillis())) {
+            return cached;
+        }
+        
+        FutureTask<CachedResponse> task = new FutureTask<>(new Callable<CachedResponse>() {
+            @Override
+            public CachedResponse call() throws OCSPValidationException {
+                CachedResponse response = fetch(issuer, certificate);
+                if (!response.isExpired(System.currentTimeMillis())) {
+                    cache.put(key, response);
+                }
+                return response;
+            }
+        });
+        
+        FutureTask<CachedResponse> running = inFlight.putIfAbsent(key, task);
+        if (null == running) {
+            running = task;
+            try {
+                task.run();
+            } finally {
+                inFlight.remove(key, task);
+            }
+        }
+        
+        try {
+            return running.get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof OCSPValidationException) {
+                throw (OCSPValidationException) ex.getCause();
+            }
+            throw new OCSPValidationException("Não foi possivel efetuar a validação através de OCSP (" + certificate.getSubjectX500Principal().getName() + ")", ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new OCSPValidationException("Validação através de OCSP interrompida (" + certificate.getSubjectX500Principal().getName() + ")", ex);
+        }
+    }
+    
+    
+    /**
+     * Obtém o estado do certificado.
+     * @param issuer Certificado do emissor
+     * @param certificate Certificado a validar
+     * @return estado do certificado
+     * @throws OCSPValidationException Caso não seja possível obter ou validar a resposta
+     */
+    public CertStatus getCertificateStatus(X509Certificate issuer, X509Certificate certificate) throws OCSPValidationException {
+        return getResponse(issuer, certificate).getCertStatus();
+    }
+    
+    
+    /**
+     * Remove todas as respostas em cache.
+     */
+    public void clear() {
+        cache.clear();
+    }
+    
+    
+    /* não é obrigatório que tenha, mas os certificados do CC têm */
+    static URL getOcspUrlFromCertificate(X509Certificate certificate) {
+        byte[] octetBytes = certificate.getExtensionValue(org.bouncycastle.asn1.x509.Extension.authorityInfoAccess.getId());
+        
+        if (null != octetBytes) {
+            try {
+                byte[] encoded = X509ExtensionUtil.fromExtensionValue(octetBytes).getEncoded();
+                ASN1Sequence seq = ASN1Sequence.getInstance(ASN1Primitive.fromByteArray(encoded));
+                AuthorityInformationAccess access = AuthorityInformationAccess.getInstance(seq);
+                for (AccessDescription accessDescription : access.getAccessDescriptions()){
+                    if (accessDescription.getAccessMethod().equals(AccessDescription.id_ad_ocsp)){
+                        return new URL(accessDescription.getAccessLocation().getName().toString());
+                    }
+                }                
+            } catch (IOException ignore) {
+            }
+        }
+
+        return null; /* null - correto */
+    }
+    
+    
+    private OCSPReq generateOCSPRequest(X509Certificate issuerCert, BigInteger serialNumber, byte[] nonce) throws CertificateEncodingException, OperatorCreationException, OCSPException, IOException {
+        OCSPReqBuilder gen = new OCSPReqBuilder();
+        gen.addRequest(new JcaCertificateID(new JcaDigestCalculatorProviderBuilder().setProvider(provider).build().get(CertificateID.HASH_SHA1), issuerCert, serialNumber));
+
+        Extension ext = new Extension(OCSPObjectIdentifiers.id_pkix_ocsp_nonce, true, new DEROctetString(nonce));
+        gen.setRequestExtensions(new Extensions(new Extension[]{ext}));
+
+        return gen.build();
+    }
+    
+    
+    private byte[] post(URL url, byte[] encodedOcspRequest) throws IOException, OCSPValidationException {
+        HttpURLConnection httpConnection = (HttpURLConnection) url.openConnection();
+        httpConnection.setConnectTimeout(CONNECT_TIMEOUT);
+        httpConnection.setReadTimeout(READ_TIMEOUT);
+        httpConnection.setRequestMethod("POST");
+        httpConnection.setRequestProperty("Content-Type", "application/ocsp-request");
+        httpConnection.setRequestProperty("Accept", "application/ocsp-response");
+        httpConnection.setFixedLengthStreamingMode(encodedOcspRequest.length);
+        httpConnection.setDoOutput(true);
+
+        try (OutputStream out = new BufferedOutputStream(httpConnection.getOutputStream())) {
+            out.write(encodedOcspRequest);
+        }
+
+        if (httpConnection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+            drain(httpConnection.getErrorStream());
+            throw new OCSPValidationException("Código HTTP recebido != 200 ["+httpConnection.getResponseCode()+"]");
+        }
+        
+        /* a ligação só volta a ser utilizável (keep-alive) depois de lida integralmente e fechada a resposta */
+        try (InputStream in = httpConnection.getInputStream()) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(Math.max(httpConnection.getContentLength(), 2048));
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                baos.write(buffer, 0, read);
+            }
+            return baos.toByteArray();
+        }
+    }
+    
+    
+    private static void drain(InputStream in) {
+        if (null != in) {
+            try (InputStream is = in) {
+                byte[] buffer = new byte[1024];
+                while (is.read(buffer) != -1) {
+                }
+            } catch (IOException ignore) {
+            }
+        }
+    }
+    
+    
+    private CachedResponse fetch(X509Certificate issuer, X509Certificate certificate) throws OCSPValidationException {
+        try {
+            URL url = getOcspUrlFromCertificate(certificate);
+            if (null == url) {
+                throw new OCSPValidationException("Certificado não tem validação por OCSP");
+            }
+
+            byte[] sentNonce = new byte[NONCE_LENGTH];
+            random.nextBytes(sentNonce);
+            byte[] encodedOcspRequest = generateOCSPRequest(issuer, certificate.getSerialNumber(), sentNonce).getEncoded();
+            
+            OCSPResp ocspResponse = new OCSPResp(post(url, encodedOcspRequest));
+            if (ocspResponse.getStatus() != OCSPResp.SUCCESSFUL) {
+                throw new OCSPValidationException("Resposta ocsp sem sucesso [" + ocspResponse.getStatus() + "]");
+            }
+            BasicOCSPResp basicResponse = (BasicOCSPResp) ocspResponse.getResponseObject();                        
+            
+            Extension receivedNonce = basicResponse.getExtension(OCSPObjectIdentifiers.id_pkix_ocsp_nonce);
+            if (null == receivedNonce || !Arrays.equals(receivedNonce.getExtnValue().getOctets(), sentNonce)) {
+                throw new OCSPValidationException("Nonce na resposta ocsp não coincide com nonce do pedido ocsp");
+            }
+
+            X509CertificateHolder certHolder = basicResponse.getCerts()[0];
+            if (!basicResponse.isSignatureValid(new JcaContentVerifierProviderBuilder().setProvider(provider).build(issuer))){            
+                if (!certHolder.isValidOn(new Date())){
+                    throw new OCSPValidationException("Certificado não é válido na data atual");
+                }
+                // Certificado tem de ter uma Key Purpose ID for authorized responders
+                if (!ExtendedKeyUsage.fromExtensions(certHolder.getExtensions()).hasKeyPurposeId(KeyPurposeId.id_kp_OCSPSigning)){
+                    throw new OCSPValidationException("Certificado não contém extensão necessária (id_kp_OCSPSigning)");
+                }
+                // Certificado tem de ser emitido pela mesma CA do certificado que estamos a verificar
+                if (!certHolder.isSignatureValid(new JcaContentVerifierProviderBuilder().setProvider(provider).build(issuer))){
+                    throw new OCSPValidationException("Certificado não é assinado pelo mesmo issuer");
+                }
+                // Validar assinatura na resposta ocsp
+                if (!basicResponse.isSignatureValid(new JcaContentVerifierProviderBuilder().setProvider(provider).build(certHolder))){
+                    throw new OCSPValidationException("Não foi possivel validar resposta ocsp");
+                }                
+            } else {
+                if (!certHolder.isValidOn(new Date())){
+                    throw new OCSPValidationException("Certificado não é válido na data atual");
+                }
+            }
+                
+            // Politica de Certificados do SCEE
+            if (null == certHolder.getExtension(OCSPObjectIdentifiers.id_pkix_ocsp_nocheck)) {
+                throw new OCSPValidationException("Extensão id_pkix_ocsp_nocheck não encontrada no certificado (Politica de Certificados do SCEE)");
+            }
+                         
+            SingleResp[] responses = basicResponse.getResponses();
+            if (!responses[0].getCertID().getSerialNumber().equals(certificate.getSerialNumber())) {
+                throw new OCSPValidationException("Número de série do certificado na resposta ocsp não coincide com número de série do certificado");
+            }
+            
+            return new CachedResponse(basicResponse, responses[0], expiryOf(responses[0]));
+        } catch (CertificateEncodingException | OperatorCreationException | OCSPException | IOException ex) {
+            throw new OCSPValidationException("Não foi possivel efetuar a validação através de OCSP (" + certificate.getSubjectX500Principal().getName() + ")", ex);
+        } catch (CertException | CertificateException ex) {
+            throw new OCSPValidationException("Não foi possivel efetuar a validação através de OCSP (" + certificate.getSubjectX500Principal().getName() + ")", ex);        
+        }
+    }
+    
+    
+    private long expiryOf(SingleResp response) {
+        long now = System.currentTimeMillis();
+        long expiry = now + maxAge;
+        
+        if (null != response.getNextUpdate()) {
+            expiry = Math.min(expiry, response.getNextUpdate().getTime());
+        }
+        
+        return expiry;
+    }
+    
+    
+    private static String cacheKey(X509Certificate issuer, X509Certificate certificate) throws OCSPValidationException {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(issuer.getEncoded());
+            return new BigInteger(1, digest).toString(16) + ":" + certificate.getSerialNumber().toString(16);
+        } catch (NoSuchAlgorithmException | CertificateEncodingException ex) {
+            throw new OCSPValidationException("Não foi possivel efetuar a validação através de OCSP (" + certificate.getSubjectX500Principal().getName() + ")", ex);
+        }
+    }
+    
+    
+    /**
+     * Resposta OCSP validada, tal como guardada em cache.
+     */
+    public static final class CachedResponse {
+        private final BasicOCSPResp basicResponse;
+        private final CertStatus certStatus;
+        private final RevokedStatus revokedStatus;
+        private final long expiry;
+        
+        private CachedResponse(BasicOCSPResp basicResponse, SingleResp response, long expiry) {
+            CertificateStatus status = response.getCertStatus();
+            
+            this.basicResponse = basicResponse;
+            this.expiry = expiry;
+            if (status == CertificateStatus.GOOD) {
+                this.certStatus = CertStatus.GOOD;
+                this.revokedStatus = null;
+            } else if (status instanceof RevokedStatus) {
+                this.certStatus = CertStatus.REVOKED;
+                this.revokedStatus = (RevokedStatus) status;
+            } else {
+                this.certStatus = CertStatus.UNKNOWN;
+                this.revokedStatus = null;
+            }
+        }
+        
+        /**
+         * Obtém a resposta OCSP
+         * @return resposta OCSP
+         */
+        public BasicOCSPResp getBasicOCSPResp() {
+            return basicResponse;
+        }
+        
+        /**
+         * Obtém o estado do certificado
+         * @return estado do certificado
+         */
+        public CertStatus getCertStatus() {
+            return certStatus;
+        }
+        
+        /**
+         * Obtém os detalhes da revogação, quando o certificado está revogado
+         * @return detalhes da revogação
+         */
+        public Optional<RevokedStatus> getRevokedStatus() {
+            return Optional.ofNullable(revokedStatus);
+        }
+        
+        /**
+         * Obtém a data a partir da qual a resposta deixa de ser reutilizada
+         * @return data de expiração na cache
+         */
+        public Date getExpiry() {
+            return new Date(expiry);
+        }
+        
+        private boolean isExpired(long now) {
+            return now >= expiry;
+        }
+    }
+}
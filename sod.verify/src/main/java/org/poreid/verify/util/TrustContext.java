@@ -0,0 +1,348 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Rui Martinho (rmartinho@gmail.com), António Braz (antoniocbraz@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.poreid.verify.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.security.SignatureException;
+import java.security.cert.CertPath;
+import java.security.cert.CertPathBuilder;
+import java.security.cert.CertPathBuilderException;
+import java.security.cert.CertPathValidator;
+import java.security.cert.CertPathValidatorException;
+import java.security.cert.CertStore;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.CollectionCertStoreParameters;
+import java.security.cert.PKIXBuilderParameters;
+import java.security.cert.PKIXCertPathBuilderResult;
+import java.security.cert.PKIXCertPathValidatorResult;
+import java.security.cert.PKIXParameters;
+import java.security.cert.TrustAnchor;
+import java.security.cert.X509CertSelector;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import javax.security.auth.x500.X500Principal;
+
+/**
+ * Material de confiança pré-calculado a partir de uma keystore: âncoras de confiança, certificados intermédios indexados
+ * pelo sujeito e cache das cadeias já validadas, indexadas pela impressão digital do certificado.
+ * <p>
+ * É construído uma única vez por keystore e reconstruído quando o conteúdo desta (aliases e certificados) é alterado.
+ * O método invalidate permite também descartá-lo explicitamente após uma alteração.
+ * @author POReID
+ */
+public final class TrustContext {
+    private static final int MAX_CHAIN_DEPTH = 8;
+    private static final int MAX_VALIDATED_CHAINS = 4096;
+    private static final Map<KeyStore, TrustContext> contexts = new WeakHashMap<>();
+    private final Set<TrustAnchor> anchors;
+    private final Map<X500Principal, TrustAnchor> anchorsBySubject = new HashMap<>();
+    private final Map<X500Principal, List<X509Certificate>> intermediates = new HashMap<>();
+    private final CertStore certStore;
+    private final Map<String, ValidatedChain> validatedChains;
+    private final CertificateFactory certificateFactory;
+    private final byte[] contentDigest;
+    
+    
+    /**
+     * Cria o material de confiança a partir dos certificados da keystore.
+     * @param kstore keystore com as raízes e certificados intermédios
+     * @throws KeyStoreException
+     * @throws CertificateException
+     * @throws NoSuchAlgorithmException
+     * @throws NoSuchProviderException
+     * @throws InvalidAlgorithmParameterException 
+     */
+    public TrustContext(KeyStore kstore) throws KeyStoreException, CertificateException, NoSuchAlgorithmException, NoSuchProviderException, InvalidAlgorithmParameterException {
+        Set<TrustAnchor> trustanchors = new HashSet<>();
+        List<X509Certificate> certList = new ArrayList<>();
+        Enumeration<String> enumeration = kstore.aliases();
+        
+        this.contentDigest = contentDigest(kstore);
+        while (enumeration.hasMoreElements()) {
+            X509Certificate certificate = (X509Certificate) kstore.getCertificate(enumeration.nextElement());
+            if (null == certificate) {
+                continue;
+            }
+            if (certificate.getIssuerX500Principal().equals(certificate.getSubjectX500Principal())) {
+                if (isCertificateSelfSigned(certificate)) {
+                    TrustAnchor anchor = new TrustAnchor(certificate, null);
+                    trustanchors.add(anchor);
+                    anchorsBySubject.put(certificate.getSubjectX500Principal(), anchor);
+                }
+            } else {
+                certList.add(certificate);
+                List<X509Certificate> bySubject = intermediates.get(certificate.getSubjectX500Principal());
+                if (null == bySubject) {
+                    bySubject = new ArrayList<>(1);
+                    intermediates.put(certificate.getSubjectX500Principal(), bySubject);
+                }
+                bySubject.add(certificate);
+            }
+        }
+        
+        this.anchors = Collections.unmodifiableSet(trustanchors);
+        this.certStore = CertStore.getInstance("Collection", new CollectionCertStoreParameters(certList));
+        this.certificateFactory = CertificateFactory.getInstance("X.509");
+        this.validatedChains = Collections.synchronizedMap(new LinkedHashMap<String, ValidatedChain>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ValidatedChain> eldest) {
+                return size() > MAX_VALIDATED_CHAINS;
+            }
+        });
+    }
+    
+    
+    /**
+     * Obtém o material de confiança associado à keystore, criando-o na primeira utilização ou quando o conteúdo da keystore
+     * foi alterado desde a última utilização.
+     * @param kstore keystore com as raízes e certificados intermédios
+     * @return material de confiança da keystore
+     * @throws KeyStoreException
+     * @throws CertificateException
+     * @throws NoSuchAlgorithmException
+     * @throws NoSuchProviderException
+     * @throws InvalidAlgorithmParameterException 
+     */
+    public static TrustContext getInstance(KeyStore kstore) throws KeyStoreException, CertificateException, NoSuchAlgorithmException, NoSuchProviderException, InvalidAlgorithmParameterException {
+        synchronized (contexts) {
+            TrustContext context = contexts.get(kstore);
+            if (null == context || !MessageDigest.isEqual(context.contentDigest, contentDigest(kstore))) {
+                context = new TrustContext(kstore);
+                contexts.put(kstore, context);
+            }
+            return context;
+        }
+    }
+    
+    
+    /**
+     * Descarta o material de confiança associado à keystore, sendo reconstruído na próxima utilização.
+     * @param kstore keystore alterada
+     */
+    public static void invalidate(KeyStore kstore) {
+        synchronized (contexts) {
+            contexts.remove(kstore);
+        }
+    }
+    
+    
+    /*
+     * Resumo dos aliases e dos certificados da keystore, permite detetar alterações ao seu conteúdo.
+     */
+    private static byte[] contentDigest(KeyStore kstore) throws KeyStoreException, NoSuchAlgorithmException, CertificateEncodingException {
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        MessageDigest certificateDigest = MessageDigest.getInstance("SHA-256");
+        List<String> aliases = Collections.list(kstore.aliases());
+        
+        Collections.sort(aliases);
+        for (String alias : aliases) {
+            md.update(alias.getBytes(StandardCharsets.UTF_8));
+            md.update((byte) 0);
+            java.security.cert.Certificate certificate = kstore.getCertificate(alias);
+            if (null != certificate) {
+                md.update(certificateDigest.digest(certificate.getEncoded()));
+            }
+        }
+        
+        return md.digest();
+    }
+    
+    
+    /**
+     * Valida a cadeia de certificação do certificado e devolve o certificado do emissor direto.
+     * O resultado é memorizado até ao fim da validade do certificado menos duradouro da cadeia.
+     * @param cert certificado a validar
+     * @return certificado do emissor
+     * @throws CertPathBuilderException Caso não seja possivel construir uma cadeia de certificação válida
+     * @throws InvalidAlgorithmParameterException
+     * @throws NoSuchAlgorithmException
+     * @throws CertificateException 
+     */
+    public X509Certificate getIssuer(X509Certificate cert) throws CertPathBuilderException, InvalidAlgorithmParameterException, NoSuchAlgorithmException, CertificateException {
+        String fingerprint = fingerprint(cert);
+        long now = System.currentTimeMillis();
+        ValidatedChain chain = validatedChains.get(fingerprint);
+        
+        if (null != chain && now >= chain.notBefore && now <= chain.notAfter) {
+            return chain.issuer;
+        }
+        
+        List<X509Certificate> path = findChain(cert);
+        TrustAnchor anchor = null;
+        
+        if (null != path) {
+            anchor = validate(path);
+        }
+        
+        if (null == anchor) {
+            PKIXBuilderParameters params = new PKIXBuilderParameters(anchors, selectorFor(cert));
+            params.addCertStore(certStore);
+            params.addCertStore(CertStore.getInstance("Collection", new CollectionCertStoreParameters(Collections.singletonList(cert))));
+            params.setRevocationEnabled(false);
+            PKIXCertPathBuilderResult result = (PKIXCertPathBuilderResult) CertPathBuilder.getInstance("PKIX").build(params);
+            path = (List<X509Certificate>) result.getCertPath().getCertificates();
+            anchor = result.getTrustAnchor();
+        }
+        
+        chain = new ValidatedChain(path, anchor.getTrustedCert());
+        validatedChains.put(fingerprint, chain);
+        
+        return chain.issuer;
+    }
+    
+    
+    /**
+     * Obtém as âncoras de confiança
+     * @return âncoras de confiança
+     */
+    public Set<TrustAnchor> getTrustAnchors() {
+        return anchors;
+    }
+    
+    
+    /*
+     * Constrói a cadeia diretamente a partir do índice de certificados intermédios, sem a pesquisa do CertPathBuilder.
+     */
+    private List<X509Certificate> findChain(X509Certificate cert) {
+        List<X509Certificate> path = new ArrayList<>();
+        X509Certificate current = cert;
+        
+        path.add(cert);
+        for (int depth = 0; depth < MAX_CHAIN_DEPTH; depth++) {
+            X500Principal issuer = current.getIssuerX500Principal();
+            if (anchorsBySubject.containsKey(issuer)) {
+                return path;
+            }
+            
+            List<X509Certificate> candidates = intermediates.get(issuer);
+            if (null == candidates) {
+                return null;
+            }
+            
+            X509Certificate next = (1 == candidates.size()) ? candidates.get(0) : signerOf(current, candidates);
+            if (null == next || path.contains(next)) {
+                return null;
+            }
+            path.add(next);
+            current = next;
+        }
+        
+        return null;
+    }
+    
+    
+    private TrustAnchor validate(List<X509Certificate> path) throws InvalidAlgorithmParameterException, NoSuchAlgorithmException, CertificateException {
+        CertPath certPath = certificateFactory.generateCertPath(path);
+        PKIXParameters params = new PKIXParameters(anchors);
+        params.setRevocationEnabled(false);
+        
+        try {
+            return ((PKIXCertPathValidatorResult) CertPathValidator.getInstance("PKIX").validate(certPath, params)).getTrustAnchor();
+        } catch (CertPathValidatorException ex) {
+            return null; /* null - correto, recorre ao CertPathBuilder */
+        }
+    }
+    
+    
+    private static X509Certificate signerOf(X509Certificate cert, List<X509Certificate> candidates) {
+        for (X509Certificate candidate : candidates) {
+            try {
+                cert.verify(candidate.getPublicKey());
+                return candidate;
+            } catch (CertificateException | NoSuchAlgorithmException | InvalidKeyException | NoSuchProviderException | SignatureException ignore) {
+            }
+        }
+        
+        return null;
+    }
+    
+    
+    private static X509CertSelector selectorFor(X509Certificate cert) {
+        X509CertSelector select = new X509CertSelector();
+        select.setCertificate(cert);
+        
+        return select;
+    }
+    
+    
+    private static String fingerprint(X509Certificate cert) throws NoSuchAlgorithmException, CertificateEncodingException {
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(cert.getEncoded());
+        StringBuilder sb = new StringBuilder(digest.length * 2);
+        
+        for (byte b : digest) {
+            sb.append(String.format("%02x", b & 0xff));
+        }
+        
+        return sb.toString();
+    }
+    
+    
+    private static boolean isCertificateSelfSigned(X509Certificate certificate) throws CertificateException, NoSuchAlgorithmException, NoSuchProviderException {  
+        try {
+            certificate.verify(certificate.getPublicKey());
+            return true;
+        } catch (SignatureException | InvalidKeyException ex) {
+            return false;
+        }
+    }
+    
+    
+    private static final class ValidatedChain {
+        private final X509Certificate issuer;
+        private final long notBefore;
+        private final long notAfter;
+        
+        private ValidatedChain(List<X509Certificate> path, X509Certificate anchor) {
+            long start = anchor.getNotBefore().getTime();
+            long end = anchor.getNotAfter().getTime();
+            
+            for (X509Certificate certificate : path) {
+                start = Math.max(start, certificate.getNotBefore().getTime());
+                end = Math.min(end, certificate.getNotAfter().getTime());
+            }
+            
+            this.issuer = (path.size() < 2) ? anchor : path.get(1);
+            this.notBefore = start;
+            this.notAfter = end;
+        }
+    }
+}